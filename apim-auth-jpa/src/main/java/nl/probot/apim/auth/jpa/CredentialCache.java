@@ -0,0 +1,104 @@
+package nl.probot.apim.auth.jpa;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.auth.jpa.entities.UserEntity;
+import nl.probot.apim.commons.cache.UserChanged;
+import nl.probot.apim.commons.crypto.CryptoUtil;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+
+import static jakarta.enterprise.event.TransactionPhase.AFTER_SUCCESS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches the users whose credentials have been verified, so that bcrypt doesn't need to run on every basic auth request.
+ * <p>
+ * The cache key is a HMAC of the username and password with a random key per process, so the passwords or their bcrypt hashes
+ * are never kept in memory. Entries expire after the configured ttl and are invalidated when a change of the user is committed,
+ * on this node or, through the cache invalidation bus of the gateway, on another node.
+ * When the cache is full, the least frequently used entries are evicted, so that the busiest users stay cached.
+ */
+@Singleton
+public class CredentialCache {
+
+    @Min(10)
+    @Max(100_000)
+    @ConfigProperty(name = "apim.auth.cache.size", defaultValue = "1000")
+    int maxAmount;
+
+    @Min(0)
+    @Max(3600)
+    @ConfigProperty(name = "apim.auth.cache.ttl", defaultValue = "300")
+    int ttl;
+
+    Ticker ticker = Ticker.systemTicker();
+    Cache<String, VerifiedUser> cache;
+    private final SecretKeySpec hmacKey = new SecretKeySpec(CryptoUtil.randomNonce(32), "HmacSHA256");
+
+    @PostConstruct
+    void init() {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(this.maxAmount)
+                .expireAfterWrite(Duration.ofSeconds(this.ttl))
+                .ticker(this.ticker)
+                .build();
+    }
+
+    public Optional<VerifiedUser> get(String username, char[] password) {
+        if (this.ttl == 0) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(this.cache.getIfPresent(key(username, password)));
+    }
+
+    public void put(char[] password, UserEntity user) {
+        if (this.ttl == 0) {
+            return;
+        }
+        this.cache.put(key(user.username, password), new VerifiedUser(user.id, user.username, user.email, user.splitRoles()));
+    }
+
+    // a login that runs before the commit still reads the old user, so it is only evicted after the commit
+    void onChange(@Observes(during = AFTER_SUCCESS) UserChanged event) {
+        if (event.id() == null) {
+            this.cache.invalidateAll();
+        } else {
+            invalidateId(event.id());
+        }
+    }
+
+    public void invalidateId(String id) {
+        this.cache.asMap().values().removeIf(user -> user.id().equals(id));
+    }
+
+    private String key(String username, char[] password) {
+        try {
+            var mac = Mac.getInstance("HmacSHA256");
+            mac.init(this.hmacKey);
+            mac.update(username.getBytes(UTF_8));
+            mac.update((byte) 0);
+            mac.update(UTF_8.encode(CharBuffer.wrap(password)));
+            return Base64.getEncoder().encodeToString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record VerifiedUser(String id, String username, String email, Set<String> roles) {
+    }
+}
@@ -0,0 +1,93 @@
+package nl.probot.apim.auth.jpa;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Singleton;
+import jakarta.transaction.Transactional;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.auth.jpa.entities.UserEntity;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Writes the user logins to the database in batches, so that a login doesn't need to wait for a database write.
+ * <p>
+ * Besides the last login time, it also stores the passwords that have been rehashed with the configured bcrypt cost.
+ */
+@Singleton
+public class LastLoginWriter {
+
+    @Min(1)
+    @Max(300)
+    @ConfigProperty(name = "apim.auth.last-login.flush-interval", defaultValue = "10")
+    int flushInterval;
+
+    final Set<String> logins = ConcurrentHashMap.newKeySet();
+    final Map<String, Rehash> rehashes = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    void onStart(@Observes StartupEvent event) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("apim-last-login").daemon().factory());
+        this.executor.scheduleWithFixedDelay(this::flushSafely, this.flushInterval, this.flushInterval, SECONDS);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+        flushSafely();
+    }
+
+    public void loggedIn(String username) {
+        this.logins.add(username);
+    }
+
+    /**
+     * Stores the new hash, but only when the password wasn't changed in the meantime.
+     */
+    public void rehashed(String username, String oldPassword, String newPassword, String newSalt) {
+        this.rehashes.put(username, new Rehash(oldPassword, newPassword, newSalt));
+    }
+
+    @Transactional
+    public void flush() {
+        if (!this.logins.isEmpty()) {
+            var usernames = new ArrayList<String>(this.logins);
+            this.logins.removeAll(usernames);
+
+            UserEntity.update("lastLoggedIn = ?1 where username in ?2", OffsetDateTime.now(), usernames);
+            Log.debugf("Last login updated for %d users", usernames.size());
+        }
+
+        this.rehashes.forEach((username, rehash) -> {
+            if (this.rehashes.remove(username, rehash)) {
+                var count = UserEntity.update("password = ?1, salt = ?2 where username = ?3 and password = ?4",
+                        rehash.newPassword(), rehash.newSalt(), username, rehash.oldPassword());
+                Log.infof("User %s******* password rehashed: %b", username.substring(0, 3), count > 0);
+            }
+        });
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Log.errorf(e, "Could not write the user logins");
+        }
+    }
+
+    record Rehash(String oldPassword, String newPassword, String newSalt) {
+    }
+}
@@ -3,6 +3,8 @@ package nl.probot.apim.auth.jpa;
 import io.quarkus.logging.Log;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.WebApplicationException;
 import nl.probot.apim.auth.jpa.dto.ChangePassword;
@@ -10,6 +12,7 @@ import nl.probot.apim.auth.jpa.dto.User;
 import nl.probot.apim.auth.jpa.dto.UserPOST;
 import nl.probot.apim.auth.jpa.dto.UserPUT;
 import nl.probot.apim.auth.jpa.entities.UserEntity;
+import nl.probot.apim.commons.cache.UserChanged;
 import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper;
 import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper.StaticStatement;
 import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper.WhereStatement;
@@ -25,6 +28,9 @@ import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 @RolesAllowed("${apim.roles.manager}")
 public class UserController implements UserOpenApi {
 
+    @Inject
+    Event<UserChanged> userChanged;
+
     @Override
     @Transactional
     public RestResponse<Void> save(UserPOST user) {
@@ -43,11 +49,12 @@ public class UserController implements UserOpenApi {
             throw new WebApplicationException("User %s is blocked".formatted(username), 400);
         }
 
-        if (!UserEntity.passwordMatches(request.oldPassword().toCharArray(), user.password, user.salt)) {
+        if (!UserEntity.passwordMatches(request.oldPassword().toCharArray(), user.password)) {
             throw new WebApplicationException("Username and/or newPassword incorrect: %s".formatted(username), 400);
         }
 
         UserEntity.setCredentials(user, request.newPassword().toCharArray());
+        this.userChanged.fire(new UserChanged(user.id));
         Log.infof("User(username=%s****) password updated", username.substring(0, 3));
     }
 
@@ -62,6 +69,7 @@ public class UserController implements UserOpenApi {
 
         var count = UserEntity.update(query, helper.values());
         if (count > 0) {
+            this.userChanged.fire(new UserChanged(id.toString()));
             Log.infof("User(id=%s***, email=%s, roles=%s) updated with %d records", id, user.email(), user.roles(), count);
             return RestResponse.ok();
         }
@@ -72,6 +80,7 @@ public class UserController implements UserOpenApi {
     @Transactional
     public void activate(UUID id, Boolean enable) {
         UserEntity.activate(id.toString(), enable);
+        this.userChanged.fire(new UserChanged(id.toString()));
         Log.infof("User(id=%s***, enabled=%b) updated", id.toString().substring(0, 3), enable);
     }
 
@@ -8,18 +8,33 @@ import io.quarkus.security.jpa.runtime.JpaIdentityProvider;
 import io.quarkus.security.runtime.QuarkusPrincipal;
 import io.quarkus.security.runtime.QuarkusSecurityIdentity;
 import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import jakarta.persistence.EntityManager;
 import nl.probot.apim.auth.jpa.entities.UserEntity;
 
-import java.time.OffsetDateTime;
+import java.util.Set;
 
 @Singleton
 @Priority(1)
 public class UserIdentityProvider extends JpaIdentityProvider {
 
+    @Inject
+    CredentialCache credentialCache;
+
+    @Inject
+    LastLoginWriter lastLoginWriter;
+
     @Override
     public SecurityIdentity authenticate(EntityManager em, UsernamePasswordAuthenticationRequest request) {
+        var password = request.getPassword().getPassword();
+        var cachedUser = this.credentialCache.get(request.getUsername(), password);
+        if (cachedUser.isPresent()) {
+            var user = cachedUser.get();
+            this.lastLoginWriter.loggedIn(user.username());
+            return identity(user.username(), user.roles(), user.email());
+        }
+
         try {
             var user = em.createQuery("from UserEntity u where u.username = ?1", UserEntity.class)
                     .setParameter(1, request.getUsername())
@@ -29,26 +44,41 @@ public class UserIdentityProvider extends JpaIdentityProvider {
                 throw new AuthenticationFailedException("User %s is blocked".formatted(request.getUsername()));
             }
 
-            if (!UserEntity.passwordMatches(request.getPassword().getPassword(), user.password, user.salt)) {
+            if (!UserEntity.passwordMatches(password, user.password)) {
                 throw new AuthenticationFailedException("Username and/or newPassword incorrect: %s".formatted(request.getUsername()));
             }
 
-            logUser(em, user.username);
-            return QuarkusSecurityIdentity.builder()
-                    .setPrincipal(new QuarkusPrincipal(user.username))
-                    .addRoles(user.splitRoles())
-                    .addAttribute("email", user.email)
-                    .build();
+            if (UserEntity.needsRehash(user.password)) {
+                rehash(em, user, password);
+            }
+
+            this.credentialCache.put(password, user);
+            logUser(user.username);
+            return identity(user.username, user.splitRoles(), user.email);
         } catch (Exception e) {
             Log.errorf("Unknown user login attempt: '%s'", request.getUsername());
             throw new AuthenticationFailedException("Unknown User");
         }
     }
 
-    private static void logUser(EntityManager em, String username) {
-        em.getTransaction().begin();
-        UserEntity.update("lastLoggedIn = ?1 where username = ?2", OffsetDateTime.now(), username);
-        em.getTransaction().commit();
+    private void rehash(EntityManager em, UserEntity user, char[] password) {
+        // the session is read-only, so the changed entity is not flushed, the writer stores it
+        em.detach(user);
+        var oldPassword = user.password;
+        UserEntity.setCredentials(user, password);
+        this.lastLoginWriter.rehashed(user.username, oldPassword, user.password, user.salt);
+    }
+
+    private void logUser(String username) {
+        this.lastLoginWriter.loggedIn(username);
         Log.infof("User %s******* logged in", username.substring(0, 3));
     }
+
+    private static SecurityIdentity identity(String username, Set<String> roles, String email) {
+        return QuarkusSecurityIdentity.builder()
+                .setPrincipal(new QuarkusPrincipal(username))
+                .addRoles(roles)
+                .addAttribute("email", email)
+                .build();
+    }
 }
@@ -16,6 +16,7 @@ import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import jakarta.ws.rs.NotFoundException;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.hibernate.annotations.NaturalId;
 import org.hibernate.annotations.TimeZoneStorage;
 import org.hibernate.annotations.UuidGenerator;
@@ -33,6 +34,8 @@ import static org.hibernate.annotations.TimeZoneStorageType.NATIVE;
 @Table(name = "user", schema = "public")
 public class UserEntity extends PanacheEntityBase {
 
+    public static final int DEFAULT_BCRYPT_COST = 12;
+
     @Id
     @GeneratedValue
     @UuidGenerator
@@ -103,17 +106,36 @@ public class UserEntity extends PanacheEntityBase {
         infof("User(id=%s****, enabled=%b) updated", id.substring(0, 3), activate);
     }
 
-    public static boolean passwordMatches(char[] password, String hashedPassword, String salt) {
-        return hashedPassword.equals(hashPassword(password, salt));
+    /**
+     * Verifies the password against the bcrypt hash, the cost and salt are read from the hash itself.
+     */
+    public static boolean passwordMatches(char[] password, String hashedPassword) {
+        return BcryptUtil.matches(String.valueOf(password), hashedPassword);
     }
 
-    public static String hashPassword(char[] password, String salt) {
-        return BcryptUtil.bcryptHash(String.valueOf(password), 31, Base64.getDecoder().decode(salt));
+    /**
+     * @return true when the hash was created with another cost than the configured cost.
+     */
+    public static boolean needsRehash(String hashedPassword) {
+        return bcryptCost(hashedPassword) != configuredCost();
     }
 
     public static void setCredentials(UserEntity user, char[] password) {
         var nonce = randomNonce(16);
         user.salt = Base64.getEncoder().encodeToString(nonce);
-        user.password = BcryptUtil.bcryptHash(String.valueOf(password), 31, nonce);
+        user.password = BcryptUtil.bcryptHash(String.valueOf(password), configuredCost(), nonce);
+    }
+
+    // the hash is in the modular crypt format: $2a$<cost>$<salt+hash>
+    static int bcryptCost(String hashedPassword) {
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, 6));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    static int configuredCost() {
+        return ConfigProvider.getConfig().getOptionalValue("apim.auth.bcrypt.cost", Integer.class).orElse(DEFAULT_BCRYPT_COST);
     }
 }
@@ -0,0 +1,90 @@
+package nl.probot.apim.auth.jpa;
+
+import nl.probot.apim.auth.jpa.entities.UserEntity;
+import nl.probot.apim.commons.cache.UserChanged;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CredentialCacheTest {
+
+    CredentialCache credentialCache = new CredentialCache();
+    AtomicLong time = new AtomicLong();
+
+    @BeforeEach
+    void init() {
+        this.credentialCache.maxAmount = 10;
+        this.credentialCache.ttl = 300;
+        this.credentialCache.ticker = this.time::get;
+        this.credentialCache.init();
+    }
+
+    @Test
+    void get() {
+        this.credentialCache.put("secret".toCharArray(), user("1", "alice"));
+
+        assertThat(this.credentialCache.get("alice", "secret".toCharArray()))
+                .hasValueSatisfying(user -> {
+                    assertThat(user.id()).isEqualTo("1");
+                    assertThat(user.roles()).containsExactlyInAnyOrder("admin", "user");
+                });
+        assertThat(this.credentialCache.get("alice", "wrong".toCharArray())).isEmpty();
+        assertThat(this.credentialCache.get("bob", "secret".toCharArray())).isEmpty();
+    }
+
+    @Test
+    void expires() {
+        this.credentialCache.put("secret".toCharArray(), user("1", "alice"));
+
+        this.time.addAndGet(Duration.ofSeconds(301).toNanos());
+        assertThat(this.credentialCache.get("alice", "secret".toCharArray())).isEmpty();
+    }
+
+    @Test
+    void bounded() {
+        for (var i = 0; i < 20; i++) {
+            this.credentialCache.put("secret".toCharArray(), user(String.valueOf(i), "user" + i));
+        }
+        this.credentialCache.cache.cleanUp();
+
+        assertThat(this.credentialCache.cache.estimatedSize()).isEqualTo(10);
+    }
+
+    @Test
+    void invalidate() {
+        this.credentialCache.put("secret".toCharArray(), user("1", "alice"));
+        this.credentialCache.put("secret".toCharArray(), user("2", "bob"));
+
+        this.credentialCache.onChange(new UserChanged("1"));
+        assertThat(this.credentialCache.get("alice", "secret".toCharArray())).isEmpty();
+        assertThat(this.credentialCache.get("bob", "secret".toCharArray())).isPresent();
+
+        this.credentialCache.onChange(new UserChanged("2", true));
+        assertThat(this.credentialCache.get("bob", "secret".toCharArray())).isEmpty();
+
+        this.credentialCache.put("secret".toCharArray(), user("1", "alice"));
+        this.credentialCache.onChange(new UserChanged(null, true));
+        assertThat(this.credentialCache.get("alice", "secret".toCharArray())).isEmpty();
+    }
+
+    @Test
+    void disabled() {
+        this.credentialCache.ttl = 0;
+        this.credentialCache.init();
+        this.credentialCache.put("secret".toCharArray(), user("1", "alice"));
+
+        assertThat(this.credentialCache.get("alice", "secret".toCharArray())).isEmpty();
+    }
+
+    private static UserEntity user(String id, String username) {
+        var user = new UserEntity();
+        user.id = id;
+        user.username = username;
+        user.roles = "admin,user";
+        return user;
+    }
+}
@@ -0,0 +1,30 @@
+package nl.probot.apim.auth.jpa;
+
+import nl.probot.apim.auth.jpa.LastLoginWriter.Rehash;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LastLoginWriterTest {
+
+    LastLoginWriter lastLoginWriter = new LastLoginWriter();
+
+    @Test
+    void loggedIn() {
+        this.lastLoginWriter.loggedIn("alice");
+        this.lastLoginWriter.loggedIn("alice");
+        this.lastLoginWriter.loggedIn("bob");
+
+        assertThat(this.lastLoginWriter.logins).containsExactlyInAnyOrder("alice", "bob");
+    }
+
+    @Test
+    void rehashed() {
+        this.lastLoginWriter.rehashed("alice", "old", "new1", "salt1");
+        this.lastLoginWriter.rehashed("alice", "old", "new2", "salt2");
+
+        // only the last rehash of a user is written
+        assertThat(this.lastLoginWriter.rehashes).containsOnlyKeys("alice");
+        assertThat(this.lastLoginWriter.rehashes.get("alice")).isEqualTo(new Rehash("old", "new2", "salt2"));
+    }
+}
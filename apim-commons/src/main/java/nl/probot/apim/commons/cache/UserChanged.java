@@ -0,0 +1,15 @@
+package nl.probot.apim.commons.cache;
+
+/**
+ * Fired when the credentials, roles or status of a user have been changed, so that the cached credentials of the user are invalidated
+ * after the commit, on all nodes of the cluster.
+ *
+ * @param id       the id of the user, or {@code null} when the changes of the users may have been missed and all of them are invalidated.
+ * @param received whether the change was received from the cache invalidation bus, instead of being made on this node.
+ */
+public record UserChanged(String id, boolean received) {
+
+    public UserChanged(String id) {
+        this(id, false);
+    }
+}
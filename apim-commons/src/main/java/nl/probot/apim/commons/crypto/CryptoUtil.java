@@ -1,29 +1,21 @@
 package nl.probot.apim.commons.crypto;
 
-import javax.crypto.BadPaddingException;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.util.Random;
+import java.security.GeneralSecurityException;
 
 public final class CryptoUtil {
 
     private static final String CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
     private static final String AES_GCM_NOPADDING = "AES/GCM/NoPadding";
-    private static final String AES = "AES";
     private static final int AES_KEY_SIZE = 128;
     private static final int GCM_TAG_LENGTH = 16;
     private static final int GCM_IV_LENGTH = 12;
+    private static final int SALT_LENGTH = 16;
+    private static final byte[] HEADER_V2 = {'A', 2};
+    private static final KeyCache KEYS = new KeyCache(1024, AES_KEY_SIZE, SALT_LENGTH);
 
     private CryptoUtil() {
         super();
@@ -31,77 +23,66 @@ public final class CryptoUtil {
 
     /**
      * Encrypts the given data with the secret with AES-128.
+     * <p>
+     * The AES key is derived once per secret and salt, so all values that are encrypted by this process share the same key,
+     * but each value has its own random iv.
      *
      * @param data   the data.
      * @param secret the secret.
-     * @return encrypted data containing: iv, salt & data.
+     * @return encrypted data containing: header, salt, iv & data.
      */
     public static byte[] encrypt(byte[] data, char[] secret) {
         try {
-            var salt = randomNonce(GCM_TAG_LENGTH);
+            var salt = KEYS.currentSalt(secret);
             var iv = randomNonce(GCM_IV_LENGTH);
 
-            var keySpec = getKey(secret, salt);
             var cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+            cipher.init(Cipher.ENCRYPT_MODE, KEYS.get(secret, salt), new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+            cipher.updateAAD(HEADER_V2);
 
             var encryptedData = cipher.doFinal(data);
 
-            // combine the iv, salt & data so that we can use it during decryption
-            return ByteBuffer.allocate(iv.length + salt.length + encryptedData.length)
-                    .put(iv)
+            // combine the header, salt, iv & data so that we can use it during decryption
+            return ByteBuffer.allocate(HEADER_V2.length + salt.length + iv.length + encryptedData.length)
+                    .put(HEADER_V2)
                     .put(salt)
+                    .put(iv)
                     .put(encryptedData)
                     .array();
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException |
-                 InvalidKeySpecException | InvalidKeyException |
-                 IllegalBlockSizeException | BadPaddingException e) {
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException("Encryption error: ", e);
         }
     }
 
     /**
      * Decrypts the data with AES-128.
-     * Expects the data in the following format: iv, salt & data.
+     * Expects the data in one of the following formats:
+     * <ul>
+     *     <li>header, salt, iv & data,</li>
+     *     <li>iv, salt & data: the legacy format, in which each value has its own salt.</li>
+     * </ul>
      *
      * @param data   the data.
      * @param secret the secret.
      * @return the decrypted data.
      */
     public static byte[] decrypt(byte[] data, char[] secret) {
-        // get back the iv and salt from the cipher text
-        var bb = ByteBuffer.wrap(data);
-
-        var iv = new byte[GCM_IV_LENGTH];
-        bb.get(iv);
-
-        var salt = new byte[GCM_TAG_LENGTH];
-        bb.get(salt);
-
-        var cipherText = new byte[bb.remaining()];
-        bb.get(cipherText);
-
         try {
-            var keySpec = getKey(secret, salt);
-            var cipher = Cipher.getInstance(AES_GCM_NOPADDING);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
-
-            return cipher.doFinal(cipherText);
-        } catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException |
-                 NoSuchAlgorithmException | InvalidKeySpecException |
-                 BadPaddingException | InvalidKeyException e) {
+            if (hasHeaderV2(data)) {
+                try {
+                    return decryptV2(data, secret);
+                } catch (AEADBadTagException e) {
+                    // the iv of a legacy value can start with the same bytes as the header, so try the legacy format
+                }
+            }
+            return decryptLegacy(data, secret);
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException("Decryption error: ", e);
         }
     }
 
     public static byte[] randomNonce(int length) {
-        var result = new byte[length];
-        try {
-            SecureRandom.getInstanceStrong().nextBytes(result);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-        return result;
+        return NonceGenerator.nextBytes(length);
     }
 
     public static String createRandomKey(int length) {
@@ -109,18 +90,49 @@ public final class CryptoUtil {
             throw new IllegalArgumentException("length must be positive");
         }
 
-        var rnd = new Random();
-        var result = new StringBuffer(length);
+        var result = new StringBuilder(length);
 
         for (int i = 0; i < length; i++) {
-            result.append(CHARS.charAt(rnd.nextInt(CHARS.length())));
+            result.append(CHARS.charAt(NonceGenerator.nextInt(CHARS.length())));
         }
         return result.toString();
     }
 
-    private static SecretKeySpec getKey(char[] secret, byte[] salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        var factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        var spec = new PBEKeySpec(secret, salt, 65536, AES_KEY_SIZE);
-        return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), AES);
+    private static byte[] decryptV2(byte[] data, char[] secret) throws GeneralSecurityException {
+        var bb = ByteBuffer.wrap(data, HEADER_V2.length, data.length - HEADER_V2.length);
+
+        var salt = new byte[SALT_LENGTH];
+        bb.get(salt);
+
+        var iv = new byte[GCM_IV_LENGTH];
+        bb.get(iv);
+
+        var cipher = Cipher.getInstance(AES_GCM_NOPADDING);
+        cipher.init(Cipher.DECRYPT_MODE, KEYS.get(secret, salt), new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+        cipher.updateAAD(HEADER_V2);
+
+        return cipher.doFinal(data, bb.position(), bb.remaining());
+    }
+
+    private static byte[] decryptLegacy(byte[] data, char[] secret) throws GeneralSecurityException {
+        // get back the iv and salt from the cipher text
+        var bb = ByteBuffer.wrap(data);
+
+        var iv = new byte[GCM_IV_LENGTH];
+        bb.get(iv);
+
+        var salt = new byte[SALT_LENGTH];
+        bb.get(salt);
+
+        var cipher = Cipher.getInstance(AES_GCM_NOPADDING);
+        cipher.init(Cipher.DECRYPT_MODE, KEYS.get(secret, salt), new GCMParameterSpec(GCM_TAG_LENGTH * 8, iv));
+
+        return cipher.doFinal(data, bb.position(), bb.remaining());
+    }
+
+    private static boolean hasHeaderV2(byte[] data) {
+        return data.length > HEADER_V2.length + SALT_LENGTH + GCM_IV_LENGTH
+                && data[0] == HEADER_V2[0]
+                && data[1] == HEADER_V2[1];
     }
 }
@@ -0,0 +1,102 @@
+package nl.probot.apim.commons.crypto;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Caches the AES keys that are derived with PBKDF2, so that the expensive key derivation only happens once per secret and salt.
+ * <p>
+ * The cache is bounded and evicts the least recently used keys, because every value in the legacy ciphertext format has its own salt.
+ * Values in the current format share one salt per secret per process, see {@link #currentSalt(char[])}.
+ * <p>
+ * The keys are cached by a SHA-256 digest of the secret, so that the long-lived maps don't hold a copy of the secret itself.
+ */
+final class KeyCache {
+
+    private static final int ITERATIONS = 65536;
+
+    private final int aesKeySize;
+    private final int saltLength;
+    private final Map<KeyId, SecretKeySpec> keys;
+    private final Map<ByteBuffer, byte[]> currentSalts = new ConcurrentHashMap<>();
+
+    KeyCache(int maxSize, int aesKeySize, int saltLength) {
+        this.aesKeySize = aesKeySize;
+        this.saltLength = saltLength;
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<KeyId, SecretKeySpec> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    SecretKeySpec get(char[] secret, byte[] salt) throws GeneralSecurityException {
+        var id = new KeyId(secretId(secret), ByteBuffer.wrap(salt.clone()));
+
+        synchronized (this.keys) {
+            var key = this.keys.get(id);
+            if (key != null) {
+                return key;
+            }
+        }
+
+        // derived outside the lock, so that a cache miss doesn't block the other threads
+        var key = derive(secret, salt);
+        synchronized (this.keys) {
+            this.keys.put(id, key);
+        }
+        return key;
+    }
+
+    /**
+     * @return the salt that is used for encrypting new values with the given secret, it is generated once per process.
+     */
+    byte[] currentSalt(char[] secret) {
+        return this.currentSalts.computeIfAbsent(secretId(secret), id -> CryptoUtil.randomNonce(this.saltLength));
+    }
+
+    int size() {
+        synchronized (this.keys) {
+            return this.keys.size();
+        }
+    }
+
+    private SecretKeySpec derive(char[] secret, byte[] salt) throws GeneralSecurityException {
+        var factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        var spec = new PBEKeySpec(secret, salt, ITERATIONS, this.aesKeySize);
+        try {
+            return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static ByteBuffer secretId(char[] secret) {
+        var bytes = UTF_8.encode(CharBuffer.wrap(secret));
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate());
+            return ByteBuffer.wrap(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(bytes.array(), (byte) 0);
+        }
+    }
+
+    private record KeyId(ByteBuffer secret, ByteBuffer salt) {
+    }
+}
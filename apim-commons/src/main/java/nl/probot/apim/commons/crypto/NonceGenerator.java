@@ -0,0 +1,54 @@
+package nl.probot.apim.commons.crypto;
+
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import static java.security.DrbgParameters.Capability.RESEED_ONLY;
+
+/**
+ * Generates random bytes for nonces, salts and keys with a pool of DRBG (NIST SP 800-90Ar1) instances.
+ * <p>
+ * Unlike {@link SecureRandom#getInstanceStrong()}, the instances are only seeded once from the system entropy source,
+ * so generating random bytes never blocks on entropy. The DRBG instances are thread safe, the pool only reduces contention,
+ * and a thread picks its instance based on its id, so this also works for virtual threads.
+ */
+public final class NonceGenerator {
+
+    private NonceGenerator() {
+        super();
+    }
+
+    public static byte[] nextBytes(int length) {
+        var result = new byte[length];
+        random().nextBytes(result);
+        return result;
+    }
+
+    public static int nextInt(int bound) {
+        return random().nextInt(bound);
+    }
+
+    private static SecureRandom random() {
+        var pool = Pool.INSTANCES;
+        return pool[(int) (Thread.currentThread().threadId() & (pool.length - 1))];
+    }
+
+    // lazily initialized on first use, so that the seeding doesn't happen while loading the class
+    private static final class Pool {
+
+        static final SecureRandom[] INSTANCES = create(Integer.highestOneBit(Runtime.getRuntime().availableProcessors()));
+
+        private static SecureRandom[] create(int size) {
+            var result = new SecureRandom[size];
+            for (int i = 0; i < size; i++) {
+                try {
+                    result[i] = SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(256, RESEED_ONLY, null));
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("DRBG is not available", e);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package nl.probot.apim.core.commons.crypto;
+
+import nl.probot.apim.commons.crypto.CryptoUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toSet;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CryptoUtilTest {
+
+    static final char[] SECRET = "142537893_!93309".toCharArray();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "a", "hello world", "a much longer value with some special characters: é, ü & €"})
+    void encryptAndDecrypt(String value) {
+        var encrypted = CryptoUtil.encrypt(value.getBytes(UTF_8), SECRET);
+
+        assertThat(encrypted[0]).isEqualTo((byte) 'A');
+        assertThat(encrypted[1]).isEqualTo((byte) 2);
+        assertThat(new String(CryptoUtil.decrypt(encrypted, SECRET), UTF_8)).isEqualTo(value);
+    }
+
+    @Test
+    void randomIvPerValue() {
+        var value = "hello world".getBytes(UTF_8);
+        var encrypted1 = CryptoUtil.encrypt(value, SECRET);
+        var encrypted2 = CryptoUtil.encrypt(value, SECRET);
+
+        // same header and salt, but a different iv
+        assertThat(Arrays.copyOfRange(encrypted1, 0, 18)).isEqualTo(Arrays.copyOfRange(encrypted2, 0, 18));
+        assertThat(encrypted1).isNotEqualTo(encrypted2);
+    }
+
+    @Test
+    void decryptLegacyFormat() throws Exception {
+        var legacy = legacyEncrypt("my secret password".getBytes(UTF_8), SECRET, new byte[12]);
+
+        assertThat(new String(CryptoUtil.decrypt(legacy, SECRET), UTF_8)).isEqualTo("my secret password");
+    }
+
+    @Test
+    void decryptLegacyFormatStartingWithHeader() throws Exception {
+        var iv = new byte[12];
+        iv[0] = 'A';
+        iv[1] = 2;
+        var legacy = legacyEncrypt("my secret password".getBytes(UTF_8), SECRET, iv);
+
+        assertThat(new String(CryptoUtil.decrypt(legacy, SECRET), UTF_8)).isEqualTo("my secret password");
+    }
+
+    @Test
+    void wrongSecret() {
+        var encrypted = CryptoUtil.encrypt("hello world".getBytes(UTF_8), SECRET);
+
+        assertThatThrownBy(() -> CryptoUtil.decrypt(encrypted, "wrong".toCharArray()))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageStartingWith("Decryption error");
+    }
+
+    @Test
+    void createRandomKey() {
+        var keys = IntStream.range(0, 1000).parallel().mapToObj(i -> CryptoUtil.createRandomKey(32)).collect(toSet());
+
+        assertThat(keys).hasSize(1000).allMatch(key -> key.matches("[A-Za-z0-9]{32}"));
+        assertThatThrownBy(() -> CryptoUtil.createRandomKey(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void randomNonce() {
+        var nonces = IntStream.range(0, 1000).parallel().mapToObj(i -> ByteBuffer.wrap(CryptoUtil.randomNonce(16))).collect(toSet());
+
+        assertThat(nonces).hasSize(1000).allMatch(nonce -> nonce.remaining() == 16);
+    }
+
+    // the format before the versioned header was introduced: iv, salt & data, with a salt per value
+    private static byte[] legacyEncrypt(byte[] data, char[] secret, byte[] iv) throws Exception {
+        var salt = CryptoUtil.randomNonce(16);
+        var factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        var key = new SecretKeySpec(factory.generateSecret(new PBEKeySpec(secret, salt, 65536, 128)).getEncoded(), "AES");
+
+        var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        var encrypted = cipher.doFinal(data);
+
+        return ByteBuffer.allocate(iv.length + salt.length + encrypted.length)
+                .put(iv)
+                .put(salt)
+                .put(encrypted)
+                .array();
+    }
+}
@@ -2,9 +2,10 @@ package nl.probot.apim.core.camel;
 
 import io.quarkus.logging.Log;
 import io.quarkus.security.UnauthorizedException;
-import jakarta.enterprise.context.control.ActivateRequestContext;
+import io.vertx.core.net.SocketAddress;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
-import nl.probot.apim.core.entities.AccessListEntity;
+import nl.probot.apim.core.utils.AccessListManager;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 
@@ -13,15 +14,21 @@ import static org.apache.camel.component.platform.http.vertx.VertxPlatformHttpCo
 @Singleton
 public class AccessProcessor implements Processor {
 
+    @Inject
+    AccessListManager accessListManager;
+
     @Override
-    @ActivateRequestContext
     public void process(Exchange exchange) {
-        var fullIp = exchange.getIn().getHeader(REMOTE_ADDRESS, String.class).split(":");
-        var ip = fullIp[0];
-
-        var hasAccess = AccessListEntity.hasAccess(ip);
+        var ip = exchange.getIn().getHeader(REMOTE_ADDRESS, SocketAddress.class).hostAddress();
         Log.debugf("%s is accessing the apim", ip);
 
+        boolean hasAccess;
+        try {
+            hasAccess = this.accessListManager.hasAccess(ip);
+        } catch (IllegalArgumentException e) {
+            hasAccess = false;
+        }
+
         if (!hasAccess) {
             throw new UnauthorizedException("%s is blocked or has no access".formatted(ip));
         }
@@ -0,0 +1,103 @@
+package nl.probot.apim.core.camel;
+
+import io.quarkus.logging.Log;
+import io.vertx.core.json.JsonObject;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.entities.ApiCredentialEntity;
+import nl.probot.apim.core.utils.CacheManager;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+import static jakarta.ws.rs.core.HttpHeaders.AUTHORIZATION;
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+import static jakarta.ws.rs.core.MediaType.APPLICATION_FORM_URLENCODED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static nl.probot.apim.core.utils.CacheRegion.TOKENS;
+import static org.apache.camel.component.http.HttpCredentialsHelper.generateBasicAuthHeader;
+
+/**
+ * Obtains the access tokens for the client credentials authentication towards the downstream Apis.
+ * <p>
+ * The tokens are kept in the {@link nl.probot.apim.core.utils.CacheRegion#TOKENS} cache until shortly before they expire,
+ * so the token endpoint is only called once per credential instead of on each request.
+ */
+@Singleton
+public class AccessTokenProvider {
+
+    static final long EXPIRY_MARGIN = 30;
+
+    @Inject
+    CacheManager cacheManager;
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+    public String accessToken(ApiCredentialEntity credential) {
+        var key = cacheKey(credential);
+        return this.cacheManager.<String>get(TOKENS, key).orElseGet(() -> {
+            var response = requestToken(credential);
+            var accessToken = response.getString("access_token");
+            if (accessToken == null) {
+                throw new WebApplicationException("No access token was returned by %s".formatted(credential.clientUrl), 502);
+            }
+
+            var expiresIn = response.getValue("expires_in");
+            var ttl = expiresIn != null ? Long.parseLong(expiresIn.toString()) - EXPIRY_MARGIN : 0;
+            if (ttl > 0) {
+                this.cacheManager.set(TOKENS, key, accessToken, Duration.ofSeconds(ttl));
+            }
+            return accessToken;
+        });
+    }
+
+    private JsonObject requestToken(ApiCredentialEntity credential) {
+        var form = "grant_type=client_credentials";
+        form += credential.clientScope != null ? "&scope=%s".formatted(URLEncoder.encode(credential.clientScope, UTF_8)) : "";
+
+        var request = HttpRequest.newBuilder(URI.create(credential.clientUrl))
+                .timeout(Duration.ofSeconds(30))
+                .header(AUTHORIZATION, generateBasicAuthHeader(credential.clientId, credential.clientSecret))
+                .header(CONTENT_TYPE, APPLICATION_FORM_URLENCODED)
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+
+        try {
+            var response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 != 2) {
+                throw new WebApplicationException("Access token request to %s failed with status %d".formatted(credential.clientUrl, response.statusCode()), 502);
+            }
+
+            Log.debugf("Access token obtained from %s", credential.clientUrl);
+            return new JsonObject(response.body());
+        } catch (IOException e) {
+            throw new WebApplicationException("Access token request to %s failed: %s".formatted(credential.clientUrl, e.getMessage()), e, 502);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException("Access token request to %s was interrupted".formatted(credential.clientUrl), e, 502);
+        }
+    }
+
+    // the secret is part of the key, so that a changed secret gets a new token
+    private static String cacheKey(ApiCredentialEntity credential) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            for (var value : new String[]{credential.clientUrl, credential.clientId, credential.clientSecret, credential.clientScope}) {
+                digest.update(String.valueOf(value).getBytes(UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package nl.probot.apim.core.camel;
 
-import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Timer;
-import io.micrometer.core.instrument.Timer.Sample;
 import io.quarkus.logging.Log;
 import io.quarkus.security.AuthenticationFailedException;
 import io.quarkus.security.UnauthorizedException;
@@ -12,17 +9,21 @@ import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Cookie;
 import jakarta.ws.rs.core.NewCookie;
 import nl.probot.apim.core.entities.ApiCredentialEntity;
-import nl.probot.apim.core.entities.SubscriptionEntity;
-import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.utils.MultipartContentTypeFilter;
 import org.apache.camel.Exchange;
 import org.apache.camel.attachment.AttachmentMessage;
-import org.apache.camel.converter.stream.InputStreamCache;
+import org.apache.camel.component.platform.http.vertx.HttpMessage;
 import org.apache.camel.http.base.HttpOperationFailedException;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
 import java.net.URLEncoder;
-import java.time.OffsetDateTime;
-import java.time.temporal.ValueRange;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -36,9 +37,9 @@ import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collectors.joining;
-import static nl.probot.apim.core.camel.SubscriptionProcessor.CACHING_KEY;
-import static nl.probot.apim.core.camel.SubscriptionProcessor.SUBSCRIPTION;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
 import static nl.probot.apim.core.camel.SubscriptionProcessor.SUBSCRIPTION_KEY;
+import static org.apache.camel.Exchange.CONTENT_LENGTH;
 import static org.apache.camel.Exchange.CONTENT_TYPE;
 import static org.apache.camel.Exchange.EXCEPTION_CAUGHT;
 import static org.apache.camel.Exchange.FAILURE_ENDPOINT;
@@ -49,17 +50,27 @@ import static org.apache.camel.Exchange.HTTP_RESPONSE_CODE;
 import static org.apache.camel.Exchange.HTTP_URI;
 import static org.apache.camel.ExchangePropertyKey.FAILURE_ROUTE_ID;
 import static org.apache.camel.component.http.HttpCredentialsHelper.generateBasicAuthHeader;
-import static org.apache.camel.component.http.HttpMethods.GET;
 import static org.apache.camel.component.platform.http.vertx.VertxPlatformHttpConstants.AUTHENTICATED_USER;
 import static org.apache.camel.component.platform.http.vertx.VertxPlatformHttpConstants.REMOTE_ADDRESS;
 
 public final class CamelUtils {
 
+    public static final String FORWARD_URL = "forwardUrl";
+    public static final String FORWARD_PATH = "forwardPath";
+
     private CamelUtils() {
         super();
     }
 
-    public static void multiPartProcessor(Exchange exchange) {
+    public static void multiPartProcessor(Exchange exchange, MultipartContentTypeFilter multipartFilter) {
+        // a body that is passed through is forwarded as is, together with its Content-Type and boundary
+        var request = exchange.getIn(HttpMessage.class);
+        var passThroughBody = request != null ? multipartFilter.passThroughBody(request.getRequest()) : Optional.<InputStream>empty();
+        if (passThroughBody.isPresent()) {
+            exchange.getIn().setBody(passThroughBody.get());
+            return;
+        }
+
         var body = (Map<String, Object>) exchange.getIn().getBody(Map.class);
         var message = exchange.getIn(AttachmentMessage.class);
         var attachments = message.getAttachments();
@@ -73,12 +84,14 @@ public final class CamelUtils {
             });
         }
 
-        // binary part of multipart
+        // binary part of multipart, reading the start of the files to validate them blocks, which is fine on this worker thread
         if (attachments != null) {
-            exchange.getContext().setStreamCaching(true);
-            attachments.entrySet().forEach(entry -> multiPartBuilder.addBinaryBody(
-                    entry.getKey(),
-                    Unchecked.supplier(() -> entry.getValue().getInputStream()).get()));
+            attachments.entrySet().forEach(entry -> {
+                var file = entry.getValue();
+                multipartFilter.validate(entry.getKey(), file.getName(), file.getContentType().split(";", 2)[0].trim(),
+                        Unchecked.supplier(file::getInputStream).get());
+                multiPartBuilder.addBinaryBody(entry.getKey(), Unchecked.supplier(file::getInputStream).get());
+            });
         }
 
         exchange.getMessage().setBody(multiPartBuilder.build());
@@ -105,15 +118,40 @@ public final class CamelUtils {
 
     public static void forwardUrlProcessor(Exchange exchange) {
         var incomingRequestPath = exchange.getIn().getHeader(HTTP_URI, String.class);
-        var subscription = exchange.getProperty(SUBSCRIPTION, SubscriptionEntity.class);
-        var api = subscription.findApi(incomingRequestPath);
-        var forwardUrl = api.proxyUrl + incomingRequestPath.substring(incomingRequestPath.indexOf('/', 1)).replace(api.proxyPath, "");
+        var api = exchange.getProperty(API, ApiEntity.class);
+        var forwardPath = forwardPath(trimOptions(incomingRequestPath.substring(incomingRequestPath.indexOf('/', 1))), api.proxyPath);
 
-        Log.debugf("forward url: %s", forwardUrl);
-        exchange.setProperty("forwardUrl", forwardUrl);
+        // the endpoint is resolved per Api, so that its connection pool is reused, the path and query are passed as headers
+        Log.debugf("forward url: %s%s", api.proxyUrl, forwardPath);
+        exchange.setProperty(FORWARD_URL, api.proxyUrl);
+        exchange.setProperty(FORWARD_PATH, forwardPath);
         exchange.getIn().setHeader("X-Forward-For", exchange.getIn().getHeader(REMOTE_ADDRESS));
     }
 
+    /**
+     * Strips the segments of the proxy path from the start of the request path only, the same segments can occur again further on in the path.
+     * Empty segments are skipped, like the {@link nl.probot.apim.core.utils.ApiRouter} does, so {@code /a//b/c} is forwarded as {@code /c}
+     * for the proxy path {@code /a/b}. The path is returned as is when it doesn't start with the segments of the proxy path.
+     */
+    static String forwardPath(String path, String proxyPath) {
+        var position = 0;
+        for (var segment : proxyPath.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+
+            while (position < path.length() && path.charAt(position) == '/') {
+                position++;
+            }
+            var end = position + segment.length();
+            if (!path.startsWith(segment, position) || (end < path.length() && path.charAt(end) != '/' && path.charAt(end) != '?')) {
+                return path;
+            }
+            position = end;
+        }
+        return path.substring(position);
+    }
+
     public static void cleanUpHeaders(Exchange exchange) {
         exchange.getIn().removeHeader(HTTP_URI);
         exchange.getIn().removeHeader(HTTP_PATH);
@@ -121,6 +159,10 @@ public final class CamelUtils {
         exchange.getIn().removeHeader(AUTHENTICATED_USER);
     }
 
+    public static void forwardPathProcessor(Exchange exchange) {
+        exchange.getIn().setHeader(HTTP_PATH, exchange.getProperty(FORWARD_PATH, String.class));
+    }
+
     public static void setErrorMessage(Exchange exchange) {
         var exception = exchange.getProperty(EXCEPTION_CAUGHT, Exception.class);
         var errorMsg = requireNonBlankElse(exception.getMessage(), "null value detected");
@@ -133,6 +175,8 @@ public final class CamelUtils {
                 errorMsg = he.getResponseBody();
             }
             case WebApplicationException we -> status = we.getResponse().getStatus();
+            case IOException io when io.getCause() instanceof WebApplicationException we -> status = we.getResponse().getStatus();
+            case InterruptedIOException ie -> status = 504;
             case AuthenticationFailedException ae -> status = 401;
             case UnauthorizedException ua -> status = 403;
             default -> status = 500;
@@ -168,15 +212,12 @@ public final class CamelUtils {
         }
     }
 
-    public static void clientCredentialsAuth(Exchange exchange, ApiCredentialEntity credential) {
+    public static void clientCredentialsAuth(Exchange exchange, ApiCredentialEntity credential, AccessTokenProvider tokenProvider) {
         requireNonNull(credential.clientId, "No ClientId was provided for authentication");
         requireNonNull(credential.clientSecret, "No ClientSecret was provided for authentication");
         requireNonNull(credential.clientUrl, "No ClientUrl was provided for authentication");
 
-        var oauthParams = "&oauth2ClientId=%s&oauth2ClientSecret=%s&oauth2TokenEndpoint=%s"
-                .formatted(credential.clientId, credential.clientSecret, credential.clientUrl);
-        oauthParams += credential.clientScope != null ? "&oauth2Scope=%s".formatted(credential.clientScope) : "";
-        exchange.setProperty("clientAuth", oauthParams);
+        exchange.getIn().setHeader(AUTHORIZATION, "Bearer %s".formatted(tokenProvider.accessToken(credential)));
     }
 
     public static void passthroughAuth(Exchange exchange, String accessTokenName) {
@@ -193,61 +234,44 @@ public final class CamelUtils {
         }
     }
 
-    public static void metrics(Exchange exchange, MeterRegistry registry, boolean start, boolean fromCache) {
-        if (start) {
-            var sample = Timer.start(registry);
-            exchange.setProperty("timer", sample);
-            exchange.setProperty("httpPath", sanitize(exchange.getIn().getHeader(HTTP_URI, String.class)));
-        } else {
-            var timer = exchange.getProperty("timer", Sample.class);
-            var status = getStatus(exchange, fromCache);
-            var subName = Optional.ofNullable(exchange.getProperty(SUBSCRIPTION, SubscriptionEntity.class))
-                    .map(entity -> entity.name)
-                    .orElse("error: no subscription found for this request");
-
-            timer.stop(registry.timer(
-                    "apim_metrics",
-                    "status", status,
-                    "proxyPath", requireNonBlankElse(exchange.getProperty("proxyPath", String.class), "proxyPath not available"),
-                    "httpPath", exchange.getProperty("httpPath", String.class),
-                    "ts", OffsetDateTime.now().toString(),
-                    "subscription", subName));
+    /**
+     * Reads the streamed response into memory, but not more than the given size. The stream can only be read once,
+     * so it is replaced by the bytes that were read, or when the response is too large, by a stream that continues
+     * with the remainder of the response.
+     *
+     * @return the body, or null when it is absent or larger than the max. size.
+     */
+    static byte[] readCacheableBody(Exchange ex, int maxSize) {
+        var message = ex.getIn();
+        var contentLength = message.getHeader(CONTENT_LENGTH, Long.class);
+        if (contentLength != null && contentLength > maxSize) {
+            Log.debugf("Response of %d bytes is too large to be cached", contentLength);
+            return null;
         }
-    }
 
-    public static void setToCache(Exchange ex, CacheManager cacheManager) {
-        if (isOKGetResponse(ex)) {
-            var cacheKey = ex.getProperty(CACHING_KEY, String.class);
-            var body = ex.getIn().getBody();
-            var length = switch (body) {
-                case InputStreamCache is -> is.length();
-                case byte[] b -> b.length;
-                case String s -> s.getBytes().length;
-                default -> body.toString().getBytes().length;
-            };
-
-            if (length < 5 * 1024 * 1024) {
-                Log.debugf("Setting body into cache, size: %s", length);
-                cacheManager.set(cacheKey, body);
-            }
+        if (message.getBody() instanceof byte[] bytes) {
+            return bytes;
         }
-    }
 
-    private static String getStatus(Exchange exchange, boolean fromCache) {
-        var errorStatus = switch (exchange.getProperty(EXCEPTION_CAUGHT, Exception.class)) {
-            case null -> "200";
-            case HttpOperationFailedException he -> String.valueOf(he.getStatusCode());
-            default -> "500";
-        };
-
-        return requireNonBlankElse(exchange.getIn().getHeader(HTTP_RESPONSE_CODE, String.class), fromCache ? "200" : errorStatus);
-    }
+        var stream = message.getBody(InputStream.class);
+        if (stream == null) {
+            return null;
+        }
 
-    private static boolean isOKGetResponse(Exchange ex) {
-        var status = ex.getMessage().getHeader(HTTP_RESPONSE_CODE, Integer.class);
-        var method = ex.getIn().getHeader(HTTP_METHOD, String.class);
+        try {
+            var bytes = stream.readNBytes(maxSize + 1);
+            if (bytes.length > maxSize) {
+                Log.debugf("Response of more than %d bytes is too large to be cached", maxSize);
+                message.setBody(new SequenceInputStream(new ByteArrayInputStream(bytes), stream));
+                return null;
+            }
 
-        return method.equalsIgnoreCase(GET.name()) && ValueRange.of(200, 204).isValidIntValue(status);
+            stream.close();
+            message.setBody(bytes);
+            return bytes;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private static List<NewCookie> parseCookies(String rawCookieHeader) {
@@ -268,7 +292,7 @@ public final class CamelUtils {
         };
     }
 
-    private static String sanitize(String url) {
+    static String sanitize(String url) {
         var result = trimOptions(url);
         if (result.charAt(result.length() - 1) == '/') {
             result = result.substring(0, result.length() - 1);
@@ -288,7 +312,7 @@ public final class CamelUtils {
         return url.substring(0, optionsIndex);
     }
 
-    private static String requireNonBlankElse(String original, String orElse) {
+    static String requireNonBlankElse(String original, String orElse) {
         if (isNullOrEmpty(original) || "{}".equals(original)) {
             return orElse;
         }
@@ -0,0 +1,84 @@
+package nl.probot.apim.core.camel;
+
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.entities.ApiEntity;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+
+/**
+ * Gives each request a deadline, which is {@code apim.http.deadline} milliseconds after it was received, or earlier when the client
+ * sends a shorter budget in the {@value #DEADLINE_HEADER} header.
+ * <p>
+ * Before the request is forwarded, it is rejected with a 504 when its deadline has passed. Otherwise the remaining milliseconds are
+ * sent to the Api in the {@value #DEADLINE_HEADER} header, and the connect & read timeouts of the Api are shortened to them.
+ * These timeouts are passed to the http client in the {@value #CONNECT_TIMEOUT_HEADER} and {@value #READ_TIMEOUT_HEADER} headers,
+ * which the {@link DownstreamHttpConfigurer} removes from the request.
+ */
+@Singleton
+public class DeadlineProcessor implements Processor {
+
+    public static final String DEADLINE_HEADER = "X-APIM-Deadline-Ms";
+    static final String CONNECT_TIMEOUT_HEADER = "X-APIM-Connect-Timeout";
+    static final String READ_TIMEOUT_HEADER = "X-APIM-Read-Timeout";
+    private static final String DEADLINE = "deadline";
+
+    @Min(1)
+    @ConfigProperty(name = "apim.http.deadline", defaultValue = "60000")
+    long deadline;
+
+    @Min(1)
+    @Max(60_000)
+    @ConfigProperty(name = "apim.http.connect-timeout", defaultValue = "5000")
+    int connectTimeout;
+
+    @Min(1)
+    @Max(600_000)
+    @ConfigProperty(name = "apim.http.read-timeout", defaultValue = "30000")
+    int readTimeout;
+
+    public void start(Exchange exchange) {
+        var budget = this.deadline;
+        var requested = exchange.getIn().getHeader(DEADLINE_HEADER, String.class);
+        if (requested != null) {
+            try {
+                budget = Math.min(budget, Math.max(0, Long.parseLong(requested.trim())));
+            } catch (NumberFormatException e) {
+                // an invalid budget is ignored
+            }
+        }
+
+        exchange.setProperty(DEADLINE, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget));
+    }
+
+    @Override
+    public void process(Exchange exchange) {
+        var api = exchange.getProperty(API, ApiEntity.class);
+        var remaining = TimeUnit.NANOSECONDS.toMillis(exchange.getProperty(DEADLINE, Long.class) - System.nanoTime());
+        if (remaining <= 0) {
+            throw new WebApplicationException("The deadline of the request has passed before it was forwarded to %s".formatted(api.proxyPath), 504);
+        }
+
+        var in = exchange.getIn();
+        in.setHeader(DEADLINE_HEADER, remaining);
+        in.setHeader(CONNECT_TIMEOUT_HEADER, Math.min(remaining, Objects.requireNonNullElse(api.connectTimeout, this.connectTimeout)));
+        in.setHeader(READ_TIMEOUT_HEADER, Math.min(remaining, Objects.requireNonNullElse(api.readTimeout, this.readTimeout)));
+    }
+
+    /**
+     * The http component copies the request headers to the response, these shouldn't be returned to the client.
+     */
+    public static void cleanUpHeaders(Exchange exchange) {
+        exchange.getMessage().removeHeader(DEADLINE_HEADER);
+        exchange.getMessage().removeHeader(CONNECT_TIMEOUT_HEADER);
+        exchange.getMessage().removeHeader(READ_TIMEOUT_HEADER);
+    }
+}
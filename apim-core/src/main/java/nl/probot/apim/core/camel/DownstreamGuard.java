@@ -0,0 +1,190 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.utils.CircuitBreaker;
+import nl.probot.apim.core.utils.CircuitBreaker.Settings;
+import nl.probot.apim.core.utils.RequestBodyStream.ClientFailure;
+import org.apache.camel.Exchange;
+import org.apache.camel.http.base.HttpOperationFailedException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+import static nl.probot.apim.core.utils.CircuitBreaker.REJECTED;
+import static org.apache.camel.Exchange.EXCEPTION_CAUGHT;
+import static org.apache.camel.Exchange.HTTP_RESPONSE_CODE;
+
+/**
+ * Guards the calls to each downstream Api with its circuit breaker and bulkhead, so that a failing or hanging Api
+ * doesn't use up the threads & connections that the other Apis need. Both reject a call with a 503.
+ * <p>
+ * A call fails when the Api can't be reached, times out or responds with a 5xx, other responses count as a success.
+ * So does a call that failed because of the client, e.g. an upload that was rejected by the gateway or aborted by the client,
+ * so that a single client can't open the circuit breaker for all subscribers of the Api.
+ * <p>
+ * The following metrics are registered per proxyPath:
+ * <ul>
+ *     <li>{@code apim_circuit_breaker_state}: 0 when closed, 1 when half-open and 2 when open,</li>
+ *     <li>{@code apim_circuit_breaker_rejected}: the calls that were rejected, per reason {@code circuit_breaker} or {@code bulkhead},</li>
+ *     <li>{@code apim_bulkhead_in_use}: the amount of running calls.</li>
+ * </ul>
+ */
+@Singleton
+public class DownstreamGuard {
+
+    private static final String GUARD = "downstreamGuard";
+    private static final String PERMIT = "downstreamPermit";
+
+    @Inject
+    MeterRegistry registry;
+
+    final Map<Long, Guard> guards = new ConcurrentHashMap<>();
+
+    public void acquire(Exchange exchange) {
+        var api = exchange.getProperty(API, ApiEntity.class);
+        var guard = guard(api);
+        if (guard == null) {
+            return;
+        }
+
+        if (guard.bulkhead != null && !guard.bulkhead.tryAcquire()) {
+            reject(api, "bulkhead", "Max. concurrent requests of %d reached for %s".formatted(api.maxConcurrentRequests, api.proxyPath));
+        }
+
+        var permit = guard.breaker == null ? 0 : guard.breaker.tryAcquire(System.nanoTime());
+        if (permit == REJECTED) {
+            guard.releaseBulkhead();
+            reject(api, "circuit_breaker", "Circuit breaker is open for %s".formatted(api.proxyPath));
+        }
+
+        exchange.setProperty(GUARD, guard);
+        exchange.setProperty(PERMIT, permit);
+    }
+
+    /**
+     * Called after the call to the Api and from the onException route, the guard is removed so that a call is only released once.
+     */
+    public void release(Exchange exchange) {
+        var guard = exchange.getProperty(GUARD, Guard.class);
+        if (guard == null) {
+            return;
+        }
+
+        exchange.removeProperty(GUARD);
+        guard.releaseBulkhead();
+
+        if (guard.breaker != null) {
+            var before = guard.breaker.state();
+            guard.breaker.onResult(exchange.getProperty(PERMIT, Long.class), isSuccess(exchange), System.nanoTime());
+
+            var after = guard.breaker.state();
+            if (before != after) {
+                Log.warnf("Circuit breaker of %s changed from %s to %s", guard.proxyPath, before, after);
+            }
+        }
+    }
+
+    /**
+     * The guard is replaced when the settings of the Api have changed, the calls of the old guard still release that one.
+     */
+    private Guard guard(ApiEntity api) {
+        var settings = api.circuitBreakerSettings();
+        if (settings.isEmpty() && api.maxConcurrentRequests == null) {
+            return null;
+        }
+
+        var guard = this.guards.get(api.id);
+        if (guard == null || !guard.matches(api, settings)) {
+            guard = this.guards.compute(api.id, (id, current) -> current != null && current.matches(api, settings) ? current : newGuard(api, settings));
+        }
+        return guard;
+    }
+
+    private Guard newGuard(ApiEntity api, Optional<Settings> settings) {
+        var guard = new Guard(
+                api.proxyPath,
+                settings.map(CircuitBreaker::new).orElse(null),
+                api.maxConcurrentRequests,
+                api.maxConcurrentRequests == null ? null : new Semaphore(api.maxConcurrentRequests));
+
+        // the gauges look up the current guard, so that they keep working when the guard is replaced
+        Gauge.builder("apim_circuit_breaker_state", this.guards, guards -> state(guards.get(api.id)))
+                .tag("proxyPath", api.proxyPath)
+                .register(this.registry);
+        Gauge.builder("apim_bulkhead_in_use", this.guards, guards -> inUse(guards.get(api.id)))
+                .tag("proxyPath", api.proxyPath)
+                .register(this.registry);
+        return guard;
+    }
+
+    private void reject(ApiEntity api, String reason, String message) {
+        this.registry.counter("apim_circuit_breaker_rejected", "proxyPath", api.proxyPath, "reason", reason).increment();
+        throw new WebApplicationException(message, 503);
+    }
+
+    private static boolean isSuccess(Exchange exchange) {
+        var exception = exchange.getProperty(EXCEPTION_CAUGHT, Exception.class);
+        if (exception instanceof HttpOperationFailedException he) {
+            return he.getStatusCode() < 500;
+        }
+        if (isClientFailure(exception)) {
+            return true;
+        }
+
+        var status = exchange.getMessage().getHeader(HTTP_RESPONSE_CODE, Integer.class);
+        return exception == null && (status == null || status < 500);
+    }
+
+    private static boolean isClientFailure(Throwable exception) {
+        for (var cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ClientFailure || cause instanceof IOException && cause.getCause() instanceof WebApplicationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double state(Guard guard) {
+        if (guard == null || guard.breaker == null) {
+            return 0;
+        }
+
+        return switch (guard.breaker.state()) {
+            case CLOSED -> 0;
+            case HALF_OPEN -> 1;
+            case OPEN -> 2;
+        };
+    }
+
+    private static double inUse(Guard guard) {
+        if (guard == null || guard.bulkhead == null) {
+            return 0;
+        }
+        return guard.maxConcurrentRequests - guard.bulkhead.availablePermits();
+    }
+
+    record Guard(String proxyPath, CircuitBreaker breaker, Integer maxConcurrentRequests, Semaphore bulkhead) {
+
+        boolean matches(ApiEntity api, Optional<Settings> settings) {
+            return Objects.equals(this.maxConcurrentRequests, api.maxConcurrentRequests)
+                   && Objects.equals(Optional.ofNullable(this.breaker).map(CircuitBreaker::settings), settings);
+        }
+
+        void releaseBulkhead() {
+            if (this.bulkhead != null) {
+                this.bulkhead.release();
+            }
+        }
+    }
+}
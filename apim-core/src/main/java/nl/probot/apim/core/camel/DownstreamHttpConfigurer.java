@@ -0,0 +1,98 @@
+package nl.probot.apim.core.camel;
+
+import io.quarkus.logging.Log;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Min;
+import org.apache.camel.CamelContext;
+import org.apache.camel.component.http.HttpClientConfigurer;
+import org.apache.camel.component.http.HttpComponent;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.List;
+
+import static nl.probot.apim.core.camel.DeadlineProcessor.CONNECT_TIMEOUT_HEADER;
+import static nl.probot.apim.core.camel.DeadlineProcessor.READ_TIMEOUT_HEADER;
+
+/**
+ * Configures the connection pools of the http client that forwards the requests to the downstream Apis.
+ * <p>
+ * Each Api gets its own endpoint and therefore its own connection pool, because the endpoint uri only consists of the proxyUrl
+ * of the Api. The connections are kept alive between the requests and evicted when they have been idle for too long.
+ * <p>
+ * The connect & read timeouts are set per request, from the headers that the {@link DeadlineProcessor} adds.
+ */
+@Singleton
+public class DownstreamHttpConfigurer implements HttpClientConfigurer {
+
+    @Min(1)
+    @ConfigProperty(name = "apim.http.max-connections", defaultValue = "200")
+    int maxConnections;
+
+    @Min(1)
+    @ConfigProperty(name = "apim.http.max-connections-per-host", defaultValue = "50")
+    int maxConnectionsPerHost;
+
+    @Min(1)
+    @ConfigProperty(name = "apim.http.idle-timeout", defaultValue = "30")
+    int idleTimeout;
+
+    @ConfigProperty(name = "apim.http.connection-ttl", defaultValue = "300")
+    int connectionTtl;
+
+    public void configure(CamelContext context) {
+        for (var scheme : List.of("http", "https")) {
+            var component = context.getComponent(scheme, HttpComponent.class);
+            component.setMaxTotalConnections(this.maxConnections);
+            component.setConnectionsPerRoute(this.maxConnectionsPerHost);
+            component.setConnectionTimeToLive(this.connectionTtl > 0 ? this.connectionTtl * 1000L : -1);
+            component.setHttpClientConfigurer(this);
+        }
+
+        Log.infof("Downstream connection pool: max-connections=%d, max-connections-per-host=%d, idle-timeout=%ds",
+                this.maxConnections, this.maxConnectionsPerHost, this.idleTimeout);
+    }
+
+    @Override
+    public void configureHttpClient(HttpClientBuilder clientBuilder) {
+        clientBuilder
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(this.idleTimeout))
+                .addExecInterceptorFirst("apim-timeouts", (request, scope, chain) -> {
+                    applyTimeouts(request, scope.clientContext);
+                    return chain.proceed(request, scope);
+                });
+    }
+
+    @SuppressWarnings("deprecation")
+    static void applyTimeouts(ClassicHttpRequest request, HttpClientContext context) {
+        var connectTimeout = removeTimeout(request, CONNECT_TIMEOUT_HEADER);
+        var readTimeout = removeTimeout(request, READ_TIMEOUT_HEADER);
+
+        if (connectTimeout != null || readTimeout != null) {
+            var config = RequestConfig.copy(context.getRequestConfig());
+            if (connectTimeout != null) {
+                config.setConnectTimeout(connectTimeout);
+            }
+            if (readTimeout != null) {
+                config.setResponseTimeout(readTimeout);
+            }
+            context.setRequestConfig(config.build());
+        }
+    }
+
+    private static Timeout removeTimeout(ClassicHttpRequest request, String name) {
+        var header = request.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+
+        request.removeHeaders(name);
+        return Timeout.ofMilliseconds(Long.parseLong(header.getValue()));
+    }
+}
@@ -0,0 +1,201 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.Timer.Sample;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.core.entities.SubscriptionEntity;
+import org.apache.camel.Exchange;
+import org.apache.camel.http.base.HttpOperationFailedException;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static nl.probot.apim.core.camel.CamelUtils.requireNonBlankElse;
+import static nl.probot.apim.core.camel.CamelUtils.sanitize;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.PROXY_PATH;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.SUBSCRIPTION;
+import static org.apache.camel.Exchange.EXCEPTION_CAUGHT;
+import static org.apache.camel.Exchange.HTTP_METHOD;
+import static org.apache.camel.Exchange.HTTP_RESPONSE_CODE;
+import static org.apache.camel.Exchange.HTTP_URI;
+
+/**
+ * Records the gateway metrics with a bounded set of tags, so that the amount of time series doesn't grow with the traffic.
+ * <p>
+ * The following metrics are registered:
+ * <ul>
+ *     <li>{@code apim_metrics}: a timer per proxyPath, subscription, status, statusClass, method and httpPath,</li>
+ *     <li>{@code apim_metrics_last_request}: the epoch seconds of the last request per proxyPath, subscription, status, statusClass and method.</li>
+ * </ul>
+ * The httpPath is reduced to a template, e.g. {@code /gateway/orders/123} becomes {@code /gateway/orders/{id}}, and
+ * once the configured amount of templates has been reached, new templates are reported as {@value #OTHER_PATH}.
+ * <p>
+ * Per-request details, like the raw path and the timestamp, are written to the {@value #ACCESS_LOG} log category instead,
+ * for a configurable sample of the requests.
+ */
+@Singleton
+public class GatewayMetrics {
+
+    public static final String ACCESS_LOG = "nl.probot.apim.access-log";
+    static final String OTHER_PATH = "other";
+    static final String ID_SEGMENT = "{id}";
+    static final Set<String> METHODS = Set.of("GET", "HEAD", "POST", "PUT", "PATCH", "DELETE", "OPTIONS", "TRACE", "CONNECT");
+
+    private static final Logger ACCESS_LOGGER = Logger.getLogger(ACCESS_LOG);
+    private static final String TIMER = "timer";
+    private static final String HTTP_PATH = "httpPath";
+
+    @Inject
+    MeterRegistry registry;
+
+    @Min(1)
+    @Max(10_000)
+    @ConfigProperty(name = "apim.metrics.max-http-paths", defaultValue = "200")
+    int maxHttpPaths;
+
+    @ConfigProperty(name = "apim.access-log.sample-rate", defaultValue = "0.01")
+    double sampleRate;
+
+    final Set<String> httpPaths = ConcurrentHashMap.newKeySet();
+    final Map<Tags, AtomicLong> lastRequests = new ConcurrentHashMap<>();
+
+    public void start(Exchange exchange) {
+        exchange.setProperty(TIMER, Timer.start(this.registry));
+        exchange.setProperty(HTTP_PATH, sanitize(exchange.getIn().getHeader(HTTP_URI, String.class)));
+    }
+
+    public void stop(Exchange exchange, boolean fromCache) {
+        var sample = exchange.getProperty(TIMER, Sample.class);
+        if (sample == null) {
+            return;
+        }
+
+        // prevents that the request is recorded twice, e.g. when the onException route runs after the main route
+        exchange.removeProperty(TIMER);
+
+        var status = getStatus(exchange, fromCache);
+        var method = method(exchange.getIn().getHeader(HTTP_METHOD, String.class));
+        var proxyPath = requireNonBlankElse(exchange.getProperty(PROXY_PATH, String.class), "proxyPath not available");
+        var httpPath = exchange.getProperty(HTTP_PATH, String.class);
+        var subName = Optional.ofNullable(exchange.getProperty(SUBSCRIPTION, SubscriptionEntity.class))
+                .map(entity -> entity.name)
+                .orElse("error: no subscription found for this request");
+
+        var tags = Tags.of(
+                "proxyPath", proxyPath,
+                "subscription", subName,
+                "status", status,
+                "statusClass", statusClass(status),
+                "method", method);
+
+        var duration = sample.stop(this.registry.timer("apim_metrics", tags.and(HTTP_PATH, httpPathTemplate(httpPath))));
+        lastRequest(tags).set(Instant.now().getEpochSecond());
+
+        if (this.sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < this.sampleRate) {
+            ACCESS_LOGGER.infof("ts=%s method=%s path=%s status=%s proxyPath=%s subscription=%s cached=%b durationMs=%d",
+                    Instant.now(), method, httpPath, status, proxyPath, subName, fromCache, NANOSECONDS.toMillis(duration));
+        }
+    }
+
+    String httpPathTemplate(String httpPath) {
+        var template = template(httpPath);
+        if (this.httpPaths.contains(template)) {
+            return template;
+        }
+
+        // the size check is not atomic, so the limit may be exceeded slightly under concurrency, which is acceptable
+        if (this.httpPaths.size() >= this.maxHttpPaths) {
+            return OTHER_PATH;
+        }
+
+        this.httpPaths.add(template);
+        return template;
+    }
+
+    private AtomicLong lastRequest(Tags tags) {
+        return this.lastRequests.computeIfAbsent(tags, key -> {
+            var holder = new AtomicLong();
+            Gauge.builder("apim_metrics_last_request", holder, AtomicLong::get)
+                    .tags(key)
+                    .baseUnit("seconds")
+                    .register(this.registry);
+            return holder;
+        });
+    }
+
+    /**
+     * Replaces the path segments that look like identifiers, e.g. numbers, UUIDs and hashes, with {@value #ID_SEGMENT}.
+     */
+    static String template(String path) {
+        var result = new StringBuilder(path.length());
+        var start = 0;
+
+        while (start <= path.length()) {
+            var end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+
+            if (start > 0) {
+                result.append('/');
+            }
+            result.append(isIdentifier(path, start, end) ? ID_SEGMENT : path.substring(start, end));
+            start = end + 1;
+        }
+
+        return result.toString();
+    }
+
+    static String statusClass(String status) {
+        return status.length() == 3 && Character.isDigit(status.charAt(0)) ? status.charAt(0) + "xx" : "unknown";
+    }
+
+    static String method(String method) {
+        return method != null && METHODS.contains(method) ? method : "OTHER";
+    }
+
+    private static boolean isIdentifier(String path, int start, int end) {
+        var length = end - start;
+        if (length == 0) {
+            return false;
+        }
+
+        var digits = 0;
+        var hex = true;
+        for (int i = start; i < end; i++) {
+            var c = path.charAt(i);
+            if (Character.isDigit(c)) {
+                digits++;
+            } else if (Character.digit(c, 16) == -1 && c != '-') {
+                hex = false;
+            }
+        }
+
+        // plain numbers, UUIDs and hashes, or long tokens that contain digits
+        return digits == length || (hex && digits > 0 && length >= 8) || (digits > 0 && length >= 24);
+    }
+
+    private static String getStatus(Exchange exchange, boolean fromCache) {
+        var errorStatus = switch (exchange.getProperty(EXCEPTION_CAUGHT, Exception.class)) {
+            case null -> "200";
+            case HttpOperationFailedException he -> String.valueOf(he.getStatusCode());
+            default -> "500";
+        };
+
+        return requireNonBlankElse(exchange.getIn().getHeader(HTTP_RESPONSE_CODE, String.class), fromCache ? "200" : errorStatus);
+    }
+}
@@ -1,18 +1,15 @@
 package nl.probot.apim.core.camel;
 
-import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
-import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.utils.MultipartContentTypeFilter;
 import org.apache.camel.builder.endpoint.EndpointRouteBuilder;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import static jakarta.ws.rs.core.MediaType.APPLICATION_FORM_URLENCODED;
 import static jakarta.ws.rs.core.MediaType.MULTIPART_FORM_DATA;
 import static nl.probot.apim.core.camel.SubscriptionProcessor.CACHING_KEY;
-import static nl.probot.apim.core.camel.SubscriptionProcessor.SUBSCRIPTION_KEY;
 import static nl.probot.apim.core.camel.SubscriptionProcessor.THROTTLING_ENABLED;
-import static nl.probot.apim.core.camel.SubscriptionProcessor.THROTTLING_MAX_REQUESTS;
 import static org.apache.camel.Exchange.CONTENT_TYPE;
 
 @ApplicationScoped
@@ -21,6 +18,9 @@ public class GatewayRoute extends EndpointRouteBuilder {
     @ConfigProperty(name = "apim.context-root")
     String apimContextRoot;
 
+    @ConfigProperty(name = "apim.streaming.enabled", defaultValue = "false")
+    boolean streaming;
+
     @Inject
     AccessProcessor accessProcessor;
 
@@ -28,33 +28,63 @@ public class GatewayRoute extends EndpointRouteBuilder {
     SubscriptionProcessor subscriptionProcessor;
 
     @Inject
-    MeterRegistry meterRegistry;
+    RateLimitProcessor rateLimitProcessor;
+
+    @Inject
+    DeadlineProcessor deadlineProcessor;
+
+    @Inject
+    DownstreamGuard downstreamGuard;
+
+    @Inject
+    GatewayMetrics gatewayMetrics;
+
+    @Inject
+    ResponseCache responseCache;
+
+    @Inject
+    MultipartContentTypeFilter multipartFilter;
+
+    @Inject
+    DownstreamHttpConfigurer downstreamHttpConfigurer;
 
     @Inject
-    CacheManager cacheManager;
+    VirtualThreadEngine virtualThreadEngine;
 
     @Override
     public void configure() {
+        this.downstreamHttpConfigurer.configure(getCamelContext());
+
         onException(Throwable.class)
                 .handled(true)
-                .process(exchange -> CamelUtils.metrics(exchange, this.meterRegistry, false, false))
+                .process(this.downstreamGuard::release)
+                .process(exchange -> this.gatewayMetrics.stop(exchange, false))
                 .process(CamelUtils::cleanUpHeaders)
+                .process(DeadlineProcessor::cleanUpHeaders)
                 .process(CamelUtils::setErrorMessage)
                 .end();
 
+        // the response of the Api is streamed to the client, it is only buffered when it is cached,
+        // with streaming enabled the request body is not buffered in memory either, but spooled by the stream cache
+        var gateway = platformHttp(this.apimContextRoot).matchOnUriPrefix(true).advanced().useStreaming(this.streaming);
+        if (this.virtualThreadEngine.isEnabled()) {
+            gateway.platformHttpEngine(this.virtualThreadEngine);
+        }
+
         //@formatter:off
-        from(platformHttp(this.apimContextRoot).matchOnUriPrefix(true))
+        from(gateway)
                 .id("apimRoute")
-                .process(exchange -> CamelUtils.metrics(exchange, this.meterRegistry, true, false))
+                .process(this.gatewayMetrics::start)
+                .process(this.deadlineProcessor::start)
                 .process(this.accessProcessor)
                 .process(this.subscriptionProcessor)
                 .choice()
                     .when(exchangeProperty(THROTTLING_ENABLED).isEqualTo(true))
-                        .to("direct:throttling")
+                        .process(this.rateLimitProcessor)
                 .end()
                 .choice()
                     .when(header(CONTENT_TYPE).contains(MULTIPART_FORM_DATA))
-                        .process(CamelUtils::multiPartProcessor)
+                        .process(exchange -> CamelUtils.multiPartProcessor(exchange, this.multipartFilter))
                     .endChoice()
                     .when(header(CONTENT_TYPE).startsWith(APPLICATION_FORM_URLENCODED))
                         .process(CamelUtils::formUrlEncodedProcessor)
@@ -62,23 +92,21 @@ public class GatewayRoute extends EndpointRouteBuilder {
                 .end()
                 .process(CamelUtils::forwardUrlProcessor)
                 .process(CamelUtils::cleanUpHeaders)
-                .toD("${exchangeProperty.forwardUrl}?bridgeEndpoint=true&skipRequestHeaders=false&followRedirects=true&connectionClose=true&copyHeaders=true${exchangeProperty.clientAuth}")
+                .process(CamelUtils::forwardPathProcessor)
+                .process(this.deadlineProcessor)
+                .process(this.downstreamGuard::acquire)
+                .toD("${exchangeProperty.forwardUrl}?bridgeEndpoint=true&skipRequestHeaders=false&followRedirects=true&copyHeaders=true&disableStreamCache=true&okStatusCodeRange=200-299,304")
+                .process(this.downstreamGuard::release)
+                .process(DeadlineProcessor::cleanUpHeaders)
                 .to("direct:caching-set")
-                .process(exchange -> CamelUtils.metrics(exchange, this.meterRegistry, false, false));
+                .process(exchange -> this.gatewayMetrics.stop(exchange, false));
         //@formatter:on
 
-        from("direct:throttling")
-                .throttle(exchangeProperty(THROTTLING_MAX_REQUESTS), header(SUBSCRIPTION_KEY))
-                .totalRequestsMode()
-                .rejectExecution(true)
-                .timePeriodMillis(60000)
-                .setHeader("X-RateLimit-Limit", exchangeProperty(THROTTLING_MAX_REQUESTS));
-
         //@formatter:off
         from("direct:caching-set")
                 .choice()
                     .when(exchangeProperty(CACHING_KEY).isNotNull())
-                        .process(ex -> CamelUtils.setToCache(ex, this.cacheManager))
+                        .process(this.responseCache::store)
                 .end();
         //@formatter:on
     }
@@ -0,0 +1,51 @@
+package nl.probot.apim.core.camel;
+
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.entities.SubscriptionEntity;
+import nl.probot.apim.core.utils.RateLimitStore;
+import nl.probot.apim.core.utils.RateLimitStore.Key;
+import nl.probot.apim.core.utils.RateLimitStore.Policy;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+
+import static jakarta.ws.rs.core.HttpHeaders.RETRY_AFTER;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.SUBSCRIPTION;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.THROTTLING_POLICY;
+
+/**
+ * Limits the requests per subscription & Api to the rate limit of the Api, with the configured {@link RateLimitStore}.
+ */
+@Singleton
+public class RateLimitProcessor implements Processor {
+
+    private final RateLimitStore store;
+
+    @Inject
+    public RateLimitProcessor(Instance<RateLimitStore> stores) {
+        this.store = stores.get();
+    }
+
+    @Override
+    public void process(Exchange exchange) {
+        var subscription = exchange.getProperty(SUBSCRIPTION, SubscriptionEntity.class);
+        var api = exchange.getProperty(API, ApiEntity.class);
+        var policy = exchange.getProperty(THROTTLING_POLICY, Policy.class);
+        var rateLimit = this.store.acquire(new Key(subscription.id, api.id), policy);
+
+        var in = exchange.getIn();
+        in.setHeader("X-RateLimit-Limit", rateLimit.limit());
+        in.setHeader("X-RateLimit-Remaining", rateLimit.remaining());
+        in.setHeader("X-RateLimit-Reset", rateLimit.reset());
+
+        if (!rateLimit.allowed()) {
+            in.setHeader(RETRY_AFTER, rateLimit.retryAfter());
+            throw new WebApplicationException("Exceeded the max. rate of %d requests per %d seconds, retry after %d seconds"
+                    .formatted(policy.limit(), policy.window().toSeconds(), rateLimit.retryAfter()), 429);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.quarkus.logging.Log;
+import io.vertx.core.buffer.impl.BufferImpl;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.entities.SubscriptionEntity;
+import nl.probot.apim.core.utils.CacheControl;
+import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.utils.CacheWarmer;
+import nl.probot.apim.core.utils.CachedPaths;
+import nl.probot.apim.core.utils.CachedBody;
+import nl.probot.apim.core.utils.CachedResponse;
+import nl.probot.apim.core.utils.ResponseBodyStore;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.temporal.ValueRange;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static jakarta.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+import static jakarta.ws.rs.core.HttpHeaders.ETAG;
+import static jakarta.ws.rs.core.HttpHeaders.EXPIRES;
+import static jakarta.ws.rs.core.HttpHeaders.IF_MODIFIED_SINCE;
+import static jakarta.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static jakarta.ws.rs.core.HttpHeaders.LAST_MODIFIED;
+import static jakarta.ws.rs.core.HttpHeaders.SET_COOKIE;
+import static jakarta.ws.rs.core.HttpHeaders.VARY;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.CACHING_KEY;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.WARM_UP;
+import static nl.probot.apim.core.utils.CacheRegion.RESPONSES;
+import static org.apache.camel.Exchange.CONTENT_LENGTH;
+import static org.apache.camel.Exchange.HTTP_METHOD;
+import static org.apache.camel.Exchange.HTTP_RESPONSE_CODE;
+import static org.apache.camel.Exchange.HTTP_URI;
+import static org.apache.camel.component.http.HttpMethods.GET;
+
+/**
+ * Caches the GET responses of the cached paths of an Api, with their status and representation headers, following the HTTP semantics
+ * of a shared cache:
+ * <ul>
+ *     <li>the cached paths of an Api can have their own TTL and can also answer HEAD requests, see {@link CachedPaths},</li>
+ *     <li>a response is cached per method, url (including the query string) and the values of the {@code apim.cache.responses.vary} headers,
+ *     optionally per subscription, and is only served when the request headers in its {@code Vary} header match as well,</li>
+ *     <li>the {@code Cache-Control} of the Api is honoured: {@code no-store} and {@code private} responses are not cached and
+ *     {@code s-maxage} or {@code max-age} shorten the caching TTL of the Api,</li>
+ *     <li>the gateway answers the conditional requests of the clients with a 304, using the ETag of the Api or one generated from the body,</li>
+ *     <li>a stale response with the ETag of the Api is revalidated with {@code If-None-Match}, when the Api answers with a 304,
+ *     then the cached response is served again without downloading it.</li>
+ *     <li>the large bodies are kept off-heap by the {@link ResponseBodyStore} and are written to the clients without copying them,</li>
+ *     <li>a textual body is compressed with gzip once when it is stored, it is sent compressed to the clients whose {@code Accept-Encoding}
+ *     allows it and is decompressed while it is sent to the others.</li>
+ * </ul>
+ * The following metric is registered:
+ * <ul>
+ *     <li>{@code apim_response_cache}: the cacheable requests, per result {@code hit}, {@code revalidated} or {@code miss}.</li>
+ * </ul>
+ */
+@Singleton
+public class ResponseCache {
+
+    static final String CACHED_RESPONSE = "cached_response";
+    static final String CACHING_TTL = "caching_ttl";
+    static final String CACHING_GENERATION = "caching_generation";
+    static final String CLIENT_ETAGS = "client_etags";
+    static final String CLIENT_ENCODINGS = "client_encodings";
+    static final String ACCEPT_ENCODING = "Accept-Encoding";
+    static final String CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * The media types that are compressed, by a part of their name.
+     */
+    static final List<String> COMPRESSIBLE_TYPES = List.of("text/", "json", "xml", "javascript", "yaml", "csv");
+
+    /**
+     * The headers of a response that describe its body, the other headers are not cached.
+     */
+    static final List<String> REPRESENTATION_HEADERS = List.of(CONTENT_TYPE, "Content-Language", "Content-Disposition", CONTENT_ENCODING,
+            ETAG, LAST_MODIFIED, CACHE_CONTROL, EXPIRES, VARY, "Link");
+
+    /**
+     * The headers that are sent with a 304, so that the client can update its copy.
+     */
+    static final List<String> NOT_MODIFIED_HEADERS = List.of(ETAG, LAST_MODIFIED, CACHE_CONTROL, EXPIRES, VARY);
+
+    @ConfigProperty(name = "apim.cache.responses.vary", defaultValue = "Accept,Accept-Language")
+    List<String> varyHeaders;
+
+    @ConfigProperty(name = "apim.cache.responses.per-subscription", defaultValue = "false")
+    boolean perSubscription;
+
+    @Min(0)
+    @Max(86_400)
+    @ConfigProperty(name = "apim.cache.responses.keep-stale", defaultValue = "300")
+    int keepStale;
+
+    @ConfigProperty(name = "apim.cache.responses.compression.enabled", defaultValue = "true")
+    boolean compression;
+
+    @Min(0)
+    @Max(1_048_576)
+    @ConfigProperty(name = "apim.cache.responses.compression.min-size", defaultValue = "1024")
+    int compressionMinSize;
+
+    @Inject
+    CacheManager cacheManager;
+
+    @Inject
+    ResponseBodyStore bodyStore;
+
+    @Inject
+    CacheWarmer cacheWarmer;
+
+    @Inject
+    GatewayMetrics gatewayMetrics;
+
+    @Inject
+    MeterRegistry registry;
+
+    LongSupplier clock = System::currentTimeMillis;
+
+    /**
+     * Serves the request from the cache when a fresh response is cached, otherwise it prepares the request for storing the response.
+     */
+    public void lookup(Exchange exchange, SubscriptionEntity subscription, ApiEntity api, String incomingRequest) {
+        var in = exchange.getIn();
+        var method = in.getHeader(HTTP_METHOD, String.class);
+        var cachedPath = api.findCachedPath(method, incomingRequest);
+        if (cachedPath.isEmpty()) {
+            return;
+        }
+
+        if (GET.name().equals(method) && !exchange.getProperty(WARM_UP, false, Boolean.class)) {
+            this.cacheWarmer.pathRequested(subscription.id, incomingRequest, name -> in.getHeader(name, String.class));
+        }
+
+        var key = key(in, subscription, incomingRequest);
+        var now = this.clock.getAsLong();
+        var clientEtags = in.getHeader(IF_NONE_MATCH, String.class);
+        var clientEncodings = in.getHeader(ACCEPT_ENCODING, String.class);
+        var noCache = CacheControl.parse(in.getHeader(CACHE_CONTROL, String.class)).noCache();
+        var cached = this.cacheManager.<CachedResponse>get(RESPONSES, key)
+                .filter(response -> !response.varies(name -> in.getHeader(name, String.class)));
+
+        if (cached.isPresent() && cached.get().isFresh(now) && !noCache) {
+            Log.debugf("Serving content from cache for key: %s", key);
+            count("hit");
+            serve(exchange, cached.get(), clientEtags, clientEncodings, now);
+            this.gatewayMetrics.stop(exchange, true);
+            exchange.setRouteStop(true);
+            return;
+        }
+
+        // the response of a HEAD request has no body, so only GET responses are stored
+        if (!GET.name().equals(method)) {
+            return;
+        }
+
+        // the conditional request of the client is answered by the gateway, the Api receives the one of the gateway
+        in.removeHeader(IF_NONE_MATCH);
+        in.removeHeader(IF_MODIFIED_SINCE);
+        exchange.setProperty(CACHING_KEY, key);
+        exchange.setProperty(CACHING_TTL, Objects.requireNonNullElse(cachedPath.get().ttl(), api.cachingTTL));
+        exchange.setProperty(CACHING_GENERATION, this.cacheManager.generation());
+        if (clientEtags != null) {
+            exchange.setProperty(CLIENT_ETAGS, clientEtags);
+        }
+        if (clientEncodings != null) {
+            exchange.setProperty(CLIENT_ENCODINGS, clientEncodings);
+        }
+
+        cached.filter(response -> response.headers().containsKey(ETAG)).ifPresentOrElse(response -> {
+            exchange.setProperty(CACHED_RESPONSE, response);
+            in.setHeader(IF_NONE_MATCH, response.headers().get(ETAG));
+        }, () -> count("miss"));
+    }
+
+    /**
+     * Stores the response of the Api, or when it confirmed that the stale response is still valid, serves that one again.
+     */
+    public void store(Exchange exchange) {
+        var message = exchange.getMessage();
+        var key = exchange.getProperty(CACHING_KEY, String.class);
+        var api = exchange.getProperty(API, ApiEntity.class);
+        var ttl = exchange.getProperty(CACHING_TTL, Integer.class);
+        var generation = exchange.getProperty(CACHING_GENERATION, Long.class);
+        var clientEtags = exchange.getProperty(CLIENT_ETAGS, String.class);
+        var clientEncodings = exchange.getProperty(CLIENT_ENCODINGS, String.class);
+        var stale = exchange.getProperty(CACHED_RESPONSE, CachedResponse.class);
+        var status = message.getHeader(HTTP_RESPONSE_CODE, Integer.class);
+        var cacheControl = CacheControl.parse(message.getHeader(CACHE_CONTROL, String.class));
+        var now = this.clock.getAsLong();
+
+        if (stale != null && Objects.equals(status, 304)) {
+            var freshness = freshness(cacheControl.freshness().isPresent() ? cacheControl : CacheControl.parse(stale.headers().get(CACHE_CONTROL)), ttl);
+            var body = stale.body().retain() ? stale.body() : this.bodyStore.store(stale.body().buffer());
+            var response = stale.revalidated(body, now, now + freshness.toMillis());
+            put(key, response, api, freshness, generation);
+            count("revalidated");
+            serve(exchange, response, clientEtags, clientEncodings, now);
+            return;
+        }
+
+        if (stale != null) {
+            count("miss");
+        }
+
+        if (status == null || !ValueRange.of(200, 204).isValidIntValue(status) || !cacheControl.isStorable()
+                || message.getHeader(SET_COOKIE) != null || "*".equals(message.getHeader(VARY, String.class))) {
+            return;
+        }
+
+        var body = CamelUtils.readCacheableBody(exchange, this.cacheManager.maxResponseBodySize());
+        if (body == null) {
+            return;
+        }
+
+        var headers = new HashMap<String, String>();
+        REPRESENTATION_HEADERS.forEach(name -> {
+            var value = message.getHeader(name, String.class);
+            if (value != null) {
+                headers.put(name, value);
+            }
+        });
+
+        var freshness = freshness(cacheControl, ttl);
+        var etag = Objects.requireNonNullElseGet(headers.get(ETAG), () -> etag(body));
+        var cacheable = freshness.isPositive() || headers.containsKey(ETAG);
+        var cachedBody = cacheable ? this.bodyStore.store(ByteBuffer.wrap(compress(headers, body))) : CachedBody.onHeap(body);
+        var response = new CachedResponse(status, headers, cachedBody, etag, vary(message, headers), now, now + freshness.toMillis());
+        if (cacheable) {
+            Log.debugf("Setting response into cache, size: %d%s", cachedBody.length(), cachedBody.isOffHeap() ? " (off-heap)" : "");
+            put(key, response, api, freshness, generation);
+        }
+
+        message.setHeader(ETAG, etag);
+        if (response.isNotModified(clientEtags)) {
+            notModified(message, response);
+        }
+    }
+
+    /**
+     * The response is only kept after it became stale when it can be revalidated with the ETag of the Api.
+     * It is not kept when the Api was changed while it was requested, because it may come from the old Api.
+     */
+    private void put(String key, CachedResponse response, ApiEntity api, Duration freshness, long generation) {
+        var ttl = response.headers().containsKey(ETAG) ? freshness.plusSeconds(this.keepStale) : freshness;
+        if (!ttl.isPositive() || !this.cacheManager.set(RESPONSES, key, response, ttl, List.of(api.id), generation)) {
+            response.body().release();
+        }
+    }
+
+    private void serve(Exchange exchange, CachedResponse response, String clientEtags, String clientEncodings, long now) {
+        var message = exchange.getMessage();
+        // the response only carries the cached headers, not those of the request
+        message.removeHeaders("*", "Camel*");
+        message.setHeader("X-APIM-CACHE", message.getHeader(HTTP_URI));
+        message.setHeader("X-APIM-CACHE-TTL", Math.max(0, (response.expiresAt() - now) / 1000));
+        message.setHeader("Age", response.age(now));
+
+        if (response.isNotModified(clientEtags)) {
+            notModified(message, response);
+        } else {
+            response.headers().forEach(message::setHeader);
+            message.setHeader(ETAG, response.etag());
+            message.setHeader(HTTP_RESPONSE_CODE, response.status());
+            // a Vert.x buffer is written as it is, a byte[] or ByteBuffer would be copied into one first,
+            // BufferImpl wraps the ByteBuf without the deprecated Buffer.buffer(ByteBuf) (BufferInternal as of Vert.x 5)
+            message.setBody(BufferImpl.buffer(Unpooled.wrappedBuffer(response.body().buffer())));
+
+            if (isGzip(response)) {
+                negotiate(message, response, clientEncodings);
+            }
+        }
+    }
+
+    /**
+     * A compressed response is a different representation than the decompressed one, so it gets a weak ETag, like nginx does.
+     */
+    private static void negotiate(Message message, CachedResponse response, String clientEncodings) {
+        var vary = response.headers().get(VARY);
+        message.setHeader(VARY, vary == null || vary.isBlank() ? ACCEPT_ENCODING : vary + ", " + ACCEPT_ENCODING);
+
+        if (acceptsGzip(clientEncodings)) {
+            message.setHeader(ETAG, response.etag().startsWith("W/") ? response.etag() : "W/" + response.etag());
+        } else {
+            message.removeHeader(CONTENT_ENCODING);
+            try {
+                message.setBody(new GZIPInputStream(new ByteBufInputStream(Unpooled.wrappedBuffer(response.body().buffer()))));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return whether the client accepts gzip; like nginx, a client without an {@code Accept-Encoding} header gets the decompressed body.
+     */
+    static boolean acceptsGzip(String clientEncodings) {
+        if (clientEncodings == null) {
+            return false;
+        }
+
+        Boolean gzip = null;
+        var any = false;
+        for (var coding : clientEncodings.split(",")) {
+            var parts = coding.split(";");
+            var name = parts[0].trim().toLowerCase(Locale.ROOT);
+            var accepted = Arrays.stream(parts).skip(1)
+                    .map(String::trim)
+                    .filter(param -> param.startsWith("q="))
+                    .noneMatch(param -> param.substring(2).trim().matches("0(\\.0*)?"));
+
+            switch (name) {
+                case "gzip", "x-gzip" -> gzip = accepted;
+                case "*" -> any = accepted;
+                default -> {
+                }
+            }
+        }
+        return gzip != null ? gzip : any;
+    }
+
+    /**
+     * Compresses a textual body that the Api didn't compress, when it is worth it.
+     */
+    private byte[] compress(Map<String, String> headers, byte[] body) {
+        var contentType = headers.getOrDefault(CONTENT_TYPE, "").toLowerCase(Locale.ROOT);
+        if (!this.compression || body.length < this.compressionMinSize || headers.containsKey(CONTENT_ENCODING)
+                || COMPRESSIBLE_TYPES.stream().noneMatch(contentType::contains)) {
+            return body;
+        }
+
+        var compressed = new ByteArrayOutputStream(body.length / 4);
+        try (var gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (compressed.size() >= body.length) {
+            return body;
+        }
+        headers.put(CONTENT_ENCODING, "gzip");
+        return compressed.toByteArray();
+    }
+
+    private static boolean isGzip(CachedResponse response) {
+        var encoding = response.headers().get(CONTENT_ENCODING);
+        return "gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding);
+    }
+
+    private static void notModified(Message message, CachedResponse response) {
+        REPRESENTATION_HEADERS.stream().filter(name -> !NOT_MODIFIED_HEADERS.contains(name)).forEach(message::removeHeader);
+        NOT_MODIFIED_HEADERS.forEach(name -> {
+            var value = response.headers().get(name);
+            if (value != null) {
+                message.setHeader(name, value);
+            }
+        });
+        message.removeHeader(CONTENT_LENGTH);
+        message.setHeader(ETAG, response.etag());
+        message.setHeader(HTTP_RESPONSE_CODE, 304);
+        message.setBody(null);
+    }
+
+    String key(Message in, SubscriptionEntity subscription, String incomingRequest) {
+        var key = new StringBuilder(GET.name()).append(' ').append(incomingRequest);
+        for (var header : this.varyHeaders) {
+            key.append('|').append(header.toLowerCase(Locale.ROOT)).append('=').append(Objects.requireNonNullElse(in.getHeader(header, String.class), ""));
+        }
+        if (this.perSubscription) {
+            key.append("|subscription=").append(subscription.subscriptionKey);
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return the values of the request headers in the Vary header of the response, which are still on the message after the call;
+     * except for {@code Accept-Encoding} when the body is stored uncompressed or with gzip, which is negotiated by the gateway.
+     * Another encoding of the Api (e.g. br) is only served to the clients that sent the same {@code Accept-Encoding}.
+     */
+    private static Map<String, String> vary(Message message, Map<String, String> headers) {
+        var vary = message.getHeader(VARY, String.class);
+        if (vary == null || vary.isBlank()) {
+            return Map.of();
+        }
+
+        var encoding = headers.getOrDefault(CONTENT_ENCODING, "identity").trim().toLowerCase(Locale.ROOT);
+        var negotiated = List.of("identity", "gzip", "x-gzip").contains(encoding);
+        var result = new HashMap<String, String>();
+        Arrays.stream(vary.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty() && !(negotiated && name.equalsIgnoreCase(ACCEPT_ENCODING)))
+                .forEach(name -> result.put(name, Objects.requireNonNullElse(message.getHeader(name, String.class), "")));
+        return result;
+    }
+
+    /**
+     * @return the time that a response is fresh, the TTL of the cached path, unless the Api wants a shorter time.
+     */
+    private static Duration freshness(CacheControl cacheControl, int ttl) {
+        return Duration.ofSeconds(cacheControl.freshness().map(seconds -> Math.min(seconds, ttl)).orElse(ttl));
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"%s\"".formatted(HexFormat.of().formatHex(digest, 0, 16));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void count(String result) {
+        this.registry.counter("apim_response_cache", "result", result).increment();
+    }
+}
@@ -1,7 +1,5 @@
 package nl.probot.apim.core.camel;
 
-import io.micrometer.core.instrument.MeterRegistry;
-import io.quarkus.logging.Log;
 import jakarta.enterprise.context.control.ActivateRequestContext;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
@@ -9,6 +7,7 @@ import jakarta.ws.rs.WebApplicationException;
 import nl.probot.apim.core.entities.ApiEntity;
 import nl.probot.apim.core.entities.SubscriptionEntity;
 import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.utils.CacheWarmer;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
@@ -17,20 +16,23 @@ import static jakarta.ws.rs.core.HttpHeaders.AUTHORIZATION;
 import static nl.probot.apim.core.camel.CamelUtils.apiTokenAuth;
 import static nl.probot.apim.core.camel.CamelUtils.basicAuth;
 import static nl.probot.apim.core.camel.CamelUtils.clientCredentialsAuth;
-import static nl.probot.apim.core.camel.CamelUtils.metrics;
 import static nl.probot.apim.core.camel.CamelUtils.passthroughAuth;
 import static nl.probot.apim.core.entities.AuthenticationType.PASSTHROUGH;
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+import static nl.probot.apim.core.utils.CacheWarmer.WARM_UP_HEADER;
 import static org.apache.camel.Exchange.HTTP_URI;
 
 @Singleton
 public class SubscriptionProcessor implements Processor {
 
+    public static final String API = "api";
     public static final String PROXY_PATH = "proxyPath";
     public static final String SUBSCRIPTION_KEY = "subscription-key";
     public static final String SUBSCRIPTION = "subscription";
     public static final String THROTTLING_ENABLED = "throttling_enabled";
-    public static final String THROTTLING_MAX_REQUESTS = "throttling_maxRequests";
+    public static final String THROTTLING_POLICY = "throttling_policy";
     public static final String CACHING_KEY = "caching_key";
+    public static final String WARM_UP = "warm_up";
 
     @ConfigProperty(name = "mp.jwt.token.cookie", defaultValue = "NA")
     String accessTokenName;
@@ -39,23 +41,49 @@ public class SubscriptionProcessor implements Processor {
     CacheManager cacheManager;
 
     @Inject
-    MeterRegistry meterRegistry;
+    ResponseCache responseCache;
 
+    @Inject
+    AccessTokenProvider accessTokenProvider;
+
+    @Inject
+    CacheWarmer cacheWarmer;
+
+    /**
+     * The hot path, which is served from the cached subscription only, so it needs neither a request context nor a session.
+     * A request of the cache warm-up is neither throttled nor recorded as used.
+     */
     @Override
-    @ActivateRequestContext
     public void process(Exchange exchange) {
         var in = exchange.getIn();
+        var warmUp = this.cacheWarmer.isWarmUp(in.getHeader(WARM_UP_HEADER, String.class));
+        in.removeHeader(WARM_UP_HEADER);
+
         var incomingRequest = in.getHeader(HTTP_URI, String.class);
         var subscriptionKey = in.getHeader(SUBSCRIPTION_KEY, String.class);
-        var subscription = this.cacheManager.getAndSet(subscriptionKey, () -> SubscriptionEntity.findActiveByKey(subscriptionKey));
+        var subscription = this.cacheManager.getAndSet(SUBSCRIPTIONS, subscriptionKey, () -> findSubscription(subscriptionKey), SubscriptionEntity::apiIds);
         var api = subscription.findApi(incomingRequest);
 
         exchange.setProperty(SUBSCRIPTION, subscription);
+        exchange.setProperty(API, api);
         exchange.setProperty(PROXY_PATH, api.proxyPath);
+        exchange.setProperty(WARM_UP, warmUp);
 
         checkApiCredentials(exchange, subscription, api);
-        checkThrottling(exchange, api);
-        checkCaching(exchange, api, incomingRequest);
+        if (!warmUp) {
+            this.cacheWarmer.subscriptionUsed(subscription.id);
+            checkThrottling(exchange, api);
+        }
+        this.responseCache.lookup(exchange, subscription, api, incomingRequest);
+    }
+
+    /**
+     * Loads the subscription from the database, which the gateway only does on a cache miss or when the cache refreshes the subscription in the background.
+     * It runs in its own request context, which is closed again before the subscription is cached.
+     */
+    @ActivateRequestContext
+    SubscriptionEntity findSubscription(String subscriptionKey) {
+        return SubscriptionEntity.loadActiveByKey(subscriptionKey);
     }
 
     private void checkApiCredentials(Exchange exchange, SubscriptionEntity subscription, ApiEntity api) {
@@ -70,7 +98,7 @@ public class SubscriptionProcessor implements Processor {
             switch (authType) {
                 case BASIC -> basicAuth(exchange, credential.username, credential.password);
                 case API_KEY -> apiTokenAuth(exchange, credential);
-                case CLIENT_CREDENTIALS -> clientCredentialsAuth(exchange, credential);
+                case CLIENT_CREDENTIALS -> clientCredentialsAuth(exchange, credential, this.accessTokenProvider);
             }
         } else {
             passthroughAuth(exchange, this.accessTokenName);
@@ -78,29 +106,9 @@ public class SubscriptionProcessor implements Processor {
     }
 
     private static void checkThrottling(Exchange exchange, ApiEntity api) {
-        if (api.maxRequests != null && api.maxRequests > 0) {
+        api.rateLimitPolicy().ifPresent(policy -> {
             exchange.setProperty(THROTTLING_ENABLED, true);
-            exchange.setProperty(THROTTLING_MAX_REQUESTS, api.maxRequests);
-        }
-    }
-
-    private void checkCaching(Exchange exchange, ApiEntity api, String incomingRequest) {
-        if (api.isPathCached(incomingRequest)) {
-            var cacheKey = incomingRequest;
-
-            this.cacheManager.get(cacheKey).ifPresentOrElse(timedValue -> {
-                if (timedValue.isStale(api.cachingTTL * 1000)) {
-                    this.cacheManager.invalidate(cacheKey);
-                    Log.debugf("cache invalidated for key: %s", cacheKey);
-                } else {
-                    Log.debugf("Serving content from cache for key: %s", cacheKey);
-                    exchange.getIn().setHeader("X-APIM-CACHE", incomingRequest);
-                    exchange.getIn().setHeader("X-APIM-CACHE-TTL", api.cachingTTL);
-                    exchange.getIn().setBody(timedValue.value());
-                    metrics(exchange, this.meterRegistry, false, true);
-                    exchange.setRouteStop(true);
-                }
-            }, () -> exchange.setProperty(CACHING_KEY, cacheKey));
-        }
+            exchange.setProperty(THROTTLING_POLICY, policy);
+        });
     }
 }
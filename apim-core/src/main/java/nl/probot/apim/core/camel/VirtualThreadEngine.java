@@ -0,0 +1,206 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.impl.VertxWrapper;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.impl.RoutingContextDecorator;
+import io.vertx.ext.web.impl.RoutingContextInternal;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.apache.camel.Processor;
+import org.apache.camel.component.platform.http.PlatformHttpEndpoint;
+import org.apache.camel.component.platform.http.spi.PlatformHttpConsumer;
+import org.apache.camel.component.platform.http.spi.PlatformHttpEngine;
+import org.apache.camel.component.platform.http.vertx.VertxPlatformHttpConsumer;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
+
+/**
+ * Runs the exchanges of the gateway route on virtual threads instead of the worker pool, so that the amount of requests that
+ * wait for a slow Api is not limited by the size of the worker pool. The request is still received and the response still written
+ * by the event loop, only the processing of the exchange, which blocks on the database and on the call to the Api, is moved.
+ * <p>
+ * The amount of exchanges that run at once is capped by {@code apim.virtual-threads.max-concurrent}, the requests above it
+ * are rejected with a 503. A virtual thread that blocks while it holds a monitor pins its carrier thread, which is detected
+ * with the {@code jdk.VirtualThreadPinned} JFR event and logged with the frame that caused it.
+ * <p>
+ * The following metrics are registered:
+ * <ul>
+ *     <li>{@code apim_virtual_threads_active}: the amount of exchanges that are running,</li>
+ *     <li>{@code apim_virtual_threads_rejected}: the requests that were rejected because the cap was reached,</li>
+ *     <li>{@code apim_virtual_threads_pinned}: the times that a virtual thread pinned its carrier longer than the threshold.</li>
+ * </ul>
+ */
+@Singleton
+public class VirtualThreadEngine implements PlatformHttpEngine {
+
+    static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    @ConfigProperty(name = "apim.virtual-threads.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @Min(1)
+    @Max(100_000)
+    @ConfigProperty(name = "apim.virtual-threads.max-concurrent", defaultValue = "10000")
+    int maxConcurrent;
+
+    @ConfigProperty(name = "apim.virtual-threads.pinned-detection", defaultValue = "true")
+    boolean pinnedDetection;
+
+    @Min(1)
+    @Max(60_000)
+    @ConfigProperty(name = "apim.virtual-threads.pinned-threshold", defaultValue = "20")
+    int pinnedThreshold;
+
+    @Inject
+    MeterRegistry registry;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("apim-gateway-", 0).factory());
+    private RecordingStream pinnedEvents;
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (this.enabled && this.pinnedDetection) {
+            this.pinnedEvents = new RecordingStream();
+            this.pinnedEvents.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(this.pinnedThreshold)).withStackTrace();
+            this.pinnedEvents.onEvent(PINNED_EVENT, this::pinned);
+            this.pinnedEvents.startAsync();
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (this.pinnedEvents != null) {
+            this.pinnedEvents.close();
+        }
+        this.executor.shutdown();
+    }
+
+    @Override
+    public PlatformHttpConsumer createConsumer(PlatformHttpEndpoint endpoint, Processor processor) {
+        var permits = new Semaphore(this.maxConcurrent);
+        Gauge.builder("apim_virtual_threads_active", permits, semaphore -> this.maxConcurrent - semaphore.availablePermits())
+                .register(this.registry);
+        return new Consumer(endpoint, processor, permits);
+    }
+
+    void pinned(RecordedEvent event) {
+        this.registry.counter("apim_virtual_threads_pinned").increment();
+        Log.warnf("Virtual thread %s pinned its carrier thread for %d ms at %s",
+                event.getThread() != null ? event.getThread().getJavaName() : "unknown",
+                event.getDuration().toMillis(),
+                pinnedAt(event));
+    }
+
+    /**
+     * @return the first frame outside the JDK, which is the code that blocked while holding a monitor.
+     */
+    static String pinnedAt(RecordedEvent event) {
+        var stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+            return "unknown";
+        }
+
+        return stackTrace.getFrames().stream()
+                .filter(RecordedFrame::isJavaFrame)
+                .map(frame -> "%s.%s:%d".formatted(frame.getMethod().getType().getName(), frame.getMethod().getName(), frame.getLineNumber()))
+                .filter(frame -> !frame.startsWith("java.") && !frame.startsWith("jdk.") && !frame.startsWith("sun."))
+                .findFirst()
+                .orElse("unknown");
+    }
+
+    /**
+     * Runs the blocking code on a virtual thread, its result is handled on the context of the caller, like with the worker pool.
+     */
+    <T> Future<T> executeBlocking(VertxInternal vertx, Callable<T> blockingCode) {
+        var promise = vertx.getOrCreateContext().<T>promise();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    promise.complete(blockingCode.call());
+                } catch (Throwable e) {
+                    promise.fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.fail(e);
+        }
+        return promise.future();
+    }
+
+    /**
+     * The consumer of platform-http, which hands a Vert.x to the request handling that executes the blocking code on virtual threads.
+     */
+    private final class Consumer extends VertxPlatformHttpConsumer {
+
+        private final Semaphore permits;
+        private volatile Vertx vertx;
+
+        Consumer(PlatformHttpEndpoint endpoint, Processor processor, Semaphore permits) {
+            super(endpoint, processor, List.of());
+            this.permits = permits;
+        }
+
+        @Override
+        protected void handleRequest(RoutingContext ctx) {
+            if (!this.permits.tryAcquire()) {
+                registry.counter("apim_virtual_threads_rejected").increment();
+                ctx.response()
+                        .setStatusCode(503)
+                        .putHeader(CONTENT_TYPE, APPLICATION_JSON)
+                        .end(JsonObject.of(
+                                "error", "The gateway is too busy",
+                                "details", "Max. concurrent requests of %d reached".formatted(maxConcurrent)
+                        ).encodePrettily());
+                return;
+            }
+
+            ctx.addEndHandler(result -> this.permits.release());
+            var vertx = vertx(ctx);
+            super.handleRequest(new RoutingContextDecorator(ctx.currentRoute(), (RoutingContextInternal) ctx) {
+                @Override
+                public Vertx vertx() {
+                    return vertx;
+                }
+            });
+        }
+
+        private Vertx vertx(RoutingContext ctx) {
+            if (this.vertx == null) {
+                this.vertx = new VertxWrapper((VertxInternal) ctx.vertx()) {
+                    @Override
+                    public <T> Future<T> executeBlocking(Callable<T> blockingCodeHandler, boolean ordered) {
+                        return VirtualThreadEngine.this.executeBlocking(this, blockingCodeHandler);
+                    }
+                };
+            }
+            return this.vertx;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package nl.probot.apim.core.entities;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
-import io.quarkus.logging.Log;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Index;
@@ -14,11 +13,8 @@ import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper;
 import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper.StaticStatement;
 import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper.WhereStatement;
 import nl.probot.apim.core.rest.dto.AccessListPUT;
-import nl.probot.apim.core.utils.IpUtility;
 
-import java.net.UnknownHostException;
 import java.time.OffsetDateTime;
-import java.util.List;
 
 import static java.util.Objects.requireNonNull;
 
@@ -59,39 +55,16 @@ public class AccessListEntity extends PanacheEntity {
         this.updatedAt = OffsetDateTime.now();
     }
 
-    public static boolean hasAccess(String ip) {
-        var exactMatch = find("ip = ?1", ip).<AccessListEntity>firstResult();
-        if (exactMatch != null) {
-            return isAllowed(exactMatch);
-        }
-
-        try {
-            var cidrList = AccessListEntity.<AccessListEntity>list("isCidr = true");
-            var cidrWhitelist = cidrList.stream().filter(entry -> entry.whitelisted).toList();
-
-            if (!cidrWhitelist.isEmpty()) {
-                return isInCdrlist(ip, cidrWhitelist, false);
-            }
-
-            var cidrBlacklist = cidrList.stream().filter(entry -> entry.blacklisted).toList();
-            if (!cidrBlacklist.isEmpty()) {
-                return isInCdrlist(ip, cidrBlacklist, true);
-            }
-
-            return true;
-        } catch (UnknownHostException e) {
-            return false;
-        }
-    }
-
     public static int updateConditionally(AccessListPUT dto, String user) {
         var blacklisted = Boolean.TRUE.equals(dto.blacklisted());
         var whitelisted = !blacklisted;
+        var isCidr = dto.newIp() == null || dto.newIp().isBlank() ? null : dto.newIp().contains("/");
 
         var helper = new PanacheDyanmicQueryHelper();
         var query = helper
                 .statements(
                         new StaticStatement("ip", dto.newIp()),
+                        new StaticStatement("isCidr", isCidr),
                         new StaticStatement("blacklisted", blacklisted),
                         new StaticStatement("whitelisted", whitelisted),
                         new StaticStatement("updatedBy", requireNonNull(user)),
@@ -100,23 +73,4 @@ public class AccessListEntity extends PanacheEntity {
 
         return update(query, helper.values());
     }
-
-    private static boolean isAllowed(AccessListEntity entry) {
-        if (entry.whitelisted != null && entry.whitelisted) {
-            return true;
-        }
-        return entry.blacklisted == null || !entry.blacklisted;
-    }
-
-    private static boolean isInCdrlist(String ipAddress, List<AccessListEntity> cdrList, boolean allowAccess) throws UnknownHostException {
-        for (var entry : cdrList) {
-            if (IpUtility.isIPv4InRange(ipAddress, entry.ip) || IpUtility.isIPv6InRange(ipAddress, entry.ip)) {
-                if (!allowAccess) {
-                    Log.warnf("Blocked %s ip address detected", ipAddress);
-                }
-                return isAllowed(entry);
-            }
-        }
-        return allowAccess;
-    }
 }
@@ -1,12 +1,14 @@
 package nl.probot.apim.core.entities;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.logging.Log;
 import io.quarkus.panache.common.Sort;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Enumerated;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
@@ -17,15 +19,19 @@ import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper.StaticStatement;
 import nl.probot.apim.commons.jpa.PanacheDyanmicQueryHelper.WhereStatement;
 import nl.probot.apim.core.rest.dto.Api;
 import nl.probot.apim.core.rest.dto.ApiPUT;
+import nl.probot.apim.core.utils.CachedPaths;
+import nl.probot.apim.core.utils.CachedPaths.Rule;
+import nl.probot.apim.core.utils.CircuitBreaker.Settings;
+import nl.probot.apim.core.utils.RateLimitStore.Policy;
 import org.hibernate.validator.constraints.URL;
 
-import java.util.Arrays;
+import java.time.Duration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 
-import static io.quarkus.runtime.util.StringUtil.isNullOrEmpty;
 import static jakarta.persistence.EnumType.STRING;
 import static nl.probot.apim.commons.jpa.QueryOperator.OR;
 import static org.hibernate.jpa.QueryHints.HINT_READONLY;
@@ -67,6 +73,54 @@ public class ApiEntity extends PanacheEntity {
     @Column(name = "max_requests")
     public Integer maxRequests;
 
+    @Min(1)
+    @Max(86_400)
+    @Column(name = "rate_limit_window")
+    public Integer rateLimitWindow;
+
+    @Min(1)
+    @Max(1_000_000)
+    @Column(name = "rate_limit_burst")
+    public Integer rateLimitBurst;
+
+    @Min(1)
+    @Max(60_000)
+    @Column(name = "connect_timeout")
+    public Integer connectTimeout;
+
+    @Min(1)
+    @Max(600_000)
+    @Column(name = "read_timeout")
+    public Integer readTimeout;
+
+    @Column(name = "circuit_breaker_enabled")
+    public Boolean circuitBreakerEnabled = false;
+
+    @Min(1)
+    @Max(1000)
+    @Column(name = "circuit_breaker_request_volume")
+    public Integer circuitBreakerRequestVolume;
+
+    @Min(1)
+    @Max(100)
+    @Column(name = "circuit_breaker_failure_ratio")
+    public Integer circuitBreakerFailureRatio;
+
+    @Min(1)
+    @Max(3600)
+    @Column(name = "circuit_breaker_delay")
+    public Integer circuitBreakerDelay;
+
+    @Min(1)
+    @Max(100)
+    @Column(name = "circuit_breaker_probes")
+    public Integer circuitBreakerProbes;
+
+    @Min(1)
+    @Max(10_000)
+    @Column(name = "max_concurrent_requests")
+    public Integer maxConcurrentRequests;
+
     @Column(name = "caching_enabled")
     public Boolean cachingEnabled = false;
 
@@ -82,17 +136,72 @@ public class ApiEntity extends PanacheEntity {
     @ManyToMany(mappedBy = "apis")
     public Set<SubscriptionEntity> subscriptions = new HashSet<>();
 
-    public boolean isPathCached(String incomingRequest) {
-        if (Boolean.FALSE.equals(this.cachingEnabled) || this.cachingTTL == null) {
-            return false;
+    @Transient
+    private volatile Policy rateLimitPolicy;
+
+    @Transient
+    private volatile CachedPaths cachedPathMatcher;
+
+    /**
+     * Compiles the cached paths once, when the Api is loaded, because the cached Api is replaced when it is updated.
+     * Invalid cached paths (e.g. stored before they were validated) are logged and ignored, then no path of this Api is cached.
+     */
+    public ApiEntity compileCachedPaths() {
+        if (this.cachedPathMatcher == null) {
+            try {
+                this.cachedPathMatcher = CachedPaths.compile(this.cachedPaths);
+            } catch (IllegalArgumentException e) {
+                Log.warnf("The cached paths of Api(proxyPath=%s) are ignored: %s", this.proxyPath, e.getMessage());
+                this.cachedPathMatcher = CachedPaths.NONE;
+            }
         }
+        return this;
+    }
 
-        // just cache the incoming request
-        if (isNullOrEmpty(this.cachedPaths)) {
-            return true;
+    /**
+     * The cached path that matches the request, see {@link CachedPaths}. Nothing is cached before the cached paths are compiled.
+     *
+     * @param incomingRequest the request uri, including the context root and the proxy path of this Api.
+     */
+    public Optional<Rule> findCachedPath(String method, String incomingRequest) {
+        if (Boolean.FALSE.equals(this.cachingEnabled) || this.cachingTTL == null || this.cachedPathMatcher == null) {
+            return Optional.empty();
+        }
+        return this.cachedPathMatcher.match(method, incomingRequest, incomingRequest.indexOf('/', 1) + this.proxyPath.length());
+    }
+
+    /**
+     * The rate limit of this Api, which is {@code maxRequests} per window (default 60 seconds) with at most {@code burst}
+     * (default {@code maxRequests}) requests at once. It is created once, because the cached Api is replaced when it is updated.
+     */
+    public Optional<Policy> rateLimitPolicy() {
+        if (this.maxRequests == null || this.maxRequests <= 0) {
+            return Optional.empty();
+        }
+
+        if (this.rateLimitPolicy == null) {
+            this.rateLimitPolicy = new Policy(
+                    this.maxRequests,
+                    Objects.requireNonNullElse(this.rateLimitBurst, this.maxRequests),
+                    Duration.ofSeconds(Objects.requireNonNullElse(this.rateLimitWindow, 60)));
+        }
+        return Optional.of(this.rateLimitPolicy);
+    }
+
+    /**
+     * The circuit breaker of this Api, which opens for {@code delay} (default 30) seconds when {@code failureRatio} (default 50) percent
+     * of the last {@code requestVolume} (default 20) calls failed, and closes again after {@code probes} (default 1) successful calls.
+     */
+    public Optional<Settings> circuitBreakerSettings() {
+        if (!Boolean.TRUE.equals(this.circuitBreakerEnabled)) {
+            return Optional.empty();
         }
 
-        return Arrays.stream(this.cachedPaths.split(",")).anyMatch(path -> incomingRequest.contains(path));
+        return Optional.of(new Settings(
+                Objects.requireNonNullElse(this.circuitBreakerRequestVolume, 20),
+                Objects.requireNonNullElse(this.circuitBreakerFailureRatio, 50),
+                Duration.ofSeconds(Objects.requireNonNullElse(this.circuitBreakerDelay, 30)),
+                Objects.requireNonNullElse(this.circuitBreakerProbes, 1)));
     }
 
     public static List<ApiEntity> findByIds(Set<Long> apis) {
@@ -129,7 +238,17 @@ public class ApiEntity extends PanacheEntity {
                         new StaticStatement("openApiUrl", api.openApiUrl()),
                         new StaticStatement("description", api.description()),
                         new StaticStatement("maxRequests", api.maxRequests()),
+                        new StaticStatement("rateLimitWindow", api.rateLimitWindow()),
+                        new StaticStatement("rateLimitBurst", api.rateLimitBurst()),
                         new StaticStatement("enabled", api.enabled()),
+                        new StaticStatement("connectTimeout", api.connectTimeout()),
+                        new StaticStatement("readTimeout", api.readTimeout()),
+                        new StaticStatement("circuitBreakerEnabled", api.circuitBreakerEnabled()),
+                        new StaticStatement("circuitBreakerRequestVolume", api.circuitBreakerRequestVolume()),
+                        new StaticStatement("circuitBreakerFailureRatio", api.circuitBreakerFailureRatio()),
+                        new StaticStatement("circuitBreakerDelay", api.circuitBreakerDelay()),
+                        new StaticStatement("circuitBreakerProbes", api.circuitBreakerProbes()),
+                        new StaticStatement("maxConcurrentRequests", api.maxConcurrentRequests()),
                         new StaticStatement("cachingEnabled", api.cachingEnabled()),
                         new StaticStatement("cachingTTL", api.cachingTTL()),
                         new StaticStatement("cachedPaths", api.cachedPaths()),
@@ -0,0 +1,96 @@
+package nl.probot.apim.core.entities;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import io.quarkus.panache.common.Sort;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static jakarta.persistence.GenerationType.IDENTITY;
+
+/**
+ * A subscription or a cached GET path that was recently used on the gateway, these are warmed up by the {@link nl.probot.apim.core.utils.CacheWarmer}.
+ * <p>
+ * A subscription has an empty path, a path is the request uri with its query string, together with the values of the vary headers of the request.
+ */
+@Entity
+@Table(name = "cache_hot_key")
+public class CacheHotKeyEntity extends PanacheEntityBase {
+
+    @Id
+    @GeneratedValue(strategy = IDENTITY)
+    public Long id;
+
+    @Column(name = "subscription_id")
+    public Long subscriptionId;
+
+    public String path;
+
+    public String headers;
+
+    public long hits;
+
+    @Column(name = "last_used")
+    public OffsetDateTime lastUsed;
+
+    /**
+     * Adds the hits to the key, or creates it when it doesn't exist yet.
+     */
+    public static void used(Long subscriptionId, String path, String headers, long hits, OffsetDateTime now) {
+        getEntityManager().createNativeQuery("""
+                        insert into cache_hot_key (subscription_id, path, headers, hits, last_used) values (?1, ?2, ?3, ?4, ?5)
+                        on conflict (subscription_id, path, headers) do update set hits = cache_hot_key.hits + excluded.hits, last_used = excluded.last_used
+                        """)
+                .setParameter(1, subscriptionId)
+                .setParameter(2, path)
+                .setParameter(3, headers)
+                .setParameter(4, hits)
+                .setParameter(5, now)
+                .executeUpdate();
+    }
+
+    /**
+     * @return the most recently used subscriptions.
+     */
+    public static List<CacheHotKeyEntity> recentSubscriptions(int limit) {
+        return limit == 0 ? List.of() : CacheHotKeyEntity.<CacheHotKeyEntity>find("path = ''", Sort.descending("lastUsed"))
+                .range(0, limit - 1)
+                .list();
+    }
+
+    /**
+     * @return the most requested paths.
+     */
+    public static List<CacheHotKeyEntity> topPaths(int limit) {
+        return limit == 0 ? List.of() : CacheHotKeyEntity.<CacheHotKeyEntity>find("path <> ''", Sort.descending("hits", "lastUsed"))
+                .range(0, limit - 1)
+                .list();
+    }
+
+    /**
+     * Keeps the list small: only the most recently used subscriptions and the most requested paths that were used since the given time.
+     */
+    public static void prune(int subscriptions, int paths, OffsetDateTime usedSince) {
+        getEntityManager().createNativeQuery("""
+                        delete from cache_hot_key where path = '' and id not in (
+                            select id from cache_hot_key where path = '' order by last_used desc limit ?1
+                        )
+                        """)
+                .setParameter(1, subscriptions)
+                .executeUpdate();
+
+        getEntityManager().createNativeQuery("""
+                        delete from cache_hot_key where path <> '' and (last_used < ?1 or id not in (
+                            select id from cache_hot_key where path <> '' order by hits desc, last_used desc limit ?2
+                        ))
+                        """)
+                .setParameter(1, usedSince)
+                .setParameter(2, paths)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,45 @@
+package nl.probot.apim.core.entities;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * A single row with the version of the cached data, it is incremented with each published cache invalidation.
+ */
+@Entity
+@Table(name = "cache_version")
+public class CacheVersionEntity extends PanacheEntityBase {
+
+    static final long ID = 1;
+
+    @Id
+    public Long id;
+
+    public long version;
+
+    /**
+     * Increments the version within the current transaction, the row lock also orders the invalidations of concurrent transactions.
+     */
+    public static long increment() {
+        var result = getEntityManager().createNativeQuery("""
+                        insert into cache_version (id, version) values (?1, 1)
+                        on conflict (id) do update set version = cache_version.version + 1
+                        returning version
+                        """)
+                .setParameter(1, ID)
+                .getSingleResult();
+        return ((Number) result).longValue();
+    }
+
+    /**
+     * Sends the payload to the listeners of the channel, Postgres only delivers it when the current transaction commits.
+     */
+    public static void notifyListeners(String channel, String payload) {
+        getEntityManager().createNativeQuery("select 1 from pg_notify(?1, ?2)")
+                .setParameter(1, channel)
+                .setParameter(2, payload)
+                .getSingleResult();
+    }
+}
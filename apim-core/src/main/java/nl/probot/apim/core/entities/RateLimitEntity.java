@@ -0,0 +1,66 @@
+package nl.probot.apim.core.entities;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * The token bucket of a rate limit that is shared by all nodes of the cluster.
+ */
+@Entity
+@Table(name = "rate_limit")
+public class RateLimitEntity extends PanacheEntityBase {
+
+    @Id
+    @Column(name = "rate_key")
+    public String key;
+
+    public double tokens;
+
+    /**
+     * The epoch millis of the last refill.
+     */
+    @Column(name = "updated_at")
+    public long updatedAt;
+
+    /**
+     * Refills the bucket for the time that has passed and takes at most {@code amount} tokens from it,
+     * the row lock serializes the nodes that take tokens from the same bucket.
+     *
+     * @param returned the tokens that were taken before, but not used.
+     */
+    public static Taken take(String key, int capacity, double tokensPerSecond, int amount, double returned, long now) {
+        var result = getEntityManager().createNativeQuery("""
+                        insert into rate_limit as r (rate_key, tokens, updated_at) values (?1, ?2, ?3)
+                        on conflict (rate_key) do update
+                        set tokens = least(?2, r.tokens + ?5 + greatest(0, ?3 - r.updated_at) * ?4 / 1000.0),
+                            updated_at = greatest(r.updated_at, ?3)
+                        returning tokens
+                        """)
+                .setParameter(1, key)
+                .setParameter(2, (double) capacity)
+                .setParameter(3, now)
+                .setParameter(4, tokensPerSecond)
+                .setParameter(5, returned)
+                .getSingleResult();
+
+        var available = ((Number) result).doubleValue();
+        var granted = (int) Math.min(amount, Math.floor(available));
+        if (granted > 0) {
+            getEntityManager().createNativeQuery("update rate_limit set tokens = tokens - ?1 where rate_key = ?2")
+                    .setParameter(1, (double) granted)
+                    .setParameter(2, key)
+                    .executeUpdate();
+        }
+        return new Taken(granted, available - granted);
+    }
+
+    /**
+     * @param granted   the tokens that were taken.
+     * @param available the tokens that are left in the bucket.
+     */
+    public record Taken(int granted, double available) {
+    }
+}
@@ -1,6 +1,7 @@
 package nl.probot.apim.core.entities;
 
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.hibernate.orm.panache.PanacheQuery;
 import io.quarkus.logging.Log;
 import io.quarkus.panache.common.Sort;
 import jakarta.persistence.Column;
@@ -8,6 +9,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.ManyToMany;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
+import jakarta.persistence.Transient;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import jakarta.ws.rs.NotFoundException;
@@ -21,12 +23,15 @@ import nl.probot.apim.core.rest.dto.ApiCredentialPUT;
 import nl.probot.apim.core.rest.dto.Subscription;
 import nl.probot.apim.core.rest.dto.SubscriptionApi;
 import nl.probot.apim.core.rest.dto.SubscriptionPUT;
+import nl.probot.apim.core.utils.ApiRouter;
 import org.hibernate.Session;
 import org.hibernate.annotations.Array;
 import org.hibernate.annotations.NaturalId;
 
 import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +75,12 @@ public class SubscriptionEntity extends PanacheEntity {
     @ManyToMany(cascade = {MERGE, PERSIST})
     public Set<ApiEntity> apis = new HashSet<>();
 
+    @Transient
+    private volatile ApiRouter router;
+
+    @Transient
+    private volatile Map<Long, ApiCredentialEntity> credentialsByApi;
+
     public void addApi(ApiEntity api) {
         this.apis.add(api);
         api.subscriptions.add(this);
@@ -83,17 +94,39 @@ public class SubscriptionEntity extends PanacheEntity {
 
     public ApiEntity findApi(String incomingRequestPath) {
         var path = incomingRequestPath.substring(incomingRequestPath.indexOf('/', 1));
-        return this.apis.stream()
-                .filter(api -> api.enabled)
-                .filter(api -> path.startsWith(api.proxyPath))
-                .findFirst()
+        return compile().router.match(path)
                 .orElseThrow(() -> new NotFoundException("Api(proxyPath=%s) not found or was not enabled on current subscription".formatted(path)));
     }
 
+    /**
+     * Builds the routing table of the enabled Apis, their cached paths and the index of the credentials once, they are kept as long as
+     * this subscription is cached.
+     * <p>
+     * This must happen while the subscription is loaded, so that the gateway is served from these immutable structures
+     * and never has to touch the lazy associations without a session.
+     */
+    public SubscriptionEntity compile() {
+        if (this.router == null) {
+            var credentials = new HashMap<Long, ApiCredentialEntity>();
+            if (this.apiCredentials != null) {
+                this.apiCredentials.forEach(credential -> credentials.putIfAbsent(credential.id.api.id, credential));
+            }
+            this.credentialsByApi = Map.copyOf(credentials);
+            this.apis.forEach(ApiEntity::compileCachedPaths);
+            this.router = ApiRouter.of(this.apis);
+        }
+        return this;
+    }
+
+    /**
+     * @return the ids of the Apis of this subscription, a change of one of them invalidates the cached subscription.
+     */
+    public List<Long> apiIds() {
+        return this.apis.stream().map(api -> api.id).toList();
+    }
+
     public Optional<ApiCredentialEntity> findApiCredential(Long apiId) {
-        return this.apiCredentials.stream()
-                .filter(credential -> credential.id.api.id.equals(apiId))
-                .findFirst();
+        return Optional.ofNullable(compile().credentialsByApi.get(apiId));
     }
 
     public static int removeApis(String subscriptionKey, Long apiId) {
@@ -131,6 +164,43 @@ public class SubscriptionEntity extends PanacheEntity {
     }
 
     public static SubscriptionEntity findActiveByKey(String key) {
+        return activeByKey(key)
+                .<SubscriptionEntity>singleResultOptional()
+                .orElseThrow(() -> new NotFoundException("Subscription with given key not found or is inactive"));
+    }
+
+    /**
+     * Loads the subscription for the gateway: read-only, because it is cached and shared by the requests instead of being changed,
+     * and compiled, so that it is fully initialised before the session is closed.
+     */
+    public static SubscriptionEntity loadActiveByKey(String key) {
+        return activeByKey(key)
+                .withHint(HINT_READONLY, true)
+                .<SubscriptionEntity>singleResultOptional()
+                .orElseThrow(() -> new NotFoundException("Subscription with given key not found or is inactive"))
+                .compile();
+    }
+
+    /**
+     * Loads the active subscriptions with the given ids in one query for the cache warm-up, in the same way as {@link #loadActiveByKey(String)}.
+     */
+    public static List<SubscriptionEntity> loadActiveByIds(Collection<Long> ids) {
+        return SubscriptionEntity.<SubscriptionEntity>find("""
+                        select s 
+                        from SubscriptionEntity s 
+                        left join fetch s.apis a
+                        left join fetch s.apiCredentials ac 
+                        where s.id in ?1 and s.enabled = true 
+                        and (s.endDate is null or s.endDate > current_date)
+                        """, ids)
+                .withHint(HINT_READONLY, true)
+                .list()
+                .stream()
+                .map(SubscriptionEntity::compile)
+                .toList();
+    }
+
+    private static PanacheQuery<SubscriptionEntity> activeByKey(String key) {
         return find("""
                 select s 
                 from SubscriptionEntity s 
@@ -138,9 +208,7 @@ public class SubscriptionEntity extends PanacheEntity {
                 left join fetch s.apiCredentials ac 
                 where subscriptionKey = ?1 and s.enabled = true 
                 and (s.endDate is null or s.endDate > current_date)
-                """, key)
-                .<SubscriptionEntity>singleResultOptional()
-                .orElseThrow(() -> new NotFoundException("Subscription with given key not found or is inactive"));
+                """, key);
     }
 
     public static SubscriptionEntity findActiveByAccount(String account) {
@@ -4,6 +4,8 @@ import io.quarkus.logging.Log;
 import io.quarkus.panache.common.Sort;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.SecurityContext;
@@ -13,6 +15,7 @@ import nl.probot.apim.core.rest.dto.AccessList;
 import nl.probot.apim.core.rest.dto.AccessListPOST;
 import nl.probot.apim.core.rest.dto.AccessListPUT;
 import nl.probot.apim.core.rest.openapi.AccessListOpenApi;
+import nl.probot.apim.core.utils.AccessListManager.AccessListChanged;
 import org.jboss.resteasy.reactive.RestResponse;
 
 import java.net.URI;
@@ -28,11 +31,15 @@ import static org.jboss.resteasy.reactive.RestResponse.ok;
 @RolesAllowed("${apim.roles.manager}")
 public class AccessListController implements AccessListOpenApi {
 
+    @Inject
+    Event<AccessListChanged> accessListChanged;
+
     @Override
     @Transactional
     public RestResponse<Void> save(AccessListPOST dto, SecurityContext identity, UriInfo uriInfo) {
         var entity = dto.toEntity(identity.getUserPrincipal().getName());
         entity.persist();
+        this.accessListChanged.fire(new AccessListChanged(entity.ip));
         Log.infof("AccessList(ip=%s, blacklisted=%s, whitelisted=%s) created", entity.ip, entity.blacklisted, entity.whitelisted);
 
         return created(URI.create("%s/%s".formatted(uriInfo.getPath(), entity.id)));
@@ -43,6 +50,7 @@ public class AccessListController implements AccessListOpenApi {
     public RestResponse<Void> update(AccessListPUT dto, SecurityContext identity) {
         var count = AccessListEntity.updateConditionally(dto, identity.getUserPrincipal().getName());
         if (count > 0) {
+            this.accessListChanged.fire(new AccessListChanged(dto.ip()));
             Log.infof("AccessList(ip=%s) updated", requireNonNullElse(dto.newIp(), dto.ip()));
             return ok();
         }
@@ -80,6 +88,7 @@ public class AccessListController implements AccessListOpenApi {
     public RestResponse<Void> delete(String ip, SecurityContext identity) {
         var count = AccessListEntity.delete("ip = ?1", ip);
         if (count > 0) {
+            this.accessListChanged.fire(new AccessListChanged(ip));
             Log.infof("AccessList(ip=%s) deleted by %s*****", ip, identity.getUserPrincipal().getName().substring(0, 3));
         }
         return ok();
@@ -13,7 +13,7 @@ import nl.probot.apim.core.rest.dto.Api;
 import nl.probot.apim.core.rest.dto.ApiPOST;
 import nl.probot.apim.core.rest.dto.ApiPUT;
 import nl.probot.apim.core.rest.openapi.ApiOpenApi;
-import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.utils.CacheInvalidationBus;
 import org.jboss.resteasy.reactive.RestResponse;
 
 import java.net.URI;
@@ -25,7 +25,7 @@ import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 public class ApiController implements ApiOpenApi {
 
     @Inject
-    CacheManager cacheManager;
+    CacheInvalidationBus invalidationBus;
 
     @Override
     @Transactional
@@ -44,8 +44,7 @@ public class ApiController implements ApiOpenApi {
     public RestResponse<Void> update(Long apiId, ApiPUT api) {
         var count = ApiEntity.updateConditionally(apiId, api);
         if (count > 0) {
-            // many subscribers can have this api, so just clear all for simplicity
-            this.cacheManager.clearAll();
+            this.invalidationBus.apiChanged(apiId);
             Log.infof("Api(id=%d) updated with %d records", apiId, count);
             return RestResponse.ok();
         }
@@ -20,7 +20,7 @@ import nl.probot.apim.core.rest.dto.SubscriptionPOST;
 import nl.probot.apim.core.rest.dto.SubscriptionPUT;
 import nl.probot.apim.core.rest.dto.Views;
 import nl.probot.apim.core.rest.openapi.SubscriptionOpenApi;
-import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.utils.CacheInvalidationBus;
 import org.jboss.resteasy.reactive.RestResponse;
 
 import java.net.URI;
@@ -37,7 +37,7 @@ import static org.jboss.resteasy.reactive.RestResponse.Status.BAD_REQUEST;
 public class SubscriptionController implements SubscriptionOpenApi {
 
     @Inject
-    CacheManager cacheManager;
+    CacheInvalidationBus invalidationBus;
 
     @Override
     @Transactional
@@ -108,7 +108,7 @@ public class SubscriptionController implements SubscriptionOpenApi {
         if (!apis.isEmpty()) {
             var sub = SubscriptionEntity.findActiveByKey(key);
             apis.forEach(api -> sub.addApi(api));
-            this.cacheManager.invalidate(key);
+            this.invalidationBus.subscriptionChanged(key);
 
             Log.infof("New Api's for Subscription(name=%s) added", sub.name);
             return RestResponse.ok(SubscriptionAll.toDto(sub));
@@ -124,7 +124,7 @@ public class SubscriptionController implements SubscriptionOpenApi {
     public RestResponse<Void> removeApi(String key, Long apiId) {
         var deleted = SubscriptionEntity.removeApis(key, apiId);
         if (deleted > 0) {
-            this.cacheManager.invalidate(key);
+            this.invalidationBus.subscriptionChanged(key);
             Log.infof("Deleted %d apis from Subscription(apiId=%d)", deleted, apiId);
         }
         return RestResponse.ok();
@@ -135,7 +135,7 @@ public class SubscriptionController implements SubscriptionOpenApi {
     @RolesAllowed({"${apim.roles.manager}"})
     public RestResponse<Void> addCredential(ApiCredential credential) {
         SubscriptionEntity.addCredential(credential);
-        this.cacheManager.invalidate(credential.subscriptionKey());
+        this.invalidationBus.subscriptionChanged(credential.subscriptionKey());
         return RestResponse.ok();
     }
 
@@ -148,7 +148,7 @@ public class SubscriptionController implements SubscriptionOpenApi {
 
         var count = SubscriptionEntity.updateCredentialConditionally(sub.id, apiId, credential);
         if (count > 0) {
-            this.cacheManager.invalidate(credential.subscriptionKey());
+            this.invalidationBus.subscriptionChanged(credential.subscriptionKey());
             Log.infof("ApiCredential(apiId=%d, sub='%s') updated with %d record(s)", apiId, sub.name, count);
             return RestResponse.ok();
         }
@@ -19,6 +19,16 @@ public record Api(
         Integer cachingTTL,
         String cachedPaths,
         Integer maxRequests,
+        Integer rateLimitWindow,
+        Integer rateLimitBurst,
+        Integer connectTimeout,
+        Integer readTimeout,
+        Boolean circuitBreakerEnabled,
+        Integer circuitBreakerRequestVolume,
+        Integer circuitBreakerFailureRatio,
+        Integer circuitBreakerDelay,
+        Integer circuitBreakerProbes,
+        Integer maxConcurrentRequests,
         AuthenticationType authenticationType
 ) {
     public static Api toDto(ApiEntity entity) {
@@ -34,6 +44,16 @@ public record Api(
                 entity.cachingTTL,
                 entity.cachedPaths,
                 entity.maxRequests,
+                entity.rateLimitWindow,
+                entity.rateLimitBurst,
+                entity.connectTimeout,
+                entity.readTimeout,
+                entity.circuitBreakerEnabled,
+                entity.circuitBreakerRequestVolume,
+                entity.circuitBreakerFailureRatio,
+                entity.circuitBreakerDelay,
+                entity.circuitBreakerProbes,
+                entity.maxConcurrentRequests,
                 entity.authenticationType
         );
     }
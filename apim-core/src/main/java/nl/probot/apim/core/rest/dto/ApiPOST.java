@@ -7,6 +7,7 @@ import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 import nl.probot.apim.core.entities.ApiEntity;
 import nl.probot.apim.core.entities.AuthenticationType;
+import nl.probot.apim.core.utils.CachedPaths;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.hibernate.validator.constraints.URL;
 
@@ -40,9 +41,56 @@ public record ApiPOST(
 
         @Min(1)
         @Max(1_000_000)
-        @Schema(description = "max amount of requests per minute")
+        @Schema(description = "max amount of requests per window")
         Integer maxRequests,
 
+        @Min(1)
+        @Max(86_400)
+        @Schema(description = "the seconds in which max. requests are allowed, default 60")
+        Integer rateLimitWindow,
+
+        @Min(1)
+        @Max(1_000_000)
+        @Schema(description = "max. amount of requests at once, default max. requests")
+        Integer rateLimitBurst,
+
+        @Min(1)
+        @Max(60_000)
+        @Schema(description = "the milliseconds to wait for a connection to this Api")
+        Integer connectTimeout,
+
+        @Min(1)
+        @Max(600_000)
+        @Schema(description = "the milliseconds to wait for a response of this Api")
+        Integer readTimeout,
+
+        Boolean circuitBreakerEnabled,
+
+        @Min(1)
+        @Max(1000)
+        @Schema(description = "the amount of last calls over which the failure ratio is computed, default 20")
+        Integer circuitBreakerRequestVolume,
+
+        @Min(1)
+        @Max(100)
+        @Schema(description = "the percentage of failed calls at which the circuit breaker opens, default 50")
+        Integer circuitBreakerFailureRatio,
+
+        @Min(1)
+        @Max(3600)
+        @Schema(description = "the seconds that the circuit breaker stays open, default 30")
+        Integer circuitBreakerDelay,
+
+        @Min(1)
+        @Max(100)
+        @Schema(description = "the amount of calls that are let through when the circuit breaker is half-open, default 1")
+        Integer circuitBreakerProbes,
+
+        @Min(1)
+        @Max(10_000)
+        @Schema(description = "max. amount of concurrent calls to this Api")
+        Integer maxConcurrentRequests,
+
         Boolean cachingEnabled,
 
         @Min(1)
@@ -50,6 +98,8 @@ public record ApiPOST(
         Integer cachingTTL,
 
         @Size(max = 255)
+        @Pattern(regexp = CachedPaths.SYNTAX, message = "Cached paths should be comma separated paths, optionally with GET|HEAD before and a TTL (1 - 3600) after them")
+        @Schema(description = "Ant-style paths relative to the proxy path, optionally with their methods and TTL in seconds", example = "/items/**, GET|HEAD /catalog/*/details 300")
         String cachedPaths,
 
         AuthenticationType authenticationType
@@ -64,6 +114,16 @@ public record ApiPOST(
         result.openApiUrl = this.openApiUrl;
         result.description = this.description;
         result.maxRequests = this.maxRequests;
+        result.rateLimitWindow = this.rateLimitWindow;
+        result.rateLimitBurst = this.rateLimitBurst;
+        result.connectTimeout = this.connectTimeout;
+        result.readTimeout = this.readTimeout;
+        result.circuitBreakerEnabled = this.circuitBreakerEnabled;
+        result.circuitBreakerRequestVolume = this.circuitBreakerRequestVolume;
+        result.circuitBreakerFailureRatio = this.circuitBreakerFailureRatio;
+        result.circuitBreakerDelay = this.circuitBreakerDelay;
+        result.circuitBreakerProbes = this.circuitBreakerProbes;
+        result.maxConcurrentRequests = this.maxConcurrentRequests;
         result.authenticationType = this.authenticationType;
         result.cachingEnabled = this.cachingEnabled;
         result.cachingTTL = this.cachingTTL;
@@ -7,6 +7,7 @@ import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 import nl.probot.apim.core.entities.AuthenticationType;
+import nl.probot.apim.core.utils.CachedPaths;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.hibernate.validator.constraints.URL;
 
@@ -37,8 +38,55 @@ public record ApiPUT(
 
         @Min(1)
         @Max(1_000_000)
-        @Schema(description = "max amount of requests per minute")
+        @Schema(description = "max amount of requests per window")
         Integer maxRequests,
+
+        @Min(1)
+        @Max(86_400)
+        @Schema(description = "the seconds in which max. requests are allowed, default 60")
+        Integer rateLimitWindow,
+
+        @Min(1)
+        @Max(1_000_000)
+        @Schema(description = "max. amount of requests at once, default max. requests")
+        Integer rateLimitBurst,
+
+        @Min(1)
+        @Max(60_000)
+        @Schema(description = "the milliseconds to wait for a connection to this Api")
+        Integer connectTimeout,
+
+        @Min(1)
+        @Max(600_000)
+        @Schema(description = "the milliseconds to wait for a response of this Api")
+        Integer readTimeout,
+
+        Boolean circuitBreakerEnabled,
+
+        @Min(1)
+        @Max(1000)
+        @Schema(description = "the amount of last calls over which the failure ratio is computed, default 20")
+        Integer circuitBreakerRequestVolume,
+
+        @Min(1)
+        @Max(100)
+        @Schema(description = "the percentage of failed calls at which the circuit breaker opens, default 50")
+        Integer circuitBreakerFailureRatio,
+
+        @Min(1)
+        @Max(3600)
+        @Schema(description = "the seconds that the circuit breaker stays open, default 30")
+        Integer circuitBreakerDelay,
+
+        @Min(1)
+        @Max(100)
+        @Schema(description = "the amount of calls that are let through when the circuit breaker is half-open, default 1")
+        Integer circuitBreakerProbes,
+
+        @Min(1)
+        @Max(10_000)
+        @Schema(description = "max. amount of concurrent calls to this Api")
+        Integer maxConcurrentRequests,
         Boolean enabled,
         Boolean cachingEnabled,
 
@@ -47,6 +95,8 @@ public record ApiPUT(
         Integer cachingTTL,
 
         @Size(max = 255)
+        @Pattern(regexp = CachedPaths.SYNTAX, message = "Cached paths should be comma separated paths, optionally with GET|HEAD before and a TTL (1 - 3600) after them")
+        @Schema(description = "Ant-style paths relative to the proxy path, optionally with their methods and TTL in seconds", example = "/items/**, GET|HEAD /catalog/*/details 300")
         String cachedPaths,
         AuthenticationType authenticationType
 ) {
@@ -60,6 +110,16 @@ public record ApiPUT(
                || this.description != null
                || this.openApiUrl != null
                || this.maxRequests != null
+               || this.rateLimitWindow != null
+               || this.rateLimitBurst != null
+               || this.connectTimeout != null
+               || this.readTimeout != null
+               || this.circuitBreakerEnabled != null
+               || this.circuitBreakerRequestVolume != null
+               || this.circuitBreakerFailureRatio != null
+               || this.circuitBreakerDelay != null
+               || this.circuitBreakerProbes != null
+               || this.maxConcurrentRequests != null
                || this.enabled != null
                || this.cachingEnabled != null
                || this.authenticationType != null;
@@ -0,0 +1,48 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.control.ActivateRequestContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Singleton;
+import nl.probot.apim.core.entities.AccessListEntity;
+
+import static jakarta.enterprise.event.TransactionPhase.AFTER_SUCCESS;
+
+/**
+ * Holds the access list in memory, so that the incoming requests can be checked without hitting the database.
+ * <p>
+ * The snapshot is loaded at startup and rebuilt as a whole after each change of the access list.
+ * The old snapshot keeps serving requests until the new one is swapped in.
+ */
+@Singleton
+public class AccessListManager {
+
+    volatile AccessListSnapshot snapshot = AccessListSnapshot.EMPTY;
+
+    void onStart(@Observes StartupEvent event) {
+        reload();
+    }
+
+    void onChange(@Observes(during = AFTER_SUCCESS) AccessListChanged event) {
+        Log.debugf("AccessList(ip=%s) changed, reloading access list", event.ip());
+        reload();
+    }
+
+    @ActivateRequestContext
+    public void reload() {
+        var entries = AccessListEntity.<AccessListEntity>listAll();
+        this.snapshot = AccessListSnapshot.of(entries);
+        Log.infof("Access list loaded with %d entries", this.snapshot.size());
+    }
+
+    public boolean hasAccess(String ip) {
+        return this.snapshot.hasAccess(ip);
+    }
+
+    /**
+     * Fired when an entry of the access list has been created, updated or deleted.
+     */
+    public record AccessListChanged(String ip) {
+    }
+}
@@ -0,0 +1,96 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.logging.Log;
+import nl.probot.apim.core.entities.AccessListEntity;
+
+import java.util.List;
+
+import static nl.probot.apim.core.utils.IpUtility.address;
+import static nl.probot.apim.core.utils.IpUtility.highBits;
+import static nl.probot.apim.core.utils.IpUtility.lowBits;
+import static nl.probot.apim.core.utils.IpUtility.prefixLength;
+
+/**
+ * An immutable, in-memory copy of the access list.
+ * <p>
+ * Exact ip addresses are kept in hash sets and CIDR ranges in prefix tries, where IPv4 is mapped onto IPv6, so that
+ * checking an ip address doesn't hit the database and doesn't allocate any objects.
+ * <p>
+ * The rules are:
+ * <ul>
+ *     <li>an exact match wins: blacklisted ip addresses are blocked, all others are allowed,</li>
+ *     <li>when there are whitelisted CIDR ranges, then only ip addresses within these ranges are allowed,</li>
+ *     <li>otherwise ip addresses within blacklisted CIDR ranges are blocked.</li>
+ * </ul>
+ */
+public final class AccessListSnapshot {
+
+    public static final AccessListSnapshot EMPTY = of(List.of());
+
+    private final IpHashSet allowed;
+    private final IpHashSet blocked;
+    private final IpPrefixTrie whitelist;
+    private final IpPrefixTrie blacklist;
+
+    private AccessListSnapshot(IpHashSet allowed, IpHashSet blocked, IpPrefixTrie whitelist, IpPrefixTrie blacklist) {
+        this.allowed = allowed;
+        this.blocked = blocked;
+        this.whitelist = whitelist;
+        this.blacklist = blacklist;
+    }
+
+    public static AccessListSnapshot of(List<AccessListEntity> entries) {
+        var allowed = new IpHashSet(entries.size());
+        var blocked = new IpHashSet(entries.size());
+        var whitelist = new IpPrefixTrie();
+        var blacklist = new IpPrefixTrie();
+
+        for (var entry : entries) {
+            try {
+                var ip = address(entry.ip);
+                var high = highBits(ip);
+                var low = lowBits(ip);
+                var isBlacklisted = Boolean.TRUE.equals(entry.blacklisted) && !Boolean.TRUE.equals(entry.whitelisted);
+
+                if (entry.ip.indexOf('/') == -1) {
+                    (isBlacklisted ? blocked : allowed).add(high, low);
+                } else if (Boolean.TRUE.equals(entry.whitelisted)) {
+                    whitelist.insert(high, low, prefixLength(entry.ip));
+                } else if (isBlacklisted) {
+                    blacklist.insert(high, low, prefixLength(entry.ip));
+                }
+            } catch (IllegalArgumentException e) {
+                Log.warnf("Skipping invalid AccessList(ip=%s): %s", entry.ip, e.getMessage());
+            }
+        }
+
+        return new AccessListSnapshot(allowed, blocked, whitelist.compact(), blacklist.compact());
+    }
+
+    /**
+     * @param ip an IPv4 or IPv6 address without a CIDR suffix.
+     * @throws IllegalArgumentException when the ip address is not valid.
+     */
+    public boolean hasAccess(String ip) {
+        var high = highBits(ip);
+        var low = lowBits(ip);
+
+        if (this.blocked.contains(high, low)) {
+            return false;
+        }
+
+        if (this.allowed.contains(high, low)) {
+            return true;
+        }
+
+        if (!this.whitelist.isEmpty()) {
+            return this.whitelist.matches(high, low);
+        }
+
+        return !this.blacklist.matches(high, low);
+    }
+
+    public int size() {
+        return this.allowed.size() + this.blocked.size() + this.whitelist.prefixes() + this.blacklist.prefixes();
+    }
+}
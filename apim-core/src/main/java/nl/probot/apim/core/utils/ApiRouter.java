@@ -0,0 +1,90 @@
+package nl.probot.apim.core.utils;
+
+import nl.probot.apim.core.entities.ApiEntity;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * An immutable routing table that maps request paths onto the enabled {@link ApiEntity}s of a subscription.
+ * <p>
+ * The proxy paths are stored in a trie of path segments, so a lookup walks the segments of the request path once and returns
+ * the Api with the longest matching proxy path, e.g. {@code /orders/v2/123} matches {@code /orders/v2} over {@code /orders},
+ * while {@code /orders-v2} never matches {@code /orders}.
+ */
+public final class ApiRouter {
+
+    private final Node root;
+
+    private ApiRouter(Node root) {
+        this.root = root;
+    }
+
+    public static ApiRouter of(Collection<ApiEntity> apis) {
+        var root = new Node();
+
+        for (var api : apis) {
+            if (!api.enabled) {
+                continue;
+            }
+
+            var node = root;
+            var start = 0;
+            var path = api.proxyPath;
+            while (start < path.length()) {
+                var end = segmentEnd(path, start);
+                if (end > start) {
+                    node = node.children.computeIfAbsent(path.substring(start, end), segment -> new Node());
+                }
+                start = end + 1;
+            }
+            node.api = api;
+        }
+
+        return new ApiRouter(root);
+    }
+
+    /**
+     * @param path the request path relative to the context root, it may contain a query string.
+     * @return the Api with the longest proxy path that matches the whole segments of the given path.
+     */
+    public Optional<ApiEntity> match(String path) {
+        var node = this.root;
+        var result = node.api;
+        var length = queryStart(path);
+        var start = 0;
+
+        while (start < length) {
+            var end = Math.min(segmentEnd(path, start), length);
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.api != null) {
+                    result = node.api;
+                }
+            }
+            start = end + 1;
+        }
+
+        return Optional.ofNullable(result);
+    }
+
+    private static int segmentEnd(String path, int start) {
+        var end = path.indexOf('/', start);
+        return end == -1 ? path.length() : end;
+    }
+
+    private static int queryStart(String path) {
+        var index = path.indexOf('?');
+        return index == -1 ? path.length() : index;
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>(4);
+        ApiEntity api;
+    }
+}
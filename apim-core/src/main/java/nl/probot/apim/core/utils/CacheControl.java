@@ -0,0 +1,70 @@
+package nl.probot.apim.core.utils;
+
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The directives of a {@code Cache-Control} header that matter to the response cache of the gateway, which is a shared cache.
+ *
+ * @param maxAge       the seconds that the response is fresh, or null when absent.
+ * @param sharedMaxAge the seconds that the response is fresh in a shared cache, it overrides {@code maxAge}, or null when absent.
+ */
+public record CacheControl(boolean noStore, boolean noCache, boolean isPrivate, Integer maxAge, Integer sharedMaxAge) {
+
+    public static final CacheControl EMPTY = new CacheControl(false, false, false, null, null);
+
+    public static CacheControl parse(String header) {
+        if (header == null || header.isBlank()) {
+            return EMPTY;
+        }
+
+        var noStore = false;
+        var noCache = false;
+        var isPrivate = false;
+        Integer maxAge = null;
+        Integer sharedMaxAge = null;
+
+        for (var directive : header.split(",")) {
+            var parts = directive.split("=", 2);
+            var name = parts[0].trim().toLowerCase(Locale.ROOT);
+            var value = parts.length > 1 ? parts[1].trim().replace("\"", "") : null;
+
+            switch (name) {
+                case "no-store" -> noStore = true;
+                case "no-cache" -> noCache = true;
+                case "private" -> isPrivate = true;
+                case "max-age" -> maxAge = seconds(value);
+                case "s-maxage" -> sharedMaxAge = seconds(value);
+                default -> {
+                }
+            }
+        }
+
+        return new CacheControl(noStore, noCache, isPrivate, maxAge, sharedMaxAge);
+    }
+
+    /**
+     * @return whether the response may be kept by a shared cache.
+     */
+    public boolean isStorable() {
+        return !this.noStore && !this.isPrivate;
+    }
+
+    /**
+     * @return the seconds that the response is fresh, a response without max-age is fresh as long as the cache decides.
+     */
+    public Optional<Integer> freshness() {
+        if (this.noCache) {
+            return Optional.of(0);
+        }
+        return Optional.ofNullable(this.sharedMaxAge != null ? this.sharedMaxAge : this.maxAge);
+    }
+
+    private static Integer seconds(String value) {
+        try {
+            return value != null ? Math.max(0, Integer.parseInt(value)) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
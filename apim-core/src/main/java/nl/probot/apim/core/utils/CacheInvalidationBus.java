@@ -0,0 +1,220 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.transaction.Transactional;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.commons.cache.UserChanged;
+import nl.probot.apim.core.entities.CacheVersionEntity;
+import nl.probot.apim.core.utils.AccessListManager.AccessListChanged;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import static jakarta.transaction.Transactional.TxType.MANDATORY;
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+
+/**
+ * Invalidates the cached data on all nodes of the cluster, with Postgres {@code NOTIFY} & {@code LISTEN}.
+ * <p>
+ * A change is published within the transaction that makes it, so the other nodes only receive it when it is committed.
+ * Each node also receives its own changes, which evicts the entries that were loaded between the local invalidation and the commit.
+ * <p>
+ * The changes of users are published as well, these invalidate the cached credentials of the user on each node by firing a received {@link UserChanged}.
+ * <p>
+ * Each change increments the version in the {@code cache_version} table and carries that version. When a node notices that it has
+ * missed a version, because its listen connection was lost or a version skipped, then it drops all of its cached data.
+ */
+@Singleton
+public class CacheInvalidationBus {
+
+    static final String CHANNEL = "apim_cache_invalidation";
+
+    @ConfigProperty(name = "apim.cache.bus.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Min(1)
+    @Max(3600)
+    @ConfigProperty(name = "apim.cache.bus.poll-interval", defaultValue = "30")
+    int pollInterval;
+
+    @Inject
+    DataSource dataSource;
+
+    @Inject
+    CacheManager cacheManager;
+
+    @Inject
+    AccessListManager accessListManager;
+
+    @Inject
+    CacheWarmer cacheWarmer;
+
+    @Inject
+    Event<UserChanged> userChanged;
+
+    volatile long version = -1;
+    private volatile boolean running;
+    private Thread listener;
+
+    void onStart(@Observes StartupEvent event) {
+        if (this.enabled) {
+            this.running = true;
+            this.listener = Thread.ofPlatform().name("apim-cache-bus").daemon().start(this::listen);
+        }
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        this.running = false;
+        if (this.listener != null) {
+            this.listener.interrupt();
+        }
+    }
+
+    @Transactional(MANDATORY)
+    public void subscriptionChanged(String subscriptionKey) {
+        this.cacheManager.invalidate(SUBSCRIPTIONS, subscriptionKey);
+        publish(Type.SUBSCRIPTION, subscriptionKey);
+    }
+
+    @Transactional(MANDATORY)
+    public void apiChanged(Long apiId) {
+        this.cacheManager.invalidateApi(apiId);
+        publish(Type.API, apiId.toString());
+    }
+
+    // the local access list is reloaded by the AccessListManager after the commit
+    void accessListChanged(@Observes AccessListChanged event) {
+        publish(Type.ACCESS_LIST, event.ip());
+    }
+
+    // the local credentials are invalidated by their cache after the commit
+    void userChanged(@Observes UserChanged event) {
+        if (!event.received()) {
+            publish(Type.USER, event.id());
+        }
+    }
+
+    private void publish(Type type, String value) {
+        if (this.enabled) {
+            var version = CacheVersionEntity.increment();
+            CacheVersionEntity.notifyListeners(CHANNEL, "%d:%s:%s".formatted(version, type, value));
+        }
+    }
+
+    void receive(String payload) {
+        var parts = payload.split(":", 3);
+        var version = Long.parseLong(parts[0]);
+        var value = parts[2];
+
+        if (version > this.version + 1 && this.version >= 0) {
+            invalidateAll("version %d was received after version %d".formatted(version, this.version));
+        } else {
+            switch (Type.valueOf(parts[1])) {
+                case SUBSCRIPTION -> this.cacheManager.invalidate(SUBSCRIPTIONS, value);
+                case API -> {
+                    this.cacheManager.invalidateApi(Long.valueOf(value));
+                    this.cacheWarmer.invalidated("a change of Api(id=%s)".formatted(value));
+                }
+                case ACCESS_LIST -> this.accessListManager.reload();
+                case USER -> this.userChanged.fire(new UserChanged(value, true));
+            }
+        }
+        this.version = Math.max(this.version, version);
+    }
+
+    void checkVersion(long current) {
+        if (this.version >= 0 && current != this.version) {
+            invalidateAll("version %d is current, but version %d was last received".formatted(current, this.version));
+        }
+        this.version = current;
+    }
+
+    private void invalidateAll(String reason) {
+        Log.warnf("Cache invalidations were missed, %s; clearing all cached data", reason);
+        this.cacheManager.clearAll();
+        this.accessListManager.reload();
+        this.userChanged.fire(new UserChanged(null, true));
+        this.cacheWarmer.invalidated("missed invalidations");
+    }
+
+    private void listen() {
+        while (this.running) {
+            try (var connection = this.dataSource.getConnection(); var statement = connection.createStatement()) {
+                connection.setAutoCommit(true);
+                statement.execute("LISTEN " + CHANNEL);
+                Log.infof("Listening for cache invalidations on channel %s", CHANNEL);
+                receiveNotifications(connection.unwrap(PGConnection.class), statement);
+            } catch (SQLException | RuntimeException e) {
+                if (this.running) {
+                    Log.warnf("Cache invalidation listener failed, retrying in %d seconds: %s", this.pollInterval, e.getMessage());
+                    sleep();
+                }
+            }
+        }
+    }
+
+    private void receiveNotifications(PGConnection connection, Statement statement) throws SQLException {
+        // anything that was published while this node was not listening
+        checkVersion(connection, statement);
+        var lastCheck = System.nanoTime();
+
+        while (this.running) {
+            receive(connection.getNotifications(1000));
+
+            if (System.nanoTime() - lastCheck > TimeUnit.SECONDS.toNanos(this.pollInterval)) {
+                // this also keeps the connection alive, so that a broken connection is noticed
+                checkVersion(connection, statement);
+                lastCheck = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * The notifications of the versions that were committed before the query are received together with its result,
+     * so they are handled first, before the versions are compared.
+     */
+    private void checkVersion(PGConnection connection, Statement statement) throws SQLException {
+        var current = 0L;
+        try (var result = statement.executeQuery("select version from cache_version where id = 1")) {
+            if (result.next()) {
+                current = result.getLong(1);
+            }
+        }
+
+        receive(connection.getNotifications());
+        checkVersion(current);
+    }
+
+    private void receive(PGNotification[] notifications) {
+        if (notifications != null) {
+            for (var notification : notifications) {
+                receive(notification.getParameter());
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(this.pollInterval));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.running = false;
+        }
+    }
+
+    enum Type {
+        SUBSCRIPTION, API, ACCESS_LIST, USER
+    }
+}
@@ -1,22 +1,67 @@
 package nl.probot.apim.core.utils;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
+import jakarta.ws.rs.WebApplicationException;
 import nl.probot.apim.core.entities.SubscriptionEntity;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static nl.probot.apim.core.utils.CacheRegion.RESPONSES;
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+import static nl.probot.apim.core.utils.CacheRegion.TOKENS;
 
 /**
- * A very basic cache implementation for the APIM.
+ * The cache of the APIM, split into {@link CacheRegion}s.
+ * <p>
+ * This prevents that the {@link SubscriptionEntity} is not looked up each time when forwarding requests to the downstream,
+ * and holds the cached responses and the downstream access tokens. Each region is bounded by its amount of entries or,
+ * for the responses, by their size in bytes. When a region is full, then the W-TinyLFU policy decides whether a new entry
+ * is admitted and which entry is evicted, so that a burst of one-off keys doesn't flush the frequently used ones.
  * <p>
- * This prevents that the {@link SubscriptionEntity} is not looked up each time when forwarding requests to the downstream.
+ * Entries expire after they were written, either after the keep time of the cache or after the ttl they were set with.
+ * Loading a missing entry happens once per key, the other callers wait for it up to {@code apim.cache.load-timeout} ms,
+ * see {@link #getAndSet(CacheRegion, String, Supplier)}.
+ * The entries that are derived from an Api are indexed by its id, so that a change of the Api only invalidates those entries.
+ * An entry is indexed after it is stored, when an Api was invalidated while the entry was loaded, then it is removed again,
+ * because it might have been derived from the old Api.
+ * The hits, misses & evictions per region are exported as the {@code cache_*} metrics with the region as {@code cache} tag.
  */
 @Singleton
 public class CacheManager {
@@ -31,55 +76,388 @@ public class CacheManager {
     @ConfigProperty(name = "apim.cache.max.keep.time", defaultValue = "300")
     int keepTime;
 
-    Map<String, TimedValue> cache = new ConcurrentHashMap<>(100);
+    @Min(1)
+    @Max(4096)
+    @ConfigProperty(name = "apim.cache.responses.max-size", defaultValue = "64")
+    int responsesMaxSize;
 
-    public <T> T getAndSet(String key, Supplier<T> supplier) {
-        var timedValue = this.cache.get(key);
-        if (timedValue == null) {
-            var result = supplier.get();
-            checkCacheSize();
+    @Min(1)
+    @Max(100)
+    @ConfigProperty(name = "apim.cache.responses.max-body-size", defaultValue = "5")
+    int responsesMaxBodySize;
 
-            this.cache.put(key, new TimedValue(result));
-            return result;
+    @Min(10)
+    @Max(10_000)
+    @ConfigProperty(name = "apim.cache.tokens.size", defaultValue = "500")
+    int tokensMaxAmount;
+
+    @Min(0)
+    @Max(3600)
+    @ConfigProperty(name = "apim.cache.stale-while-revalidate", defaultValue = "0")
+    int staleWhileRevalidate;
+
+    @Min(100)
+    @Max(600_000)
+    @ConfigProperty(name = "apim.cache.load-timeout", defaultValue = "10000")
+    int loadTimeout;
+
+    @Inject
+    MeterRegistry registry;
+
+    Ticker ticker = Ticker.systemTicker();
+    Executor refresher = Executors.newCachedThreadPool(Thread.ofPlatform().name("apim-cache-refresh-", 0).daemon().factory());
+    final Map<CacheRegion, Cache<String, Object>> regions = new EnumMap<>(CacheRegion.class);
+    final Map<LoadKey, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    final Map<LoadKey, Dependencies> dependencies = new ConcurrentHashMap<>();
+    final Map<Long, Set<LoadKey>> dependents = new ConcurrentHashMap<>();
+    final AtomicLong generation = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        this.regions.put(SUBSCRIPTIONS, build(SUBSCRIPTIONS, builder -> builder.maximumSize(this.maxAmount)));
+        this.regions.put(RESPONSES, build(RESPONSES, builder -> builder.maximumWeight(this.responsesMaxSize * 1024L * 1024L)
+                .weigher(CacheManager::weigh)
+                .removalListener(CacheManager::release)));
+        this.regions.put(TOKENS, build(TOKENS, builder -> builder.maximumSize(this.tokensMaxAmount)));
+    }
+
+    /**
+     * Returns the cached value or loads it with the supplier. Concurrent misses for the same key are coalesced,
+     * so the supplier runs once and the other callers wait for its result.
+     * <p>
+     * When stale-while-revalidate is enabled, a value is kept that long after its keep time and is still returned
+     * in that period, while the supplier refreshes it once in the background.
+     */
+    public <T> T getAndSet(CacheRegion region, String key, Supplier<T> supplier) {
+        return getAndSet(region, key, supplier, value -> List.of());
+    }
+
+    /**
+     * Same as {@link #getAndSet(CacheRegion, String, Supplier)}, for a value that is derived from the Apis with the given ids.
+     */
+    public <T> T getAndSet(CacheRegion region, String key, Supplier<T> supplier, Function<? super T, Collection<Long>> apiIds) {
+        var cache = region(region);
+        var value = cache.getIfPresent(key);
+        if (value == null) {
+            return load(region, key, supplier, apiIds);
         }
 
-        return (T) timedValue.value;
+        if (isStale(cache, key)) {
+            refresh(region, key, supplier, apiIds);
+        }
+        return (T) value;
     }
 
-    public Optional<TimedValue> get(String key) {
-        return Optional.ofNullable(this.cache.get(key));
+    public <T> Optional<T> get(CacheRegion region, String key) {
+        return Optional.ofNullable((T) region(region).getIfPresent(key));
     }
 
-    public void set(String key, Object value) {
-        checkCacheSize();
-        this.cache.put(key, new TimedValue(value));
+    public void set(CacheRegion region, String key, Object value) {
+        set(region, key, value, Duration.ofSeconds(this.keepTime));
     }
 
-    public void invalidate(String key) {
-        this.cache.remove(key);
+    /**
+     * Sets the value with its own time to live, unless it is too large to be admitted to the region.
+     *
+     * @return whether the value was set.
+     */
+    public boolean set(CacheRegion region, String key, Object value, Duration ttl) {
+        requireNonNull(value);
+
+        if (region == RESPONSES && weigh(key, value) > maxResponseBodySize()) {
+            Log.debugf("Value for key %s is too large for the %s cache", key, region.cacheName());
+            return false;
+        }
+
+        region(region).policy().expireVariably().orElseThrow().put(key, value, ttl);
+        return true;
+    }
+
+    public void set(CacheRegion region, String key, Object value, Collection<Long> apiIds, long generation) {
+        set(region, key, value, Duration.ofSeconds(this.keepTime), apiIds, generation);
+    }
+
+    /**
+     * Sets the value that is derived from the Apis with the given ids, together with its index.
+     *
+     * @param generation the {@link #generation()} from before the value was loaded.
+     * @return whether the value was set, it is removed again right away when an Api was invalidated in the meantime.
+     */
+    public boolean set(CacheRegion region, String key, Object value, Duration ttl, Collection<Long> apiIds, long generation) {
+        if (!set(region, key, value, ttl)) {
+            return false;
+        }
+        index(region, key, value, apiIds, generation);
+        return true;
+    }
+
+    /**
+     * @return the generation of the Api invalidations, which must be taken before loading a value that is derived from an Api.
+     */
+    public long generation() {
+        return this.generation.get();
+    }
+
+    /**
+     * @return the max. size in bytes of a single cached response.
+     */
+    public int maxResponseBodySize() {
+        return this.responsesMaxBodySize * 1024 * 1024;
+    }
+
+    /**
+     * Registers that the cached value of the key was derived from the given Apis, so that it is invalidated when one of them changes.
+     * The registration is removed together with the value.
+     */
+    void dependsOn(CacheRegion region, String key, Object value, Collection<Long> apiIds) {
+        var entry = new LoadKey(region, key);
+        var previous = this.dependencies.put(entry, new Dependencies(value, Set.copyOf(apiIds)));
+        if (previous != null) {
+            removeDependents(entry, previous);
+        }
+
+        apiIds.forEach(apiId -> this.dependents.compute(apiId, (id, entries) -> {
+            var result = entries != null ? entries : ConcurrentHashMap.<LoadKey>newKeySet();
+            result.add(entry);
+            return result;
+        }));
+    }
+
+    /**
+     * Invalidates the cached values that depend on the given Api, the other values are kept.
+     */
+    public void invalidateApi(Long apiId) {
+        this.generation.incrementAndGet();
+        var entries = this.dependents.remove(apiId);
+        if (entries != null) {
+            entries.forEach(entry -> invalidate(entry.region(), entry.key()));
+            Log.debugf("Invalidated %d cache entries of Api(id=%d)", entries.size(), apiId);
+        }
+    }
+
+    public void invalidate(CacheRegion region, String key) {
+        region(region).invalidate(key);
+        removeDependencies(new LoadKey(region, key), null);
     }
 
     public void clearAll() {
-        this.cache.clear();
+        this.generation.incrementAndGet();
+        this.regions.values().forEach(Cache::invalidateAll);
+        this.dependencies.clear();
+        this.dependents.clear();
+    }
+
+    @PreDestroy
+    void close() {
+        if (this.refresher instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+    }
+
+    long size(CacheRegion region) {
+        var cache = region(region);
+        cache.cleanUp();
+        return cache.estimatedSize();
+    }
+
+    private <T> T load(CacheRegion region, String key, Supplier<T> supplier, Function<? super T, Collection<Long>> apiIds) {
+        var loadKey = new LoadKey(region, key);
+        var future = new CompletableFuture<Object>();
+        var running = this.loading.putIfAbsent(loadKey, future);
+        if (running != null) {
+            return (T) await(running, region);
+        }
+
+        try {
+            // another caller may have finished loading between the cache miss and now
+            var result = region(region).getIfPresent(key);
+            if (result == null) {
+                var generation = generation();
+                var loaded = requireNonNull(supplier.get());
+                put(region, key, loaded);
+                index(region, key, loaded, apiIds.apply(loaded), generation);
+                result = loaded;
+            }
+            future.complete(result);
+            return (T) result;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loading.remove(loadKey, future);
+        }
+    }
+
+    private <T> void refresh(CacheRegion region, String key, Supplier<T> supplier, Function<? super T, Collection<Long>> apiIds) {
+        var loadKey = new LoadKey(region, key);
+        var future = new CompletableFuture<Object>();
+        if (this.loading.putIfAbsent(loadKey, future) != null) {
+            return;
+        }
+
+        try {
+            this.refresher.execute(() -> {
+                try {
+                    var generation = generation();
+                    var result = requireNonNull(supplier.get());
+                    put(region, key, result);
+                    index(region, key, result, apiIds.apply(result), generation);
+                    future.complete(result);
+                } catch (RuntimeException e) {
+                    // the next request loads it again and gets the error, instead of serving a value that might be revoked
+                    Log.debugf("Refreshing key %s of the %s cache failed: %s", key, region.cacheName(), e.getMessage());
+                    invalidate(region, key);
+                    future.completeExceptionally(e);
+                } finally {
+                    this.loading.remove(loadKey, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(loadKey, future);
+        }
+    }
+
+    private void put(CacheRegion region, String key, Object value) {
+        var ttl = Duration.ofSeconds(this.keepTime + this.staleWhileRevalidate);
+        region(region).policy().expireVariably().orElseThrow().put(key, value, ttl);
     }
 
-    private void checkCacheSize() {
-        var size = this.cache.size();
+    /**
+     * Indexes the stored value by its Apis, an Api that is invalidated from now on also invalidates the value.
+     * When one was invalidated since the given generation, then the value is removed again.
+     */
+    private void index(CacheRegion region, String key, Object value, Collection<Long> apiIds, long generation) {
+        if (apiIds.isEmpty()) {
+            return;
+        }
+
+        dependsOn(region, key, value, apiIds);
+        if (this.generation.get() != generation) {
+            Log.debugf("An Api was invalidated while key %s of the %s cache was loaded, it is not cached", key, region.cacheName());
+            invalidate(region, key);
+        }
+    }
+
+    private boolean isStale(Cache<String, Object> cache, String key) {
+        if (this.staleWhileRevalidate == 0) {
+            return false;
+        }
+
+        return cache.policy().expireVariably()
+                .flatMap(policy -> policy.getExpiresAfter(key))
+                .filter(remaining -> remaining.getSeconds() < this.staleWhileRevalidate)
+                .isPresent();
+    }
+
+    /**
+     * Waits for the load of another caller, but no longer than the load timeout, so that a hanging load doesn't block all requests for the key.
+     */
+    private Object await(CompletableFuture<Object> future, CacheRegion region) {
+        try {
+            return future.get(this.loadTimeout, MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            Log.warnf("Loading an entry of the %s cache took longer than %d ms", region.cacheName(), this.loadTimeout);
+            throw new WebApplicationException("The %s cache could not be loaded in time".formatted(region.cacheName()), 503);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException("Loading the %s cache was interrupted".formatted(region.cacheName()), 503);
+        }
+    }
 
-        if (size >= this.maxAmount) {
-            Log.debugf("Removing stale date from cache, size: %d", size);
-            this.cache.entrySet().removeIf(entry -> entry.getValue().isStale(this.keepTime));
+    /**
+     * Removes the dependencies of the entry, when a value is given then only if they were registered for that value,
+     * so that evicting an old value doesn't remove the dependencies of the value that replaced it.
+     */
+    private void removeDependencies(LoadKey entry, Object value) {
+        var current = this.dependencies.get(entry);
+        if (current != null && (value == null || current.value() == value) && this.dependencies.remove(entry, current)) {
+            removeDependents(entry, current);
         }
     }
 
-    public record TimedValue(Object value, long timestamp) {
+    private void removeDependents(LoadKey entry, Dependencies dependencies) {
+        dependencies.apiIds().forEach(apiId -> this.dependents.computeIfPresent(apiId, (id, entries) -> {
+            entries.remove(entry);
+            return entries.isEmpty() ? null : entries;
+        }));
+    }
+
+    private Cache<String, Object> region(CacheRegion region) {
+        return this.regions.get(region);
+    }
+
+    private Cache<String, Object> build(CacheRegion region, UnaryOperator<Caffeine<String, Object>> bounds) {
+        var cache = bounds.apply(Caffeine.newBuilder().expireAfter(new ExpireAfterWrite(Duration.ofSeconds(this.keepTime))))
+                .ticker(this.ticker)
+                .evictionListener((String key, Object value, RemovalCause cause) -> removeDependencies(new LoadKey(region, key), value))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(this.registry, cache, region.cacheName());
+        Gauge.builder("cache.weight", cache, CacheManager::weight)
+                .tag("cache", region.cacheName())
+                .description("The size of the entries in the cache, in bytes for the responses, otherwise in entries")
+                .register(this.registry);
+
+        return cache;
+    }
+
+    private static long weight(Cache<String, Object> cache) {
+        return cache.policy().eviction()
+                .map(Eviction::weightedSize)
+                .filter(OptionalLong::isPresent)
+                .map(OptionalLong::getAsLong)
+                .orElse(cache.estimatedSize());
+    }
+
+    private static int weigh(String key, Object value) {
+        var size = switch (value) {
+            case byte[] bytes -> bytes.length;
+            case String text -> text.length();
+            case CachedResponse response -> response.size();
+            default -> 1;
+        };
+        return key.length() + size;
+    }
+
+    /**
+     * Releases the body of a cached response when it leaves the cache, in any way, so that its off-heap memory is no longer counted.
+     */
+    private static void release(String key, Object value, RemovalCause cause) {
+        if (value instanceof CachedResponse response) {
+            response.body().release();
+        }
+    }
+
+    record LoadKey(CacheRegion region, String key) {
+    }
+
+    record Dependencies(Object value, Set<Long> apiIds) {
+    }
+
+    /**
+     * Expires the entries after the given time since they were created or updated, reading an entry doesn't extend its life.
+     */
+    record ExpireAfterWrite(Duration ttl) implements Expiry<String, Object> {
+
+        @Override
+        public long expireAfterCreate(String key, Object value, long currentTime) {
+            return this.ttl.toNanos();
+        }
 
-        public TimedValue(Object value) {
-            this(Objects.requireNonNull(value), System.currentTimeMillis());
+        @Override
+        public long expireAfterUpdate(String key, Object value, long currentTime, long currentDuration) {
+            return this.ttl.toNanos();
         }
 
-        public boolean isStale(int keepTime) {
-            return this.timestamp + keepTime < System.currentTimeMillis();
+        @Override
+        public long expireAfterRead(String key, Object value, long currentTime, long currentDuration) {
+            return currentDuration;
         }
     }
 }
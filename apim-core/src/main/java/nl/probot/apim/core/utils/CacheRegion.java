@@ -0,0 +1,26 @@
+package nl.probot.apim.core.utils;
+
+/**
+ * The regions of the {@link CacheManager}, each region is bounded and expires its entries independently of the others.
+ */
+public enum CacheRegion {
+
+    /**
+     * The active subscriptions with their Apis & credentials, by subscription key.
+     */
+    SUBSCRIPTIONS,
+
+    /**
+     * The responses of the cached Api paths with their status and headers, bounded by their size in bytes.
+     */
+    RESPONSES,
+
+    /**
+     * The access tokens of the client credentials authentication towards the downstream Apis.
+     */
+    TOKENS;
+
+    public String cacheName() {
+        return "apim-%s".formatted(name().toLowerCase());
+    }
+}
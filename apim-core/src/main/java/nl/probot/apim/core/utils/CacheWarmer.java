@@ -0,0 +1,366 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.control.ActivateRequestContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.transaction.Transactional;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.core.entities.CacheHotKeyEntity;
+import nl.probot.apim.core.entities.SubscriptionEntity;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+
+/**
+ * Warms up the caches at startup and after cached data was invalidated by the {@link CacheInvalidationBus}, so that the first requests
+ * after it don't all have to wait for the database or the Apis.
+ * <p>
+ * The gateway records the subscriptions that are used and, when {@code apim.cache.warm-up.paths} is set, the cached GET paths that are requested.
+ * They are written in batches to the {@code cache_hot_key} table, which only keeps the most recently used subscriptions and the most requested paths
+ * of the last day. Only the ids of the subscriptions are stored, their keys are read from the subscriptions themselves.
+ * <p>
+ * The warm-up loads these subscriptions into the cache in a few batched queries, and then requests each path once through the gateway,
+ * which stores the responses like it does for any other request. These requests carry the {@value #WARM_UP_HEADER} header with a token of this node,
+ * so that they are neither throttled nor recorded as used; they stop when the {@code apim.cache.warm-up.deadline} has passed.
+ * The readiness check reports {@code warming} until the subscriptions are loaded at startup, a later warm-up doesn't affect the readiness of the gateway.
+ */
+@Readiness
+@Singleton
+public class CacheWarmer implements HealthCheck {
+
+    static final int BATCH_SIZE = 100;
+    static final int MAX_PATH_LENGTH = 1000;
+    static final int MAX_HEADERS_LENGTH = 500;
+    static final Duration RETENTION = Duration.ofDays(1);
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    /**
+     * Marks the requests of the warm-up, the header is removed from the request before it is forwarded to the Api.
+     */
+    public static final String WARM_UP_HEADER = "X-APIM-Warm-Up";
+
+    @ConfigProperty(name = "apim.cache.warm-up.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @Min(0)
+    @Max(10_000)
+    @ConfigProperty(name = "apim.cache.warm-up.subscriptions", defaultValue = "100")
+    int subscriptions;
+
+    @Min(0)
+    @Max(1000)
+    @ConfigProperty(name = "apim.cache.warm-up.paths", defaultValue = "0")
+    int paths;
+
+    @ConfigProperty(name = "apim.cache.warm-up.gateway-url", defaultValue = "http://localhost:${quarkus.http.port:8080}")
+    String gatewayUrl;
+
+    @Min(1)
+    @Max(3600)
+    @ConfigProperty(name = "apim.cache.warm-up.flush-interval", defaultValue = "60")
+    int flushInterval;
+
+    @Min(1)
+    @Max(3600)
+    @ConfigProperty(name = "apim.cache.warm-up.deadline", defaultValue = "60")
+    int deadline;
+
+    @ConfigProperty(name = "apim.cache.responses.vary", defaultValue = "Accept,Accept-Language")
+    List<String> varyHeaders;
+
+    @Inject
+    CacheManager cacheManager;
+
+    final Set<Long> usedSubscriptions = ConcurrentHashMap.newKeySet();
+    final Map<HotPath, LongAdder> requestedPaths = new ConcurrentHashMap<>();
+    private final AtomicBoolean warmUpRequested = new AtomicBoolean();
+    final String token = newToken();
+    volatile boolean ready;
+    private ScheduledExecutorService executor;
+    HttpClient httpClient;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!this.enabled) {
+            this.ready = true;
+            return;
+        }
+
+        if (this.paths > 0) {
+            this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("apim-cache-warmer").daemon().factory());
+        this.executor.scheduleWithFixedDelay(this::flushSafely, this.flushInterval, this.flushInterval, SECONDS);
+        requestWarmUp("startup");
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+            flushSafely();
+        }
+    }
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("Cache warm-up")
+                .status(this.ready)
+                .withData("cache", this.ready ? "warm" : "warming")
+                .build();
+    }
+
+    /**
+     * @return whether the request was sent by the warm-up of this node, according to the value of its {@value #WARM_UP_HEADER} header.
+     */
+    public boolean isWarmUp(String token) {
+        return token != null && MessageDigest.isEqual(this.token.getBytes(UTF_8), token.getBytes(UTF_8));
+    }
+
+    /**
+     * Records that the subscription is used, at most the number of subscriptions that are warmed up are recorded per flush.
+     */
+    public void subscriptionUsed(Long subscriptionId) {
+        if (this.enabled && this.usedSubscriptions.size() < this.subscriptions) {
+            this.usedSubscriptions.add(subscriptionId);
+        }
+    }
+
+    /**
+     * Records that a cached GET path is requested, together with the values of the vary headers of the request.
+     *
+     * @param path    the request uri, including its query string.
+     * @param headers the request headers by name.
+     */
+    public void pathRequested(Long subscriptionId, String path, Function<String, String> headers) {
+        if (!this.enabled || this.paths == 0 || path.length() > MAX_PATH_LENGTH) {
+            return;
+        }
+
+        var hotPath = new HotPath(subscriptionId, path, headers(headers));
+        var hits = this.requestedPaths.get(hotPath);
+        if (hits == null) {
+            // only the paths that are requested most often are kept, so there is no need to track many more
+            if (hotPath.headers().length() > MAX_HEADERS_LENGTH || this.requestedPaths.size() >= this.paths * 10) {
+                return;
+            }
+            hits = this.requestedPaths.computeIfAbsent(hotPath, key -> new LongAdder());
+        }
+        hits.increment();
+    }
+
+    /**
+     * Warms up the caches again after cached data was invalidated, in the background.
+     */
+    public void invalidated(String reason) {
+        if (this.executor != null) {
+            requestWarmUp(reason);
+        }
+    }
+
+    /**
+     * Concurrent requests are coalesced into one warm-up, which runs after the one that is running.
+     */
+    private void requestWarmUp(String reason) {
+        if (this.warmUpRequested.compareAndSet(false, true)) {
+            this.executor.execute(() -> {
+                this.warmUpRequested.set(false);
+                warmUp(reason);
+            });
+        }
+    }
+
+    void warmUp(String reason) {
+        var start = System.nanoTime();
+        try {
+            var hotKeys = findHotKeys();
+            var subscriptionIds = new LinkedHashSet<Long>();
+            hotKeys.forEach(hotKey -> subscriptionIds.add(hotKey.subscriptionId));
+
+            var subscriptionKeys = warmUpSubscriptions(new ArrayList<>(subscriptionIds));
+            this.ready = true;
+            var prefetched = prefetch(hotKeys.stream().filter(hotKey -> !hotKey.path.isEmpty()).toList(), subscriptionKeys);
+            Log.infof("Cache warmed up after %s with %d subscriptions and %d paths in %d ms",
+                    reason, subscriptionKeys.size(), prefetched, Duration.ofNanos(System.nanoTime() - start).toMillis());
+        } catch (RuntimeException e) {
+            Log.warnf(e, "Cache warm-up after %s failed, the caches are filled by the requests instead", reason);
+        } finally {
+            this.ready = true;
+        }
+    }
+
+    @ActivateRequestContext
+    List<CacheHotKeyEntity> findHotKeys() {
+        var hotKeys = new ArrayList<>(CacheHotKeyEntity.recentSubscriptions(this.subscriptions));
+        hotKeys.addAll(CacheHotKeyEntity.topPaths(this.paths));
+        return hotKeys;
+    }
+
+    /**
+     * Caches the subscriptions that are not cached yet, in batches.
+     *
+     * @return the keys of the active subscriptions by their id.
+     */
+    private Map<Long, String> warmUpSubscriptions(List<Long> subscriptionIds) {
+        var subscriptionKeys = new HashMap<Long, String>();
+        for (var i = 0; i < subscriptionIds.size(); i += BATCH_SIZE) {
+            var batch = subscriptionIds.subList(i, Math.min(i + BATCH_SIZE, subscriptionIds.size()));
+            var generation = this.cacheManager.generation();
+            for (var subscription : loadSubscriptions(batch)) {
+                subscriptionKeys.put(subscription.id, subscription.subscriptionKey);
+                cache(subscription, generation);
+            }
+        }
+        return subscriptionKeys;
+    }
+
+    @ActivateRequestContext
+    List<SubscriptionEntity> loadSubscriptions(List<Long> subscriptionIds) {
+        return SubscriptionEntity.loadActiveByIds(subscriptionIds);
+    }
+
+    /**
+     * A subscription that was cached by a request in the meantime is kept, because it could be more recent.
+     *
+     * @param generation the generation of the Api invalidations from before the subscription was loaded.
+     */
+    void cache(SubscriptionEntity subscription, long generation) {
+        var key = subscription.subscriptionKey;
+        if (this.cacheManager.get(SUBSCRIPTIONS, key).isEmpty()) {
+            this.cacheManager.set(SUBSCRIPTIONS, key, subscription, subscription.apiIds(), generation);
+        }
+    }
+
+    /**
+     * Requests each path once through the gateway, with the subscription key and the vary headers it was requested with,
+     * until the deadline of the warm-up has passed.
+     *
+     * @return the number of paths that were answered successfully.
+     */
+    private int prefetch(List<CacheHotKeyEntity> hotPaths, Map<Long, String> subscriptionKeys) {
+        var requested = new HashSet<String>();
+        var prefetched = 0;
+        var deadline = System.nanoTime() + SECONDS.toNanos(this.deadline);
+
+        for (var hotPath : hotPaths) {
+            var subscriptionKey = subscriptionKeys.get(hotPath.subscriptionId);
+            if (subscriptionKey == null || !requested.add(hotPath.path + '\n' + hotPath.headers)) {
+                continue;
+            }
+
+            var remaining = Duration.ofNanos(deadline - System.nanoTime());
+            if (remaining.toMillis() <= 0) {
+                Log.infof("Cache warm-up stopped after its deadline of %d s, the remaining paths are cached by the requests instead", this.deadline);
+                break;
+            }
+
+            try {
+                var request = HttpRequest.newBuilder(URI.create(this.gatewayUrl + hotPath.path))
+                        .timeout(remaining.compareTo(REQUEST_TIMEOUT) < 0 ? remaining : REQUEST_TIMEOUT)
+                        .header("subscription-key", subscriptionKey)
+                        .header(WARM_UP_HEADER, this.token)
+                        .header("Accept-Encoding", "gzip");
+                hotPath.headers.lines().forEach(header -> {
+                    var separator = header.indexOf(':');
+                    request.header(header.substring(0, separator), header.substring(separator + 1).trim());
+                });
+
+                var status = this.httpClient.send(request.GET().build(), BodyHandlers.discarding()).statusCode();
+                Log.debugf("Prefetched %s: %d", hotPath.path, status);
+                if (status < 400) {
+                    prefetched++;
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                Log.debugf("Could not prefetch %s: %s", hotPath.path, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return prefetched;
+    }
+
+    @Transactional
+    public void flush() {
+        var now = OffsetDateTime.now();
+        var subscriptionIds = new ArrayList<>(this.usedSubscriptions);
+        this.usedSubscriptions.removeAll(subscriptionIds);
+        subscriptionIds.forEach(subscriptionId -> CacheHotKeyEntity.used(subscriptionId, "", "", 1, now));
+
+        var paths = new ArrayList<>(this.requestedPaths.keySet());
+        paths.forEach(path -> {
+            var hits = this.requestedPaths.remove(path);
+            if (hits != null) {
+                CacheHotKeyEntity.used(path.subscriptionId(), path.path(), path.headers(), hits.sum(), now);
+            }
+        });
+
+        if (!subscriptionIds.isEmpty() || !paths.isEmpty()) {
+            CacheHotKeyEntity.prune(this.subscriptions, this.paths, now.minus(RETENTION));
+            Log.debugf("Hot keys updated for %d subscriptions and %d paths", subscriptionIds.size(), paths.size());
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            Log.errorf(e, "Could not write the hot keys of the cache");
+        }
+    }
+
+    /**
+     * @return the values of the vary headers that were sent, one {@code name: value} per line.
+     */
+    String headers(Function<String, String> headers) {
+        var result = new StringBuilder();
+        for (var name : this.varyHeaders) {
+            var value = headers.apply(name);
+            if (value != null) {
+                result.append(result.isEmpty() ? "" : "\n").append(name).append(": ").append(value);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String newToken() {
+        var bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    record HotPath(Long subscriptionId, String path, String headers) {
+    }
+}
@@ -0,0 +1,71 @@
+package nl.probot.apim.core.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The body of a {@link CachedResponse}, either on the heap or off-heap in a buffer of the {@link ResponseBodyStore}.
+ * <p>
+ * A revalidated response shares the body of the stale one, so the body counts its references: each cached response holds one,
+ * which is released when it leaves the cache. When the last one is released, the off-heap body is no longer counted
+ * in the budget of the store. Its memory is freed by the GC, so that a body that is still being written to a client remains valid.
+ */
+public final class CachedBody {
+
+    private final ByteBuffer buffer;
+    private final AtomicLong budget;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    CachedBody(ByteBuffer buffer, AtomicLong budget) {
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.budget = budget;
+    }
+
+    public static CachedBody onHeap(byte[] body) {
+        return new CachedBody(ByteBuffer.wrap(body), null);
+    }
+
+    public int length() {
+        return this.buffer.remaining();
+    }
+
+    public boolean isOffHeap() {
+        return this.budget != null;
+    }
+
+    /**
+     * @return a read-only view of the body, without copying it.
+     */
+    public ByteBuffer buffer() {
+        return this.buffer.duplicate();
+    }
+
+    public byte[] bytes() {
+        var bytes = new byte[length()];
+        buffer().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Adds a reference for another cached response.
+     *
+     * @return false when the body already left the cache, then it must be stored again.
+     */
+    public boolean retain() {
+        int current;
+        do {
+            current = this.references.get();
+            if (current == 0) {
+                return false;
+            }
+        } while (!this.references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void release() {
+        if (this.references.decrementAndGet() == 0 && this.budget != null) {
+            this.budget.addAndGet(-length());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package nl.probot.apim.core.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+import static io.quarkus.runtime.util.StringUtil.isNullOrEmpty;
+
+/**
+ * The paths of an Api whose responses are cached, compiled once from its {@code cachedPaths}.
+ * <p>
+ * The cached paths are comma separated Ant-style patterns, relative to the proxy path of the Api. Each pattern is optionally preceded
+ * by its methods and followed by its TTL in seconds, e.g. {@code /items/**, GET|HEAD /catalog/*}{@code /details 300}:
+ * <ul>
+ *     <li>{@code ?} matches one character and {@code *} zero or more characters within a segment, {@code **} matches zero or more segments,</li>
+ *     <li>the methods are GET (default) and HEAD, a HEAD request is answered from the cached response of the GET request,</li>
+ *     <li>without a TTL, the caching TTL of the Api is used.</li>
+ * </ul>
+ * The patterns are stored in a trie of path segments, so a match walks the segments of the request path without allocating them.
+ * When several patterns match, then the first one in the list wins.
+ */
+public final class CachedPaths {
+
+    private static final String ENTRY = "((GET|HEAD)(\\|(GET|HEAD))*\\s+)?/[^\\s,]*(\\s+([1-9]\\d{0,2}|[1-2]\\d{3}|3[0-5]\\d{2}|3600))?";
+
+    /**
+     * The syntax of the cached paths, for validating them when an Api is saved.
+     */
+    public static final String SYNTAX = "^\\s*$|^\\s*" + ENTRY + "\\s*(,\\s*" + ENTRY + "\\s*)*$";
+
+    private static final Set<String> METHODS = Set.of("GET", "HEAD");
+    private static final String ANY_SEGMENTS = "**";
+
+    /**
+     * @param order the position of the pattern in the cached paths, the lowest one wins.
+     * @param ttl   the seconds that a response is cached, or null for the caching TTL of the Api.
+     */
+    public record Rule(int order, String pattern, Set<String> methods, Integer ttl) {
+
+        boolean allows(String method) {
+            return this.methods.contains(method);
+        }
+    }
+
+    /**
+     * Matches no path, for an Api whose cached paths are invalid.
+     */
+    public static final CachedPaths NONE = new CachedPaths(new Node());
+
+    private final Node root;
+
+    private CachedPaths(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @param cachedPaths the cached paths of an Api, when empty, then all GET requests are cached.
+     * @throws IllegalArgumentException when the cached paths are invalid.
+     */
+    public static CachedPaths compile(String cachedPaths) {
+        var root = new Node();
+        if (isNullOrEmpty(cachedPaths) || cachedPaths.isBlank()) {
+            add(root, new Rule(0, "/**", Set.of("GET"), null));
+            return new CachedPaths(root);
+        }
+
+        var order = 0;
+        for (var entry : cachedPaths.split(",")) {
+            if (!entry.isBlank()) {
+                add(root, parse(order++, entry.trim()));
+            }
+        }
+        return new CachedPaths(root);
+    }
+
+    /**
+     * @param method the method of the request.
+     * @param path   the request path, it may contain a query string.
+     * @param start  the index in the path where the path relative to the Api starts.
+     * @return the first pattern that matches the path and allows the method.
+     */
+    public Optional<Rule> match(String method, String path, int start) {
+        var end = path.indexOf('?', start);
+        return Optional.ofNullable(match(this.root, path, start, end == -1 ? path.length() : end, method, null));
+    }
+
+    private static Rule match(Node node, String path, int start, int end, String method, Rule best) {
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+
+        if (start >= end) {
+            for (var rule : node.rules) {
+                if (rule.allows(method) && (best == null || rule.order() < best.order())) {
+                    best = rule;
+                }
+            }
+        } else {
+            var segmentEnd = segmentEnd(path, start, end);
+            for (var child : node.children) {
+                if (child.matches(path, start, segmentEnd)) {
+                    best = match(child.node, path, segmentEnd, end, method, best);
+                }
+            }
+        }
+
+        // ** consumes zero or more segments
+        if (node.anySegments != null) {
+            var next = start;
+            while (true) {
+                best = match(node.anySegments, path, next, end, method, best);
+                if (next >= end) {
+                    break;
+                }
+                next = segmentEnd(path, next, end) + 1;
+            }
+        }
+
+        return best;
+    }
+
+    private static Rule parse(int order, String entry) {
+        var tokens = entry.split("\\s+");
+        var index = 0;
+        var methods = Set.of("GET");
+
+        if (!tokens[0].startsWith("/") && tokens[0].matches("[A-Za-z|]+") && tokens.length > 1) {
+            methods = Set.of(tokens[index++].toUpperCase(Locale.ROOT).split("\\|"));
+            if (!METHODS.containsAll(methods)) {
+                throw new IllegalArgumentException("Only GET and HEAD requests can be cached: %s".formatted(entry));
+            }
+        }
+
+        var pattern = tokens[index++];
+        if (!pattern.startsWith("/")) {
+            pattern = "/" + pattern;
+        }
+
+        Integer ttl = null;
+        if (index < tokens.length) {
+            try {
+                ttl = Integer.parseInt(tokens[index++]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("The TTL of a cached path must be a number: %s".formatted(entry));
+            }
+            if (ttl < 1 || ttl > 3600) {
+                throw new IllegalArgumentException("The TTL of a cached path must be between 1 and 3600: %s".formatted(entry));
+            }
+        }
+
+        if (index < tokens.length) {
+            throw new IllegalArgumentException("Invalid cached path: %s".formatted(entry));
+        }
+        return new Rule(order, pattern, methods, ttl);
+    }
+
+    private static void add(Node root, Rule rule) {
+        var node = root;
+        for (var segment : rule.pattern().split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+
+            if (segment.equals(ANY_SEGMENTS)) {
+                if (node.anySegments == null) {
+                    node.anySegments = new Node();
+                }
+                node = node.anySegments;
+            } else {
+                node = node.child(segment);
+            }
+        }
+        node.rules.add(rule);
+    }
+
+    private static int segmentEnd(String path, int start, int end) {
+        var index = path.indexOf('/', start);
+        return index == -1 || index > end ? end : index;
+    }
+
+    /**
+     * Matches a segment of the text with a glob, backtracking to the last {@code *} on a mismatch.
+     */
+    static boolean globMatches(String glob, String text, int start, int end) {
+        var g = 0;
+        var t = start;
+        var star = -1;
+        var starText = -1;
+
+        while (t < end) {
+            if (g < glob.length() && (glob.charAt(g) == '?' || glob.charAt(g) == text.charAt(t))) {
+                g++;
+                t++;
+            } else if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                starText = t;
+            } else if (star != -1) {
+                g = star + 1;
+                t = ++starText;
+            } else {
+                return false;
+            }
+        }
+
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    private static final class Node {
+        final List<Segment> children = new ArrayList<>(2);
+        final List<Rule> rules = new ArrayList<>(1);
+        Node anySegments;
+
+        Node child(String glob) {
+            for (var child : this.children) {
+                if (child.glob.equals(glob)) {
+                    return child.node;
+                }
+            }
+
+            var child = new Segment(glob, glob.indexOf('*') == -1 && glob.indexOf('?') == -1, new Node());
+            this.children.add(child);
+            return child.node;
+        }
+    }
+
+    private record Segment(String glob, boolean literal, Node node) {
+
+        boolean matches(String path, int start, int end) {
+            if (this.literal) {
+                return end - start == this.glob.length() && path.regionMatches(start, this.glob, 0, this.glob.length());
+            }
+            return globMatches(this.glob, path, start, end);
+        }
+    }
+}
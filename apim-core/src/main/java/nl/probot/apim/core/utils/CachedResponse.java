@@ -0,0 +1,90 @@
+package nl.probot.apim.core.utils;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A response of an Api in the {@link CacheRegion#RESPONSES} cache, with its status and the headers that describe its body.
+ * <p>
+ * A response is fresh until {@code expiresAt}. A stale response that has the ETag of the Api is kept a while longer,
+ * so that it can be revalidated with the Api instead of being downloaded again.
+ *
+ * @param headers   the representation headers of the response, like Content-Type and the ETag of the Api.
+ * @param body      the body, which is off-heap when it is large, see {@link ResponseBodyStore}.
+ * @param etag      the ETag that is sent to the clients, the one of the Api or one that was generated from the body.
+ * @param vary      the values of the request headers that the response varies on according to the Api, an absent header is empty.
+ * @param createdAt the epoch millis at which the response was received or revalidated.
+ * @param expiresAt the epoch millis at which the response becomes stale.
+ */
+public record CachedResponse(int status, Map<String, String> headers, CachedBody body, String etag, Map<String, String> vary,
+                             long createdAt, long expiresAt) {
+
+    public CachedResponse {
+        headers = Map.copyOf(headers);
+        vary = Map.copyOf(vary);
+    }
+
+    public boolean isFresh(long now) {
+        return now < this.expiresAt;
+    }
+
+    /**
+     * @return whether the Api would send another representation for a request with the given headers.
+     */
+    public boolean varies(UnaryOperator<String> requestHeaders) {
+        return this.vary.entrySet().stream().anyMatch(entry -> !entry.getValue().equals(Objects.requireNonNullElse(requestHeaders.apply(entry.getKey()), "")));
+    }
+
+    /**
+     * @return whether the response matches an {@code If-None-Match} header, with the weak comparison of ETags.
+     */
+    public boolean isNotModified(String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+
+        var etag = weak(this.etag);
+        for (var candidate : ifNoneMatch.split(",")) {
+            var tag = candidate.trim();
+            if (tag.equals("*") || weak(tag).equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param body the body of this response, that was retained for the revalidated one, or a copy of it.
+     */
+    public CachedResponse revalidated(CachedBody body, long now, long expiresAt) {
+        return new CachedResponse(this.status, this.headers, body, this.etag, this.vary, now, expiresAt);
+    }
+
+    /**
+     * @return the seconds since the response was received from the Api.
+     */
+    public long age(long now) {
+        return MILLISECONDS.toSeconds(Math.max(0, now - this.createdAt));
+    }
+
+    /**
+     * @return the size in bytes that the response takes on the heap, roughly; an off-heap body is counted by the {@link ResponseBodyStore}.
+     */
+    public int size() {
+        var size = (this.body.isOffHeap() ? 0 : this.body.length()) + this.etag.length();
+        for (var header : this.headers.entrySet()) {
+            size += header.getKey().length() + header.getValue().length();
+        }
+        for (var header : this.vary.entrySet()) {
+            size += header.getKey().length() + header.getValue().length();
+        }
+        return size;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,132 @@
+package nl.probot.apim.core.utils;
+
+import java.time.Duration;
+
+/**
+ * A circuit breaker over the last {@code requestVolume} results of the calls to a downstream Api.
+ * <p>
+ * When the ratio of failures within those results reaches {@code failureRatio}, the breaker opens and rejects all calls for {@code delay}.
+ * After that it is half-open and lets {@code probes} calls through: it closes when they all succeed, and opens again when one fails.
+ * <p>
+ * Each call gets a permit, which is the generation of the state in which it was acquired. A result of an older generation,
+ * e.g. of a slow call that was started before the breaker opened, is ignored.
+ */
+public final class CircuitBreaker {
+
+    public static final long REJECTED = -1;
+
+    private final Settings settings;
+    private final boolean[] failures;
+    private int index;
+    private int count;
+    private int failureCount;
+
+    private State state = State.CLOSED;
+    private long generation;
+    private long openedAt;
+    private int probes;
+    private int successes;
+
+    public CircuitBreaker(Settings settings) {
+        this.settings = settings;
+        this.failures = new boolean[settings.requestVolume()];
+    }
+
+    /**
+     * @return the permit of the call, or {@link #REJECTED} when the call is not allowed.
+     */
+    public synchronized long tryAcquire(long now) {
+        if (this.state == State.OPEN) {
+            if (now - this.openedAt < this.settings.delay().toNanos()) {
+                return REJECTED;
+            }
+            transition(State.HALF_OPEN, now);
+        }
+
+        if (this.state == State.HALF_OPEN) {
+            if (this.probes >= this.settings.probes()) {
+                return REJECTED;
+            }
+            this.probes++;
+        }
+        return this.generation;
+    }
+
+    public synchronized void onResult(long permit, boolean success, long now) {
+        if (permit != this.generation) {
+            return;
+        }
+
+        switch (this.state) {
+            case CLOSED -> record(!success, now);
+            case HALF_OPEN -> {
+                if (!success) {
+                    transition(State.OPEN, now);
+                } else if (++this.successes >= this.settings.probes()) {
+                    transition(State.CLOSED, now);
+                }
+            }
+            case OPEN -> {
+            }
+        }
+    }
+
+    public synchronized State state() {
+        return this.state;
+    }
+
+    public Settings settings() {
+        return this.settings;
+    }
+
+    private void record(boolean failure, long now) {
+        if (this.count == this.failures.length) {
+            if (this.failures[this.index]) {
+                this.failureCount--;
+            }
+        } else {
+            this.count++;
+        }
+
+        this.failures[this.index] = failure;
+        this.index = (this.index + 1) % this.failures.length;
+        if (failure) {
+            this.failureCount++;
+        }
+
+        if (this.count == this.failures.length && this.failureCount * 100 >= this.settings.failureRatio() * this.count) {
+            transition(State.OPEN, now);
+        }
+    }
+
+    private void transition(State state, long now) {
+        this.state = state;
+        this.generation++;
+        this.probes = 0;
+        this.successes = 0;
+
+        switch (state) {
+            case OPEN -> this.openedAt = now;
+            case CLOSED -> {
+                this.index = 0;
+                this.count = 0;
+                this.failureCount = 0;
+            }
+            case HALF_OPEN -> {
+            }
+        }
+    }
+
+    /**
+     * @param requestVolume the amount of last results over which the failure ratio is computed.
+     * @param failureRatio  the percentage of failures at which the breaker opens.
+     * @param delay         the time the breaker stays open.
+     * @param probes        the amount of calls that are let through when half-open.
+     */
+    public record Settings(int requestVolume, int failureRatio, Duration delay, int probes) {
+    }
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+}
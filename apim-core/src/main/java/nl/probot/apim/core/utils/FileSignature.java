@@ -0,0 +1,51 @@
+package nl.probot.apim.core.utils;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * The magic bytes at the start of the content of common file types, which are used for checking the declared content type of an upload.
+ * <p>
+ * A container format, like zip, is the base of many other file types, so its content type is not used for rejecting a file.
+ */
+enum FileSignature {
+
+    PNG("image/png", false, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A),
+    JPEG("image/jpeg", false, 0xFF, 0xD8, 0xFF),
+    GIF("image/gif", false, 'G', 'I', 'F', '8'),
+    PDF("application/pdf", false, '%', 'P', 'D', 'F', '-'),
+    ZIP("application/zip", true, 'P', 'K', 0x03, 0x04),
+    GZIP("application/gzip", true, 0x1F, 0x8B),
+    WINDOWS_EXECUTABLE("application/x-msdownload", false, 'M', 'Z'),
+    ELF_EXECUTABLE("application/x-executable", false, 0x7F, 'E', 'L', 'F');
+
+    /**
+     * The amount of bytes that is needed for detecting the file types.
+     */
+    static final int HEAD_SIZE = 16;
+
+    final String contentType;
+    final boolean container;
+    private final byte[] magic;
+
+    FileSignature(String contentType, boolean container, int... magic) {
+        this.contentType = contentType;
+        this.container = container;
+        this.magic = new byte[magic.length];
+        for (int i = 0; i < magic.length; i++) {
+            this.magic[i] = (byte) magic[i];
+        }
+    }
+
+    boolean matches(byte[] head) {
+        return head.length >= this.magic.length && Arrays.equals(head, 0, this.magic.length, this.magic, 0, this.magic.length);
+    }
+
+    static Optional<FileSignature> detect(byte[] head) {
+        return Arrays.stream(values()).filter(signature -> signature.matches(head)).findFirst();
+    }
+
+    static Optional<FileSignature> of(String contentType) {
+        return Arrays.stream(values()).filter(signature -> signature.contentType.equals(contentType)).findFirst();
+    }
+}
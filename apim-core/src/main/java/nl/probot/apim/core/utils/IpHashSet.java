@@ -0,0 +1,61 @@
+package nl.probot.apim.core.utils;
+
+/**
+ * An open addressing hash set for 128-bit ip addresses, stored as pairs of longs.
+ * <p>
+ * Like {@link IpPrefixTrie}, it must be fully built before it's shared between threads.
+ */
+final class IpHashSet {
+
+    private final long[] keys;
+    private final boolean[] used;
+    private final int mask;
+    private int size;
+
+    IpHashSet(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        this.keys = new long[capacity * 2];
+        this.used = new boolean[capacity];
+        this.mask = capacity - 1;
+    }
+
+    void add(long high, long low) {
+        var slot = slot(high, low);
+
+        while (this.used[slot]) {
+            if (this.keys[slot * 2] == high && this.keys[slot * 2 + 1] == low) {
+                return;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        this.used[slot] = true;
+        this.keys[slot * 2] = high;
+        this.keys[slot * 2 + 1] = low;
+        this.size++;
+    }
+
+    boolean contains(long high, long low) {
+        var slot = slot(high, low);
+
+        while (this.used[slot]) {
+            if (this.keys[slot * 2] == high && this.keys[slot * 2 + 1] == low) {
+                return true;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    private int slot(long high, long low) {
+        var hash = (high * 0x9E3779B97F4A7C15L) ^ low;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & this.mask;
+    }
+}
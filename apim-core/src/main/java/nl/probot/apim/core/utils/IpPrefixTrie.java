@@ -0,0 +1,108 @@
+package nl.probot.apim.core.utils;
+
+import java.util.Arrays;
+
+/**
+ * A binary prefix trie over the 128-bit IPv6 address space, used for matching CIDR ranges.
+ * <p>
+ * The nodes are stored in primitive arrays, so that a lookup walks at most 128 nodes without allocating any objects.
+ * The trie is not thread safe while it's being built, but it is safe to share once it has been built.
+ */
+final class IpPrefixTrie {
+
+    private static final int ROOT = 0;
+
+    private int[] zeros = new int[64];
+    private int[] ones = new int[64];
+    private boolean[] terminals = new boolean[64];
+    private int size = 1;
+    private int prefixes;
+
+    /**
+     * Adds the given prefix to the trie. Prefixes that are already covered by a shorter prefix are ignored.
+     *
+     * @param high         the upper 64 bits of the address.
+     * @param low          the lower 64 bits of the address.
+     * @param prefixLength the prefix length in the 128-bit space.
+     */
+    void insert(long high, long low, int prefixLength) {
+        var node = ROOT;
+
+        for (int depth = 0; depth < prefixLength; depth++) {
+            if (this.terminals[node]) {
+                return;
+            }
+
+            if (bit(high, low, depth) == 0) {
+                if (this.zeros[node] == 0) {
+                    // newNode() may grow the arrays, so it must be called before the array is dereferenced
+                    var child = newNode();
+                    this.zeros[node] = child;
+                }
+                node = this.zeros[node];
+            } else {
+                if (this.ones[node] == 0) {
+                    var child = newNode();
+                    this.ones[node] = child;
+                }
+                node = this.ones[node];
+            }
+        }
+
+        this.terminals[node] = true;
+        this.prefixes++;
+    }
+
+    /**
+     * @return true when the address falls into one of the prefixes of this trie.
+     */
+    boolean matches(long high, long low) {
+        var node = ROOT;
+
+        for (int depth = 0; depth < 128; depth++) {
+            if (this.terminals[node]) {
+                return true;
+            }
+
+            node = bit(high, low, depth) == 0 ? this.zeros[node] : this.ones[node];
+            if (node == ROOT) {
+                return false;
+            }
+        }
+        return this.terminals[node];
+    }
+
+    boolean isEmpty() {
+        return this.prefixes == 0;
+    }
+
+    int prefixes() {
+        return this.prefixes;
+    }
+
+    /**
+     * Shrinks the internal arrays after all prefixes have been added.
+     */
+    IpPrefixTrie compact() {
+        this.zeros = Arrays.copyOf(this.zeros, this.size);
+        this.ones = Arrays.copyOf(this.ones, this.size);
+        this.terminals = Arrays.copyOf(this.terminals, this.size);
+        return this;
+    }
+
+    private int newNode() {
+        if (this.size == this.zeros.length) {
+            var capacity = this.size * 2;
+            this.zeros = Arrays.copyOf(this.zeros, capacity);
+            this.ones = Arrays.copyOf(this.ones, capacity);
+            this.terminals = Arrays.copyOf(this.terminals, capacity);
+        }
+        return this.size++;
+    }
+
+    private static int bit(long high, long low, int depth) {
+        return depth < 64
+                ? (int) (high >>> (63 - depth)) & 1
+                : (int) (low >>> (127 - depth)) & 1;
+    }
+}
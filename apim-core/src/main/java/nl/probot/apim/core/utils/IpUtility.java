@@ -6,6 +6,7 @@ import java.net.UnknownHostException;
 
 public class IpUtility {
 
+    static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
     static final String IPV_4_REGEX = "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)(/[0-9]{1,2})?$";
 
     public static boolean isValidIPv4(String ip) {
@@ -43,84 +44,192 @@ public class IpUtility {
         }
     }
 
-    public static boolean isIPv4InRange(String ipToCheck, String subnet) throws UnknownHostException {
-        String[] parts = subnet.split("/");
-        String subnetIp = parts[0];
-        int prefixLength = Integer.parseInt(parts[1]);
+    /**
+     * Returns the upper 64 bits of the given ip address in the 128-bit IPv6 space.
+     * IPv4 addresses are mapped onto IPv6 (::ffff:a.b.c.d), so the upper bits of an IPv4 address are always 0.
+     *
+     * @param ip an IPv4 or IPv6 address without a CIDR suffix.
+     * @throws IllegalArgumentException when the ip address is not valid.
+     */
+    public static long highBits(String ip) {
+        return toBits(ip, true);
+    }
 
-        byte[] ipToCheckBytes = InetAddress.getByName(ipToCheck).getAddress();
-        byte[] subnetIpBytes = InetAddress.getByName(subnetIp).getAddress();
+    /**
+     * Returns the lower 64 bits of the given ip address in the 128-bit IPv6 space.
+     *
+     * @see IpUtility#highBits(String)
+     */
+    public static long lowBits(String ip) {
+        return toBits(ip, false);
+    }
 
-        // Calculate the subnet mask
-        byte[] subnetMask = new byte[subnetIpBytes.length];
-        for (int i = 0; i < subnetMask.length; i++) {
-            subnetMask[i] = (byte) (i < prefixLength / 8 ? 0xFF : 0x00);
-            if (i == prefixLength / 8 && (prefixLength % 8) != 0) {
-                subnetMask[i] = (byte) (0xFF << (8 - (prefixLength % 8)));
-            }
+    /**
+     * Returns the prefix length of the given CIDR in the 128-bit IPv6 space, so for IPv4 the prefix is shifted with 96 bits.
+     * When no CIDR suffix is present, then the full length is returned.
+     *
+     * @throws IllegalArgumentException when the prefix length is not valid.
+     */
+    public static int prefixLength(String cidr) {
+        var slash = cidr.indexOf('/');
+        var isIPv4 = cidr.indexOf(':') == -1;
+        var maxLength = isIPv4 ? 32 : 128;
+
+        if (slash == -1) {
+            return 128;
         }
 
-        // Apply the subnet mask to both the IP and the subnet
-        byte[] maskedIp = applyMask(ipToCheckBytes, subnetMask);
-        byte[] maskedSubnet = applyMask(subnetIpBytes, subnetMask);
+        try {
+            var length = Integer.parseInt(cidr.substring(slash + 1));
+            if (length < 0 || length > maxLength) {
+                throw new IllegalArgumentException("Invalid prefix length: %s".formatted(cidr));
+            }
+            return isIPv4 ? length + 96 : length;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid prefix length: %s".formatted(cidr), e);
+        }
+    }
 
-        return compareBytes(maskedIp, maskedSubnet) == 0;
+    /**
+     * @return the ip address part of the CIDR.
+     */
+    public static String address(String cidr) {
+        var slash = cidr.indexOf('/');
+        return slash == -1 ? cidr : cidr.substring(0, slash);
     }
 
-    public static boolean isIPv6InRange(String ipv6Address, String subnet) {
-        try {
-            // Parse the CIDR notation
-            String[] parts = subnet.split("/");
-            String networkAddress = parts[0];
-            int prefixLength = Integer.parseInt(parts[1]);
+    // parses the ip address without creating any intermediate objects, because this is used on each incoming request
+    private static long toBits(String ip, boolean high) {
+        var zone = ip.indexOf('%');
+        var end = zone == -1 ? ip.length() : zone;
 
-            // Convert IP addresses to byte arrays
-            InetAddress network = InetAddress.getByName(networkAddress);
-            InetAddress ip = InetAddress.getByName(ipv6Address);
+        if (ip.indexOf(':') == -1) {
+            return high ? 0 : IPV4_MAPPED_PREFIX | parseIPv4(ip, 0, end);
+        }
 
-            byte[] networkBytes = network.getAddress();
-            byte[] ipBytes = ip.getAddress();
+        // groups before the '::' are kept in (bHigh, bLow), the groups after it in (aHigh, aLow)
+        long bHigh = 0, bLow = 0, aHigh = 0, aLow = 0;
+        int before = 0, after = 0;
+        var compressed = false;
+        var i = 0;
 
-            // Compare the prefix bits
-            int bytePrefix = prefixLength / 8;
-            int bitPrefix = prefixLength % 8;
+        if (ip.startsWith("::")) {
+            compressed = true;
+            i = 2;
+        }
 
-            // Compare full bytes
-            for (int i = 0; i < bytePrefix; i++) {
-                if (networkBytes[i] != ipBytes[i]) {
-                    return false;
+        while (i < end) {
+            var groupEnd = i;
+            while (groupEnd < end && ip.charAt(groupEnd) != ':' && ip.charAt(groupEnd) != '.') {
+                groupEnd++;
+            }
+
+            long value;
+            int groups;
+            if (groupEnd < end && ip.charAt(groupEnd) == '.') {
+                // embedded IPv4 at the end, e.g. ::ffff:127.0.0.1
+                value = parseIPv4(ip, i, end);
+                groups = 2;
+                groupEnd = end;
+            } else {
+                value = parseHexGroup(ip, i, groupEnd);
+                groups = 1;
+            }
+
+            for (int g = groups - 1; g >= 0; g--) {
+                var group = (value >>> (16 * g)) & 0xFFFF;
+                if (compressed) {
+                    aHigh = (aHigh << 16) | (aLow >>> 48);
+                    aLow = (aLow << 16) | group;
+                    after++;
+                } else {
+                    bHigh = (bHigh << 16) | (bLow >>> 48);
+                    bLow = (bLow << 16) | group;
+                    before++;
                 }
             }
 
-            // Compare remaining bits
-            if (bitPrefix > 0) {
-                int mask = ~((1 << (8 - bitPrefix)) - 1);
-                return (networkBytes[bytePrefix] & mask) == (ipBytes[bytePrefix] & mask);
+            if (groupEnd >= end) {
+                break;
             }
 
-            return true;
-        } catch (Exception e) {
-            return false;
+            if (groupEnd + 1 < end && ip.charAt(groupEnd + 1) == ':') {
+                if (compressed) {
+                    throw new IllegalArgumentException("Invalid IPv6 address: %s".formatted(ip));
+                }
+                compressed = true;
+                i = groupEnd + 2;
+            } else if (groupEnd + 1 == end) {
+                throw new IllegalArgumentException("Invalid IPv6 address: %s".formatted(ip));
+            } else {
+                i = groupEnd + 1;
+            }
+        }
+
+        if (before + after > 8 || (!compressed && before != 8)) {
+            throw new IllegalArgumentException("Invalid IPv6 address: %s".formatted(ip));
         }
+
+        // shift the groups before '::' to the front, the zeros are implicitly added in between
+        var shift = 16 * (8 - before);
+        long resultHigh, resultLow;
+        if (shift == 0) {
+            resultHigh = bHigh;
+            resultLow = bLow;
+        } else if (shift >= 64) {
+            resultHigh = shift == 128 ? 0 : bLow << (shift - 64);
+            resultLow = 0;
+        } else {
+            resultHigh = (bHigh << shift) | (bLow >>> (64 - shift));
+            resultLow = bLow << shift;
+        }
+
+        return high ? resultHigh | aHigh : resultLow | aLow;
     }
 
-    private static byte[] applyMask(byte[] ip, byte[] mask) {
-        byte[] maskedIp = new byte[ip.length];
-        for (int i = 0; i < ip.length; i++) {
-            maskedIp[i] = (byte) (ip[i] & mask[i]);
+    private static long parseIPv4(String ip, int start, int end) {
+        long result = 0;
+        int octets = 0;
+        int value = -1;
+
+        for (int i = start; i < end; i++) {
+            var c = ip.charAt(i);
+            if (c == '.') {
+                if (value == -1 || ++octets > 3) {
+                    throw new IllegalArgumentException("Invalid IPv4 address: %s".formatted(ip));
+                }
+                result = (result << 8) | value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value == -1 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    throw new IllegalArgumentException("Invalid IPv4 address: %s".formatted(ip));
+                }
+            } else {
+                throw new IllegalArgumentException("Invalid IPv4 address: %s".formatted(ip));
+            }
         }
-        return maskedIp;
+
+        if (value == -1 || octets != 3) {
+            throw new IllegalArgumentException("Invalid IPv4 address: %s".formatted(ip));
+        }
+        return (result << 8) | value;
     }
 
-    private static int compareBytes(byte[] ip1, byte[] ip2) {
-        for (int i = 0; i < Math.min(ip1.length, ip2.length); i++) {
-            int byte1 = Byte.toUnsignedInt(ip1[i]);
-            int byte2 = Byte.toUnsignedInt(ip2[i]);
-            if (byte1 != byte2) {
-                return Integer.compare(byte1, byte2);
+    private static long parseHexGroup(String ip, int start, int end) {
+        if (end == start || end - start > 4) {
+            throw new IllegalArgumentException("Invalid IPv6 address: %s".formatted(ip));
+        }
+
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            var digit = Character.digit(ip.charAt(i), 16);
+            if (digit == -1) {
+                throw new IllegalArgumentException("Invalid IPv6 address: %s".formatted(ip));
             }
+            result = (result << 4) | digit;
         }
-        return 0;
+        return result;
     }
 
     private static boolean checkIPv6(String ipv6) {
@@ -0,0 +1,66 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.arc.lookup.LookupUnlessProperty;
+import jakarta.inject.Singleton;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the token buckets in memory, so each node of a cluster has its own buckets.
+ * <p>
+ * A bucket is a single {@code long}: the time at which it is full again (the theoretical arrival time of the generic cell rate algorithm).
+ * Taking a token moves that time one interval forward, which is allowed as long as it stays within {@code burst} intervals from now.
+ * So a request is a compare-and-set on that {@code long}, without locks or allocations.
+ */
+@Singleton
+@LookupUnlessProperty(name = "apim.rate-limit.store", stringValue = "postgres")
+public class LocalRateLimitStore implements RateLimitStore {
+
+    final Map<Key, AtomicLong> buckets = new ConcurrentHashMap<>();
+    final AtomicLong lastEviction = new AtomicLong(System.nanoTime());
+    LongSupplier clock = System::nanoTime;
+
+    @Override
+    public RateLimit acquire(Key key, Policy policy) {
+        var now = this.clock.getAsLong();
+        evictIdle(now);
+
+        var bucket = this.buckets.get(key);
+        if (bucket == null) {
+            bucket = this.buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+
+        var interval = policy.interval();
+        var capacity = policy.capacity();
+        while (true) {
+            var full = bucket.get();
+            var next = Math.max(full, now) + interval;
+
+            if (next - now > capacity) {
+                return new RateLimit(false, policy.limit(), 0, seconds(full - now), seconds(next - now - capacity));
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return new RateLimit(true, policy.limit(), (capacity - (next - now)) / interval, seconds(next - now), 0);
+            }
+        }
+    }
+
+    /**
+     * A request that takes a token from a bucket while it is removed, is not counted in the new bucket of that key.
+     * This only happens for a full bucket, so at most one extra request is allowed.
+     */
+    private void evictIdle(long now) {
+        var last = this.lastEviction.get();
+        if (now - last > EVICTION_INTERVAL && this.lastEviction.compareAndSet(last, now)) {
+            this.buckets.values().removeIf(bucket -> bucket.get() <= now);
+        }
+    }
+
+    private static long seconds(long nanos) {
+        return (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -1,59 +1,174 @@
 package nl.probot.apim.core.utils;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.configuration.MemorySize;
 import io.quarkus.vertx.web.RouteFilter;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.impl.RoutingContextInternal;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.utils.MultipartScanner.Part;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
+import static jakarta.ws.rs.core.MediaType.MULTIPART_FORM_DATA;
+import static jakarta.ws.rs.core.MediaType.TEXT_PLAIN;
 
+/**
+ * Validates the files in multipart requests: the declared content type must be allowed, and when the content starts
+ * with the magic bytes of a known file type, then that must match the declared type as well. The magic bytes of the other parts
+ * are checked as well, unless they are plain text.
+ * <p>
+ * With pass-through enabled, a multipart request to the gateway is not decoded, but forwarded to the Api byte for byte
+ * while it is received. The parts are validated on the event loop from the first chunk of their content, which doesn't block.
+ * The request is rejected with a 415 as soon as a part is invalid, and the remainder of the upload is discarded.
+ * Otherwise the uploads are validated by the gateway route, because reading the files that were decoded blocks.
+ * <p>
+ * The following metrics are registered:
+ * <ul>
+ *     <li>{@code apim_multipart_rejected}: the rejected files, per reason {@code content_type} or {@code signature},</li>
+ *     <li>{@code apim_multipart_rejected_bytes_saved}: the bytes of rejected uploads that were discarded instead of forwarded.</li>
+ * </ul>
+ */
 @ApplicationScoped
 public class MultipartContentTypeFilter {
 
-    @ConfigProperty(name = "quarkus.http.body.multipart.file-content-types")
-    List<String> allowedContentTypes;
+    @ConfigProperty(name = "apim.context-root")
+    String apimContextRoot;
+
+    @ConfigProperty(name = "apim.multipart.pass-through", defaultValue = "true")
+    boolean passThrough;
+
+    @ConfigProperty(name = "apim.multipart.file-content-types")
+    Optional<List<String>> allowedContentTypes;
+
+    @ConfigProperty(name = "quarkus.http.limits.max-body-size")
+    Optional<MemorySize> maxBodySize;
+
+    @Inject
+    MeterRegistry registry;
+
+    final Map<HttpServerRequest, RequestBodyStream> bodies = new ConcurrentHashMap<>();
 
     @RouteFilter(Priorities.USER + 1)
     public void filter(RoutingContext ctx) {
-        if (!isMultipartRequest(ctx)) {
+        if (this.passThrough && isGatewayRequest(ctx) && isMultipartRequest(ctx)) {
+            passThrough(ctx);
+        } else {
             ctx.next();
+        }
+    }
+
+    /**
+     * @return the body of a multipart request that is passed through, it can only be taken once.
+     */
+    public Optional<InputStream> passThroughBody(HttpServerRequest request) {
+        return Optional.ofNullable(this.bodies.remove(request));
+    }
+
+    /**
+     * Validates a file that was decoded, this reads the start of its content, so it must not be called on the event loop.
+     */
+    public void validate(String name, String filename, String contentType, InputStream content) {
+        try (content) {
+            validate(new Part(name, filename, contentType), content.readNBytes(FileSignature.HEAD_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void validate(Part part, byte[] head) {
+        if (!part.isFile() && TEXT_PLAIN.equals(part.contentType())) {
+            return;
+        }
+
+        if (part.isFile() && !isAllowed(part.contentType())) {
+            reject("content_type", "Unsupported media type %s of file %s".formatted(part.contentType(), part.filename()));
+        }
+
+        var detected = FileSignature.detect(head);
+        var declared = FileSignature.of(part.contentType());
+        if (declared.isPresent() && !declared.equals(detected)) {
+            reject("signature", "The content of %s is not of type %s".formatted(describe(part), part.contentType()));
+        }
+
+        detected.filter(signature -> !signature.container && !isAllowed(signature.contentType)).ifPresent(signature ->
+                reject("signature", "The content of %s is of the unsupported type %s".formatted(describe(part), signature.contentType)));
+    }
+
+    private static String describe(Part part) {
+        return part.isFile() ? "file " + part.filename() : "part " + part.name();
+    }
+
+    /**
+     * Takes over the body of the request, so that the body handler of the gateway route neither decodes it nor waits for it.
+     */
+    private void passThrough(RoutingContext ctx) {
+        var request = ctx.request();
+        var boundary = ctx.parsedHeaders().contentType().parameter("boundary");
+        if (boundary == null || boundary.isBlank()) {
+            sendJsonError(ctx, 400, "Multipart request without boundary", request.getHeader(CONTENT_TYPE));
             return;
         }
 
-        ctx.request().setExpectMultipart(true);
-        var hasError = new AtomicBoolean(false);
+        var body = new RequestBodyStream(request, this.maxBodySize.map(MemorySize::asLongValue).orElse(-1L));
+        var scanner = new MultipartScanner(boundary, this::validate);
+        this.bodies.put(request, body);
+        ctx.addEndHandler(result -> {
+            this.bodies.remove(request);
+            body.close();
+        });
 
-        ctx.request().uploadHandler(fileUpload -> {
-            var filePath = Path.of(fileUpload.filename());
+        request.handler(chunk -> {
             try {
-                var contentType = Files.probeContentType(filePath);
-                if (contentType == null || !allowedContentTypes.contains(contentType)) {
-                    sendJsonError(ctx, 415, "Unsupported media type detected", contentType);
-                    hasError.set(true);
-                }
-            } catch (IOException e) {
-                sendJsonError(ctx, 500, "Error processing file", e.getMessage());
-                hasError.set(true);
+                scanner.scan(chunk);
+                body.write(chunk);
+            } catch (WebApplicationException e) {
+                body.reject(e.getMessage(), e.getResponse().getStatus());
+                body.write(chunk);
             }
         });
+        request.endHandler(ignored -> {
+            body.end();
+            if (body.discarded() > 0) {
+                this.registry.counter("apim_multipart_rejected_bytes_saved").increment(body.discarded());
+            }
+        });
+        request.exceptionHandler(body::fail);
+        ((RoutingContextInternal) ctx).visitHandler(RoutingContextInternal.BODY_HANDLER);
+        request.resume();
+        ctx.next();
+    }
 
-        if (!hasError.get()) {
-            ctx.next();
-        }
+    private void reject(String reason, String message) {
+        this.registry.counter("apim_multipart_rejected", "reason", reason).increment();
+        throw new WebApplicationException(message, 415);
+    }
+
+    private boolean isAllowed(String contentType) {
+        return this.allowedContentTypes.map(allowed -> allowed.contains(contentType)).orElse(true);
+    }
+
+    private boolean isGatewayRequest(RoutingContext ctx) {
+        return ctx.normalizedPath().startsWith(this.apimContextRoot + "/");
     }
 
     private boolean isMultipartRequest(RoutingContext ctx) {
-        var contentType = ctx.request().getHeader(CONTENT_TYPE);
-        return contentType != null && contentType.startsWith("multipart/");
+        var contentType = ctx.parsedHeaders().contentType();
+        return contentType != null && MULTIPART_FORM_DATA.equalsIgnoreCase(contentType.value());
     }
 
     private void sendJsonError(RoutingContext ctx, int statusCode, String message, String details) {
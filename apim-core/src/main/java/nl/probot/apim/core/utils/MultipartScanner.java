@@ -0,0 +1,207 @@
+package nl.probot.apim.core.utils;
+
+import io.vertx.core.buffer.Buffer;
+import jakarta.ws.rs.WebApplicationException;
+
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Scans a multipart body while it is received, without decoding it. The headers and the first bytes of the content of each part
+ * are handed to the listener as soon as they are received, so that a part can be rejected before the rest of its content is received.
+ * <p>
+ * Only the bytes that may belong to a delimiter, to the headers or to the first bytes of a part are kept between the chunks.
+ */
+public class MultipartScanner {
+
+    static final int MAX_HEADERS_SIZE = 8 * 1024;
+    private static final byte[] CRLF = "\r\n".getBytes(ISO_8859_1);
+    private static final byte[] HEADERS_END = "\r\n\r\n".getBytes(ISO_8859_1);
+    private static final Pattern DISPOSITION_PARAM = Pattern.compile("(?i)\\b(name|filename\\*?)\\s*=\\s*(?:\"([^\"]*)\"|([^;\\s]*))");
+
+    private final byte[] delimiter;
+    private final BiConsumer<Part, byte[]> listener;
+    // the body is scanned as if it starts with a line break, so that the first delimiter is found like the others
+    private byte[] pending = CRLF;
+    private State state = State.CONTENT;
+    private Part part;
+
+    /**
+     * @param listener receives each part with at most {@link FileSignature#HEAD_SIZE} bytes of its content. When it rejects a part
+     *                 by throwing an exception, then the rest of the body is not scanned anymore.
+     */
+    public MultipartScanner(String boundary, BiConsumer<Part, byte[]> listener) {
+        this.delimiter = "\r\n--%s".formatted(boundary).getBytes(ISO_8859_1);
+        this.listener = listener;
+    }
+
+    public void scan(Buffer chunk) {
+        scan(chunk.getBytes());
+    }
+
+    public void scan(byte[] chunk) {
+        if (this.state == State.DONE) {
+            return;
+        }
+
+        try {
+            parse(concat(this.pending, chunk));
+        } catch (RuntimeException e) {
+            this.state = State.DONE;
+            this.pending = new byte[0];
+            throw e;
+        }
+    }
+
+    private void parse(byte[] data) {
+        var position = 0;
+
+        while (this.state != State.DONE) {
+            switch (this.state) {
+                case CONTENT -> {
+                    var index = indexOf(data, this.delimiter, position);
+                    if (index < 0) {
+                        // the end of the chunk may be the start of a delimiter
+                        position = Math.max(position, data.length - this.delimiter.length + 1);
+                        this.pending = Arrays.copyOfRange(data, position, data.length);
+                        return;
+                    }
+                    position = index + this.delimiter.length;
+                    this.state = State.DELIMITER;
+                }
+                case DELIMITER -> {
+                    if (data.length - position < 2) {
+                        this.pending = Arrays.copyOfRange(data, position, data.length);
+                        return;
+                    }
+                    this.state = data[position] == '-' && data[position + 1] == '-' ? State.DONE : State.HEADERS;
+                }
+                case HEADERS -> {
+                    var index = indexOf(data, HEADERS_END, position);
+                    if (index < 0 || index - position > MAX_HEADERS_SIZE) {
+                        if (data.length - position > MAX_HEADERS_SIZE) {
+                            throw new WebApplicationException("The headers of a multipart part exceed %d bytes".formatted(MAX_HEADERS_SIZE), 400);
+                        }
+                        this.pending = Arrays.copyOfRange(data, position, data.length);
+                        return;
+                    }
+                    this.part = Part.parse(new String(data, position, index - position, UTF_8));
+                    position = index + HEADERS_END.length;
+                    this.state = State.HEAD;
+                }
+                case HEAD -> {
+                    // the head ends before a delimiter, so it can only be taken when the delimiter can't be missed
+                    var index = indexOf(data, this.delimiter, position);
+                    if (index < 0 && data.length - position < FileSignature.HEAD_SIZE + this.delimiter.length) {
+                        this.pending = Arrays.copyOfRange(data, position, data.length);
+                        return;
+                    }
+                    var end = Math.min(index < 0 ? data.length : index, position + FileSignature.HEAD_SIZE);
+                    this.listener.accept(this.part, Arrays.copyOfRange(data, position, end));
+                    this.state = State.CONTENT;
+                }
+                default -> throw new IllegalStateException("Unexpected state " + this.state);
+            }
+        }
+        this.pending = new byte[0];
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+
+        var result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    static int indexOf(byte[] data, byte[] pattern, int from) {
+        var last = data.length - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (data[i] == pattern[0] && Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The headers of a part, without the content. A part without a Content-Type is plain text, unless it is a file,
+     * then it is {@code application/octet-stream}.
+     */
+    public record Part(String name, String filename, String contentType) {
+
+        public boolean isFile() {
+            return this.filename != null;
+        }
+
+        static Part parse(String headers) {
+            String name = null;
+            String filename = null;
+            String extendedFilename = null;
+            String contentType = null;
+
+            for (var line : headers.split("\r\n")) {
+                var separator = line.indexOf(':');
+                if (separator < 0) {
+                    continue;
+                }
+
+                var header = line.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+                var value = line.substring(separator + 1).trim();
+                switch (header) {
+                    case "content-disposition" -> {
+                        var matcher = DISPOSITION_PARAM.matcher(value);
+                        while (matcher.find()) {
+                            var param = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+                            switch (matcher.group(1).toLowerCase(Locale.ROOT)) {
+                                case "name" -> name = param;
+                                case "filename" -> filename = param;
+                                default -> extendedFilename = decode(param);
+                            }
+                        }
+                    }
+                    case "content-type" -> contentType = value.split(";", 2)[0].trim().toLowerCase(Locale.ROOT);
+                    default -> {
+                    }
+                }
+            }
+
+            // like a browser, the extended filename takes precedence over the plain one
+            filename = extendedFilename != null ? extendedFilename : filename;
+            if (contentType == null || contentType.isEmpty()) {
+                contentType = filename != null ? "application/octet-stream" : "text/plain";
+            }
+            return new Part(name, filename, contentType);
+        }
+
+        /**
+         * Decodes an extended parameter value of RFC 5987, e.g. {@code UTF-8''%e2%82%ac%20rates.pdf}. A value that can't be decoded
+         * is returned as it is, so that the part is still handled as a file.
+         */
+        static String decode(String value) {
+            var parts = value.split("'", 3);
+            if (parts.length < 3) {
+                return value;
+            }
+
+            try {
+                return URLDecoder.decode(parts[2].replace("+", "%2B"), Charset.forName(parts[0].trim()));
+            } catch (IllegalArgumentException e) {
+                return value;
+            }
+        }
+    }
+
+    private enum State {
+        CONTENT, DELIMITER, HEADERS, HEAD, DONE
+    }
+}
@@ -0,0 +1,102 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.arc.lookup.LookupIfProperty;
+import io.quarkus.narayana.jta.QuarkusTransaction;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import nl.probot.apim.core.entities.RateLimitEntity;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the token buckets between the nodes of the cluster, in the {@code rate_limit} table.
+ * <p>
+ * To not hit the database on each request, a node leases a batch of tokens from a bucket and hands them out locally.
+ * A lease is at most {@code apim.rate-limit.postgres.lease-size} percent of the limit, so all nodes together may at most
+ * exceed the limit by the tokens that are leased but not yet used. Unused tokens are returned when the lease expires.
+ * <p>
+ * When a bucket is empty, the node rejects the requests for that bucket locally until the next token is expected.
+ */
+@Singleton
+@LookupIfProperty(name = "apim.rate-limit.store", stringValue = "postgres")
+public class PostgresRateLimitStore implements RateLimitStore {
+
+    @Min(1)
+    @Max(100)
+    @ConfigProperty(name = "apim.rate-limit.postgres.lease-size", defaultValue = "5")
+    int leaseSize;
+
+    @Min(1)
+    @Max(60)
+    @ConfigProperty(name = "apim.rate-limit.postgres.lease-time", defaultValue = "1")
+    int leaseTime;
+
+    final Map<Key, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong lastEviction = new AtomicLong(System.nanoTime());
+
+    @Override
+    public RateLimit acquire(Key key, Policy policy) {
+        evictIdle();
+        var lease = this.leases.computeIfAbsent(key, k -> new Lease());
+
+        // requests of the same bucket wait for a renewal, so that only one of them takes tokens from the database,
+        // on a lock instead of a monitor, so that a virtual thread doesn't pin its carrier thread during the query
+        lease.lock.lock();
+        try {
+            var now = System.currentTimeMillis();
+            if (lease.tokens == 0 && lease.blockedUntil > now) {
+                return RateLimit.of(false, policy, lease.available);
+            }
+            if (lease.tokens == 0 || lease.expiresAt <= now) {
+                renew(lease, key, policy, now);
+            }
+
+            var allowed = lease.tokens > 0;
+            if (allowed) {
+                lease.tokens--;
+            }
+            return RateLimit.of(allowed, policy, lease.tokens + lease.available);
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private void renew(Lease lease, Key key, Policy policy, long now) {
+        var amount = Math.max(1, policy.limit() * this.leaseSize / 100);
+        var returned = lease.tokens;
+        var taken = QuarkusTransaction.requiringNew()
+                .call(() -> RateLimitEntity.take(key.toString(), policy.burst(), policy.tokensPerSecond(), amount, returned, now));
+
+        lease.tokens = taken.granted();
+        lease.available = taken.available();
+        lease.expiresAt = now + Duration.ofSeconds(this.leaseTime).toMillis();
+        lease.blockedUntil = taken.granted() == 0 ? now + (long) Math.ceil((1 - taken.available()) * 1000 / policy.tokensPerSecond()) : 0;
+    }
+
+    /**
+     * The unused tokens of an evicted lease are not returned, so that bucket allows fewer requests until it is refilled.
+     */
+    private void evictIdle() {
+        var last = this.lastEviction.get();
+        var nanos = System.nanoTime();
+        if (nanos - last > EVICTION_INTERVAL && this.lastEviction.compareAndSet(last, nanos)) {
+            var now = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(EVICTION_INTERVAL);
+            this.leases.values().removeIf(lease -> lease.expiresAt < now && lease.blockedUntil < now);
+        }
+    }
+
+    static final class Lease {
+        final ReentrantLock lock = new ReentrantLock();
+        int tokens;
+        double available;
+        long expiresAt;
+        long blockedUntil;
+    }
+}
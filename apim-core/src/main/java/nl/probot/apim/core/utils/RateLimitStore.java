@@ -0,0 +1,71 @@
+package nl.probot.apim.core.utils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the token buckets of the rate limits, there is one bucket per subscription & Api. A bucket holds at most
+ * {@code burst} tokens and is refilled with {@code limit} tokens per window. A request takes one token,
+ * and is rejected when the bucket is empty.
+ * <p>
+ * The store is chosen with {@code apim.rate-limit.store}: {@code local} keeps the buckets in memory of each node,
+ * {@code postgres} shares them between the nodes of a cluster.
+ */
+public interface RateLimitStore {
+
+    /**
+     * The buckets that are full are the same as new ones, so they are removed after this interval.
+     */
+    long EVICTION_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    RateLimit acquire(Key key, Policy policy);
+
+    record Key(long subscriptionId, long apiId) {
+
+        @Override
+        public String toString() {
+            return "%d:%d".formatted(this.subscriptionId, this.apiId);
+        }
+    }
+
+    /**
+     * @param limit  the tokens that are added per window.
+     * @param burst  the max. tokens of a bucket, which is the max. amount of requests at once.
+     * @param window the time in which the bucket is refilled with {@code limit} tokens.
+     */
+    record Policy(int limit, int burst, Duration window) {
+
+        /**
+         * The nanos in which one token is added.
+         */
+        public long interval() {
+            return this.window.toNanos() / this.limit;
+        }
+
+        /**
+         * The nanos in which an empty bucket is refilled completely, it is capped so that it can't overflow.
+         */
+        public long capacity() {
+            return Math.min(interval(), Long.MAX_VALUE / 4 / this.burst) * this.burst;
+        }
+
+        public double tokensPerSecond() {
+            return this.limit * 1000.0 / this.window.toMillis();
+        }
+    }
+
+    /**
+     * @param remaining  the tokens that are left in the bucket.
+     * @param reset      the seconds until the bucket is full again.
+     * @param retryAfter the seconds until a rejected request can be retried, 0 when it was allowed.
+     */
+    record RateLimit(boolean allowed, int limit, long remaining, long reset, long retryAfter) {
+
+        public static RateLimit of(boolean allowed, Policy policy, double tokens) {
+            var tokensPerSecond = policy.tokensPerSecond();
+            var reset = (long) Math.ceil((policy.burst() - tokens) / tokensPerSecond);
+            var retryAfter = allowed ? 0 : (long) Math.ceil((1 - tokens) / tokensPerSecond);
+            return new RateLimit(allowed, policy.limit(), (long) Math.floor(tokens), Math.max(0, reset), retryAfter);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package nl.probot.apim.core.utils;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import jakarta.ws.rs.WebApplicationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The body of a request that is forwarded while it is being received. The event loop writes the chunks of the request,
+ * which are read by the thread that sends them to the Api.
+ * <p>
+ * The request is paused when more than {@link #HIGH_WATER_MARK} bytes are waiting to be read, and resumed when most of them
+ * have been read. When the stream is closed or failed, the remainder of the request is received, but discarded.
+ * <p>
+ * The reader waits on a lock instead of a monitor, so that a virtual thread that reads the body doesn't pin its carrier thread.
+ */
+public class RequestBodyStream extends InputStream {
+
+    static final int HIGH_WATER_MARK = 256 * 1024;
+    static final int LOW_WATER_MARK = 64 * 1024;
+
+    private final ReadStream<Buffer> source;
+    private final long maxSize;
+    private final Deque<Buffer> chunks = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = this.lock.newCondition();
+    private int position;
+    private long queued;
+    private long received;
+    private long discarded;
+    private boolean paused;
+    private boolean ended;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param maxSize the max. size of the body in bytes, or -1 when it is unlimited.
+     */
+    public RequestBodyStream(ReadStream<Buffer> source, long maxSize) {
+        this.source = source;
+        this.maxSize = maxSize;
+    }
+
+    public void write(Buffer chunk) {
+        var pause = false;
+        var tooLarge = false;
+        this.lock.lock();
+        try {
+            if (this.closed || this.failure != null) {
+                this.discarded += this.failure != null ? chunk.length() : 0;
+                return;
+            }
+
+            this.received += chunk.length();
+            tooLarge = this.maxSize >= 0 && this.received > this.maxSize;
+            if (!tooLarge) {
+                this.chunks.add(chunk);
+                this.queued += chunk.length();
+                if (this.queued >= HIGH_WATER_MARK && !this.paused) {
+                    this.paused = pause = true;
+                }
+                this.changed.signalAll();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (pause) {
+            this.source.pause();
+        } else if (tooLarge) {
+            reject("The request body exceeds the max. size of %d bytes".formatted(this.maxSize), 413);
+        }
+    }
+
+    public void end() {
+        this.lock.lock();
+        try {
+            this.ended = true;
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Fails the reader with an error that is returned to the client with the given status.
+     */
+    public void reject(String message, int status) {
+        fail(new WebApplicationException(message, status));
+    }
+
+    public void fail(Throwable cause) {
+        this.lock.lock();
+        try {
+            if (this.failure != null || this.closed) {
+                return;
+            }
+            this.failure = new ClientFailure(cause.getMessage(), cause);
+        } finally {
+            this.lock.unlock();
+        }
+        discard();
+    }
+
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        } finally {
+            this.lock.unlock();
+        }
+        discard();
+    }
+
+    @Override
+    public int read() throws IOException {
+        var single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        if (length == 0) {
+            return 0;
+        }
+
+        var resume = false;
+        int read;
+        this.lock.lock();
+        try {
+            while (this.chunks.isEmpty() && !this.ended && this.failure == null && !this.closed) {
+                try {
+                    this.changed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the request body");
+                }
+            }
+
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            if (this.closed) {
+                throw new ClientFailure("The request body stream is closed", null);
+            }
+            if (this.chunks.isEmpty()) {
+                return -1;
+            }
+
+            var chunk = this.chunks.peek();
+            read = Math.min(length, chunk.length() - this.position);
+            chunk.getBytes(this.position, this.position + read, bytes, offset);
+            this.position += read;
+            if (this.position == chunk.length()) {
+                this.chunks.poll();
+                this.position = 0;
+            }
+
+            this.queued -= read;
+            if (this.paused && this.queued <= LOW_WATER_MARK) {
+                this.paused = false;
+                resume = true;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (resume) {
+            this.source.resume();
+        }
+        return read;
+    }
+
+    /**
+     * @return the amount of bytes that were received after the stream failed.
+     */
+    public long discarded() {
+        this.lock.lock();
+        try {
+            return this.discarded;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int available() {
+        this.lock.lock();
+        try {
+            return (int) Math.min(this.queued, Integer.MAX_VALUE);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void discard() {
+        var resume = false;
+        this.lock.lock();
+        try {
+            this.chunks.clear();
+            this.position = 0;
+            this.queued = 0;
+            if (this.paused) {
+                this.paused = false;
+                resume = true;
+            }
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (resume) {
+            this.source.resume();
+        }
+    }
+
+    /**
+     * The body couldn't be read because of the client: it was rejected by the gateway, or the client aborted the request.
+     * This is not a failure of the Api that the body is sent to.
+     */
+    public static final class ClientFailure extends IOException {
+
+        ClientFailure(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
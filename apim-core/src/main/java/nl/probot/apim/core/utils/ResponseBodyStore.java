@@ -0,0 +1,140 @@
+package nl.probot.apim.core.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stores the bodies of the cached responses: the small ones on the heap and the large ones off-heap, so that they don't add
+ * to the GC pauses of the gateway. An off-heap body is kept in a direct buffer, or when {@code apim.cache.responses.off-heap.mapped}
+ * is enabled, in a memory-mapped file on local disk, which is backed by the page cache of the OS instead of the memory of the JVM.
+ * <p>
+ * The off-heap bodies are bounded by {@code apim.cache.responses.off-heap.max-size}, when it is reached, then the bodies are kept on the heap,
+ * where the responses cache is bounded by its own max. size. Note: direct buffers are also bounded by {@code -XX:MaxDirectMemorySize},
+ * which defaults to the max. heap size.
+ * <p>
+ * The following metric is registered:
+ * <ul>
+ *     <li>{@code apim_response_cache_off_heap}: the size in bytes of the off-heap bodies in the cache.</li>
+ * </ul>
+ */
+@Singleton
+public class ResponseBodyStore {
+
+    @Min(0)
+    @Max(65_536)
+    @ConfigProperty(name = "apim.cache.responses.off-heap.max-size", defaultValue = "0")
+    int maxSize;
+
+    @Min(1)
+    @Max(102_400)
+    @ConfigProperty(name = "apim.cache.responses.off-heap.threshold", defaultValue = "64")
+    int threshold;
+
+    @ConfigProperty(name = "apim.cache.responses.off-heap.mapped", defaultValue = "false")
+    boolean mapped;
+
+    @ConfigProperty(name = "apim.cache.responses.off-heap.directory")
+    Optional<Path> directory;
+
+    @Inject
+    MeterRegistry registry;
+
+    final AtomicLong used = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("apim_response_cache_off_heap", this.used, AtomicLong::get)
+                .description("The size in bytes of the off-heap bodies in the response cache")
+                .baseUnit("bytes")
+                .register(this.registry);
+
+        if (this.maxSize > 0 && this.mapped) {
+            try {
+                Files.createDirectories(mappedDirectory());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * @return the body on the heap when it is small or when the off-heap budget is used up, otherwise off-heap.
+     */
+    public CachedBody store(ByteBuffer body) {
+        var length = body.remaining();
+        if (this.maxSize == 0 || length < this.threshold * 1024L || !reserve(length)) {
+            return onHeap(body);
+        }
+
+        try {
+            var buffer = this.mapped ? map(body.duplicate(), length) : ByteBuffer.allocateDirect(length).put(body.duplicate()).flip();
+            return new CachedBody(buffer, this.used);
+        } catch (IOException | OutOfMemoryError e) {
+            // an OutOfMemoryError is thrown when the direct memory of the JVM is used up, the heap isn't affected by it
+            this.used.addAndGet(-length);
+            Log.warnf("Response of %d bytes is kept on the heap, it could not be stored off-heap: %s", length, e.getMessage());
+            return onHeap(body);
+        }
+    }
+
+    private boolean reserve(int length) {
+        var budget = this.maxSize * 1024L * 1024L;
+        long current;
+        do {
+            current = this.used.get();
+            if (current + length > budget) {
+                Log.debugf("Response of %d bytes is kept on the heap, the off-heap cache is full", length);
+                return false;
+            }
+        } while (!this.used.compareAndSet(current, current + length));
+        return true;
+    }
+
+    /**
+     * The file is deleted when it is closed, its mapping remains valid until the buffer is garbage collected.
+     */
+    private ByteBuffer map(ByteBuffer body, int length) throws IOException {
+        var file = Files.createTempFile(mappedDirectory(), "response-", ".body");
+        try (var channel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE)) {
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+            return channel.map(READ_ONLY, 0, length);
+        }
+    }
+
+    private Path mappedDirectory() {
+        return this.directory.orElseGet(() -> Path.of(System.getProperty("java.io.tmpdir"), "apim-responses"));
+    }
+
+    private static CachedBody onHeap(ByteBuffer body) {
+        if (body.hasArray() && body.arrayOffset() == 0 && body.position() == 0 && body.remaining() == body.array().length) {
+            return CachedBody.onHeap(body.array());
+        }
+
+        var bytes = new byte[body.remaining()];
+        body.duplicate().get(bytes);
+        return CachedBody.onHeap(bytes);
+    }
+}
@@ -0,0 +1,71 @@
+package nl.probot.apim.core.camel;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.apache.camel.Exchange.CONTENT_LENGTH;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CamelUtilsTest {
+
+    DefaultCamelContext context = new DefaultCamelContext();
+
+    @AfterEach
+    void close() throws Exception {
+        this.context.close();
+    }
+
+    @Test
+    void readCacheableBody() {
+        var exchange = exchange(new ByteArrayInputStream("hello".getBytes()));
+
+        assertThat(CamelUtils.readCacheableBody(exchange, 5)).isEqualTo("hello".getBytes());
+        assertThat(exchange.getIn().getBody()).isEqualTo("hello".getBytes());
+    }
+
+    @Test
+    void readCacheableBodyTooLarge() throws Exception {
+        var exchange = exchange(new ByteArrayInputStream("hello world".getBytes()));
+
+        assertThat(CamelUtils.readCacheableBody(exchange, 5)).isNull();
+
+        // the bytes that were read are still sent to the client
+        var body = exchange.getIn().getBody(InputStream.class);
+        assertThat(body.readAllBytes()).isEqualTo("hello world".getBytes());
+    }
+
+    @Test
+    void readCacheableBodyContentLength() {
+        var stream = new ByteArrayInputStream("hello world".getBytes());
+        var exchange = exchange(stream);
+        exchange.getIn().setHeader(CONTENT_LENGTH, 11);
+
+        assertThat(CamelUtils.readCacheableBody(exchange, 5)).isNull();
+        assertThat(exchange.getIn().getBody()).isSameAs(stream);
+        assertThat(stream.available()).isEqualTo(11);
+    }
+
+    @Test
+    void forwardPath() {
+        assertThat(CamelUtils.forwardPath("/items/abc/items/1", "/items")).isEqualTo("/abc/items/1");
+        assertThat(CamelUtils.forwardPath("/items", "/items")).isEmpty();
+        assertThat(CamelUtils.forwardPath("//items/1", "/items")).isEqualTo("/1");
+        assertThat(CamelUtils.forwardPath("/a//b/c", "/a/b")).isEqualTo("/c");
+        assertThat(CamelUtils.forwardPath("/a/b?q=1", "/a/b")).isEqualTo("?q=1");
+        // only whole segments at the start are stripped
+        assertThat(CamelUtils.forwardPath("/a/bc", "/a/b")).isEqualTo("/a/bc");
+        assertThat(CamelUtils.forwardPath("/x/a/b/c", "/a/b")).isEqualTo("/x/a/b/c");
+    }
+
+    Exchange exchange(InputStream body) {
+        var exchange = new DefaultExchange(this.context);
+        exchange.getIn().setBody(body);
+        return exchange;
+    }
+}
@@ -0,0 +1,95 @@
+package nl.probot.apim.core.camel;
+
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.entities.ApiEntity;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static nl.probot.apim.core.camel.DeadlineProcessor.CONNECT_TIMEOUT_HEADER;
+import static nl.probot.apim.core.camel.DeadlineProcessor.DEADLINE_HEADER;
+import static nl.probot.apim.core.camel.DeadlineProcessor.READ_TIMEOUT_HEADER;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DeadlineProcessorTest {
+
+    DeadlineProcessor processor = new DeadlineProcessor();
+    DefaultCamelContext context = new DefaultCamelContext();
+    ApiEntity api = new ApiEntity();
+
+    @BeforeEach
+    void init() {
+        this.processor.deadline = 10_000;
+        this.processor.connectTimeout = 1000;
+        this.processor.readTimeout = 5000;
+        this.api.proxyPath = "/bin";
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        this.context.close();
+    }
+
+    @Test
+    void defaultTimeouts() {
+        var exchange = forward(null);
+
+        assertThat(exchange.getIn().getHeader(DEADLINE_HEADER, Long.class)).isBetween(9_000L, 10_000L);
+        assertThat(exchange.getIn().getHeader(CONNECT_TIMEOUT_HEADER, Long.class)).isEqualTo(1000);
+        assertThat(exchange.getIn().getHeader(READ_TIMEOUT_HEADER, Long.class)).isEqualTo(5000);
+    }
+
+    @Test
+    void apiTimeouts() {
+        this.api.connectTimeout = 200;
+        this.api.readTimeout = 60_000;
+        var exchange = forward(null);
+
+        assertThat(exchange.getIn().getHeader(CONNECT_TIMEOUT_HEADER, Long.class)).isEqualTo(200);
+        // never longer than the deadline
+        assertThat(exchange.getIn().getHeader(READ_TIMEOUT_HEADER, Long.class)).isBetween(9_000L, 10_000L);
+    }
+
+    @Test
+    void requestedDeadline() {
+        var exchange = forward("3000");
+        assertThat(exchange.getIn().getHeader(DEADLINE_HEADER, Long.class)).isBetween(2_000L, 3_000L);
+        assertThat(exchange.getIn().getHeader(READ_TIMEOUT_HEADER, Long.class)).isBetween(2_000L, 3_000L);
+
+        // a longer or invalid budget is ignored
+        assertThat(forward("50000").getIn().getHeader(DEADLINE_HEADER, Long.class)).isBetween(9_000L, 10_000L);
+        assertThat(forward("soon").getIn().getHeader(DEADLINE_HEADER, Long.class)).isBetween(9_000L, 10_000L);
+    }
+
+    @Test
+    void deadlinePassed() {
+        assertThatThrownBy(() -> forward("0"))
+                .isInstanceOf(WebApplicationException.class)
+                .hasMessage("The deadline of the request has passed before it was forwarded to /bin")
+                .extracting(e -> ((WebApplicationException) e).getResponse().getStatus())
+                .isEqualTo(504);
+    }
+
+    @Test
+    void cleanUpHeaders() {
+        var exchange = forward(null);
+        DeadlineProcessor.cleanUpHeaders(exchange);
+
+        assertThat(exchange.getIn().getHeaders()).doesNotContainKeys(DEADLINE_HEADER, CONNECT_TIMEOUT_HEADER, READ_TIMEOUT_HEADER);
+    }
+
+    Exchange forward(String requestedDeadline) {
+        var exchange = new DefaultExchange(this.context);
+        exchange.setProperty(API, this.api);
+        exchange.getIn().setHeader(DEADLINE_HEADER, requestedDeadline);
+
+        this.processor.start(exchange);
+        this.processor.process(exchange);
+        return exchange;
+    }
+}
@@ -0,0 +1,147 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.utils.RequestBodyStream;
+import org.apache.camel.Exchange;
+import org.apache.camel.http.base.HttpOperationFailedException;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+import static org.apache.camel.Exchange.EXCEPTION_CAUGHT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DownstreamGuardTest {
+
+    DownstreamGuard guard = new DownstreamGuard();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    DefaultCamelContext context = new DefaultCamelContext();
+    ApiEntity api = new ApiEntity();
+
+    @BeforeEach
+    void init() {
+        this.guard.registry = this.registry;
+        this.api.id = 1L;
+        this.api.proxyPath = "/bin";
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        this.context.close();
+    }
+
+    @Test
+    void bulkhead() {
+        this.api.maxConcurrentRequests = 2;
+        var first = acquire();
+        var second = acquire();
+
+        assertThatThrownBy(this::acquire)
+                .isInstanceOf(WebApplicationException.class)
+                .hasMessage("Max. concurrent requests of 2 reached for /bin");
+        assertThat(gauge("apim_bulkhead_in_use")).isEqualTo(2);
+
+        // released only once, also when the onException route releases it again
+        this.guard.release(first);
+        this.guard.release(first);
+        assertThat(gauge("apim_bulkhead_in_use")).isEqualTo(1);
+
+        acquire();
+        this.guard.release(second);
+        assertThat(rejected("bulkhead")).isOne();
+    }
+
+    @Test
+    void circuitBreaker() {
+        this.api.circuitBreakerEnabled = true;
+        this.api.circuitBreakerRequestVolume = 2;
+
+        // client errors don't count as failures
+        this.guard.release(failed(acquire(), 404));
+        this.guard.release(failed(acquire(), 404));
+        assertThat(gauge("apim_circuit_breaker_state")).isZero();
+
+        this.guard.release(failed(acquire(), 502));
+        assertThat(gauge("apim_circuit_breaker_state")).isEqualTo(2);
+        assertThatThrownBy(this::acquire)
+                .isInstanceOf(WebApplicationException.class)
+                .hasMessage("Circuit breaker is open for /bin");
+        assertThat(rejected("circuit_breaker")).isOne();
+    }
+
+    @Test
+    @DisplayName("An upload that was rejected by the gateway or aborted by the client doesn't count as a failure of the Api")
+    void clientFailures() {
+        this.api.circuitBreakerEnabled = true;
+        this.api.circuitBreakerRequestVolume = 2;
+
+        var rejected = new RequestBodyStream(null, 10);
+        rejected.reject("File content type not allowed", 415);
+        var aborted = new RequestBodyStream(null, -1);
+        aborted.fail(new IllegalStateException("Connection was closed"));
+
+        this.guard.release(failed(acquire(), rejected));
+        this.guard.release(failed(acquire(), aborted));
+        this.guard.release(failed(acquire(), rejected));
+        assertThat(gauge("apim_circuit_breaker_state")).isZero();
+
+        var first = acquire();
+        var second = acquire();
+        this.guard.release(failed(first, 502));
+        this.guard.release(failed(second, 502));
+        assertThat(gauge("apim_circuit_breaker_state")).isEqualTo(2);
+    }
+
+    @Test
+    void settingsChanged() {
+        this.api.maxConcurrentRequests = 1;
+        acquire();
+        assertThatThrownBy(this::acquire).isInstanceOf(WebApplicationException.class);
+
+        this.api.maxConcurrentRequests = 2;
+        acquire();
+        assertThat(this.guard.guards).hasSize(1);
+
+        // no guard at all
+        this.api.maxConcurrentRequests = null;
+        assertThat(acquire().getProperties()).doesNotContainKey("downstreamGuard");
+    }
+
+    Exchange acquire() {
+        var exchange = new DefaultExchange(this.context);
+        exchange.setProperty(API, this.api);
+        this.guard.acquire(exchange);
+        return exchange;
+    }
+
+    Exchange failed(Exchange exchange, int status) {
+        exchange.setProperty(EXCEPTION_CAUGHT, new HttpOperationFailedException("http://localhost", status, "error", null, null, null));
+        return exchange;
+    }
+
+    Exchange failed(Exchange exchange, RequestBodyStream body) {
+        try {
+            body.read();
+        } catch (IOException e) {
+            exchange.setProperty(EXCEPTION_CAUGHT, e);
+        }
+        return exchange;
+    }
+
+    double gauge(String name) {
+        return this.registry.get(name).tags("proxyPath", "/bin").gauge().value();
+    }
+
+    double rejected(String reason) {
+        return this.registry.get("apim_circuit_breaker_rejected").tags("proxyPath", "/bin", "reason", reason).counter().count();
+    }
+}
@@ -0,0 +1,38 @@
+package nl.probot.apim.core.camel;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.Test;
+
+import static nl.probot.apim.core.camel.DeadlineProcessor.CONNECT_TIMEOUT_HEADER;
+import static nl.probot.apim.core.camel.DeadlineProcessor.DEADLINE_HEADER;
+import static nl.probot.apim.core.camel.DeadlineProcessor.READ_TIMEOUT_HEADER;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DownstreamHttpConfigurerTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void applyTimeouts() {
+        var request = new HttpGet("http://localhost/bin");
+        request.addHeader(CONNECT_TIMEOUT_HEADER, "200");
+        request.addHeader(READ_TIMEOUT_HEADER, "3000");
+        request.addHeader(DEADLINE_HEADER, "3000");
+
+        var context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom().setConnectionRequestTimeout(Timeout.ofSeconds(1)).build());
+        DownstreamHttpConfigurer.applyTimeouts(request, context);
+
+        var config = context.getRequestConfig();
+        assertThat(config.getConnectTimeout()).isEqualTo(Timeout.ofMilliseconds(200));
+        assertThat(config.getResponseTimeout()).isEqualTo(Timeout.ofMilliseconds(3000));
+        assertThat(config.getConnectionRequestTimeout()).isEqualTo(Timeout.ofSeconds(1));
+
+        // only the deadline is sent to the Api
+        assertThat(request.containsHeader(CONNECT_TIMEOUT_HEADER)).isFalse();
+        assertThat(request.containsHeader(READ_TIMEOUT_HEADER)).isFalse();
+        assertThat(request.containsHeader(DEADLINE_HEADER)).isTrue();
+    }
+}
@@ -0,0 +1,82 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static nl.probot.apim.core.camel.GatewayMetrics.OTHER_PATH;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.PROXY_PATH;
+import static org.apache.camel.Exchange.HTTP_METHOD;
+import static org.apache.camel.Exchange.HTTP_RESPONSE_CODE;
+import static org.apache.camel.Exchange.HTTP_URI;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GatewayMetricsTest {
+
+    GatewayMetrics gatewayMetrics;
+
+    @BeforeEach
+    void init() {
+        this.gatewayMetrics = new GatewayMetrics();
+        this.gatewayMetrics.registry = new SimpleMeterRegistry();
+        this.gatewayMetrics.maxHttpPaths = 3;
+        this.gatewayMetrics.sampleRate = 0;
+    }
+
+    @ParameterizedTest
+    @CsvSource(textBlock = """
+            /gateway/bin/get, /gateway/bin/get
+            /gateway/orders/123, /gateway/orders/{id}
+            /gateway/orders/123/lines/4, /gateway/orders/{id}/lines/{id}
+            /gateway/users/1f0c6f7e-5b5e-4b8a-9d0e-2b1f4e1c7a3d, /gateway/users/{id}
+            /gateway/v1/blobs/deadbeef, /gateway/v1/blobs/deadbeef
+            /gateway/v1/blobs/d41d8cd98f00b204, /gateway/v1/blobs/{id}
+            /gateway/token/eyJhbGciOiJIUzI1NiJ9x1234, /gateway/token/{id}
+            """)
+    void template(String path, String expected) {
+        assertThat(GatewayMetrics.template(path)).isEqualTo(expected);
+    }
+
+    @Test
+    void maxHttpPaths() {
+        assertThat(this.gatewayMetrics.httpPathTemplate("/gateway/a")).isEqualTo("/gateway/a");
+        assertThat(this.gatewayMetrics.httpPathTemplate("/gateway/b/1")).isEqualTo("/gateway/b/{id}");
+        assertThat(this.gatewayMetrics.httpPathTemplate("/gateway/c")).isEqualTo("/gateway/c");
+        assertThat(this.gatewayMetrics.httpPathTemplate("/gateway/d")).isEqualTo(OTHER_PATH);
+
+        // known templates are still reported
+        assertThat(this.gatewayMetrics.httpPathTemplate("/gateway/b/2")).isEqualTo("/gateway/b/{id}");
+        assertThat(this.gatewayMetrics.httpPaths).hasSize(3);
+    }
+
+    @Test
+    void boundedTimers() throws Exception {
+        try (var context = new DefaultCamelContext()) {
+            for (int i = 0; i < 100; i++) {
+                var exchange = new DefaultExchange(context);
+                exchange.getIn().setHeader(HTTP_URI, "/gateway/orders/%d?page=1".formatted(i));
+                exchange.getIn().setHeader(HTTP_METHOD, i % 2 == 0 ? "GET" : "FOO");
+                exchange.getIn().setHeader(HTTP_RESPONSE_CODE, 200 + (i % 2) * 304);
+                exchange.setProperty(PROXY_PATH, "/orders");
+
+                this.gatewayMetrics.start(exchange);
+                this.gatewayMetrics.stop(exchange, false);
+                this.gatewayMetrics.stop(exchange, false);
+            }
+        }
+
+        var timers = this.gatewayMetrics.registry.find("apim_metrics").timers();
+        assertThat(timers).hasSize(2);
+        assertThat(timers).allSatisfy(timer -> {
+            assertThat(timer.count()).isEqualTo(50);
+            assertThat(timer.getId().getTag("httpPath")).isEqualTo("/gateway/orders/{id}");
+        });
+        assertThat(timers).extracting(timer -> timer.getId().getTag("method")).containsExactlyInAnyOrder("GET", "OTHER");
+        assertThat(timers).extracting(timer -> timer.getId().getTag("statusClass")).containsExactlyInAnyOrder("2xx", "5xx");
+        assertThat(this.gatewayMetrics.registry.find("apim_metrics_last_request").gauges()).hasSize(2);
+    }
+}
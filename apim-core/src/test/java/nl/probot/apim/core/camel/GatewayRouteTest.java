@@ -55,6 +55,7 @@ import static nl.probot.apim.core.entities.ApiKeyLocation.HEADER;
 import static nl.probot.apim.core.entities.AuthenticationType.API_KEY;
 import static org.apache.camel.http.common.HttpMethods.GET;
 import static org.apache.camel.http.common.HttpMethods.HEAD;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.lessThan;
@@ -110,8 +111,10 @@ class GatewayRouteTest {
     void rateLimit() {
         updateApi(this.apiId, 200, this.apisUrl, Map.of("maxRequests", "1"));
         triggerRateLimit(PROXY_PATH, 1)
-                .body("exception", equalTo("org.apache.camel.processor.ThrottlerRejectedExecutionException"))
-                .body("message", equalTo("Exceeded the max throttle rate of 1 within 60000ms"));
+                .header("X-RateLimit-Remaining", equalTo("0"))
+                .header("Retry-After", equalTo("60"))
+                .body("exception", equalTo("jakarta.ws.rs.WebApplicationException"))
+                .body("message", equalTo("Exceeded the max. rate of 1 requests per 60 seconds, retry after 60 seconds"));
 
         // another subscription should be able to call the same api without being blocked
         var response = createSubscriptionWithApi("Another sub", "/some/path");
@@ -233,7 +236,7 @@ class GatewayRouteTest {
         addApi(this.mainSubKey, multiPartApiId, 200, this.subscriptionsUrl);
 
         var picture = getClass().getClassLoader().getResourceAsStream("picture.jpg");
-        makeMultipartCall(this.mainSubKey, "picture", picture)
+        makeMultipartCall(this.mainSubKey, "picture", "image/jpeg", picture)
                 .log().all()
                 .statusCode(200)
                 .rootPath("[0]")
@@ -250,7 +253,17 @@ class GatewayRouteTest {
     @TestSecurity(user = "bob", roles = "manager", authMechanism = "basic")
     void bigUploads(int sizeMB, int status) {
         var data = new ByteArrayInputStream(createDummyContent(sizeMB));
-        makeMultipartCall(this.mainSubKey, "dummy", data).statusCode(status);
+        makeMultipartCall(this.mainSubKey, "dummy", "application/octet-stream", data).statusCode(status);
+    }
+
+    @Test
+    @Order(503)
+    @TestSecurity(user = "bob", roles = "manager", authMechanism = "basic")
+    void multipartWithMismatchingContent() {
+        var picture = getClass().getClassLoader().getResourceAsStream("picture.jpg");
+        makeMultipartCall(this.mainSubKey, "picture", "image/png", picture)
+                .statusCode(415)
+                .body("message", containsString("is not of type image/png"));
     }
 
     @Order(502)
@@ -345,7 +358,7 @@ class GatewayRouteTest {
         }
 
         // +1 call should trigger rate limit max
-        return makeApiCall(this.mainSubKey, GET.name(), path, 500);
+        return makeApiCall(this.mainSubKey, GET.name(), path, 429);
     }
 
     private ValidatableResponse makeApiCall(String subKey, String method, String path) {
@@ -366,12 +379,12 @@ class GatewayRouteTest {
            //@formatter:on
     }
 
-    private ValidatableResponse makeMultipartCall(String subKey, String filename, InputStream data) {
+    private ValidatableResponse makeMultipartCall(String subKey, String filename, String mimeType, InputStream data) {
         return
                 //@formatter:off
                 given()
                         .header("subscription-key", subKey)
-                        .multiPart(new MultiPartSpecBuilder(data).fileName(filename).mimeType("image/png").controlName(filename).build())
+                        .multiPart(new MultiPartSpecBuilder(data).fileName(filename).mimeType(mimeType).controlName(filename).build())
                 .when()
                         .post("%s%s%s".formatted(serverUrl(), this.apimContextRoot, "/multipart"))
                 .then();
@@ -0,0 +1,319 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.buffer.impl.BufferImpl;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.entities.SubscriptionEntity;
+import nl.probot.apim.core.utils.CacheManager;
+import nl.probot.apim.core.utils.CacheManagers;
+import nl.probot.apim.core.utils.CacheWarmer;
+import nl.probot.apim.core.utils.CachedResponse;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static jakarta.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static jakarta.ws.rs.core.HttpHeaders.CONTENT_TYPE;
+import static jakarta.ws.rs.core.HttpHeaders.ETAG;
+import static jakarta.ws.rs.core.HttpHeaders.IF_NONE_MATCH;
+import static jakarta.ws.rs.core.HttpHeaders.SET_COOKIE;
+import static jakarta.ws.rs.core.HttpHeaders.VARY;
+import static nl.probot.apim.core.camel.ResponseCache.ACCEPT_ENCODING;
+import static nl.probot.apim.core.camel.ResponseCache.CACHED_RESPONSE;
+import static nl.probot.apim.core.camel.ResponseCache.CONTENT_ENCODING;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.API;
+import static nl.probot.apim.core.camel.SubscriptionProcessor.CACHING_KEY;
+import static nl.probot.apim.core.utils.CacheRegion.RESPONSES;
+import static org.apache.camel.Exchange.HTTP_METHOD;
+import static org.apache.camel.Exchange.HTTP_RESPONSE_CODE;
+import static org.apache.camel.Exchange.HTTP_URI;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
+
+@TestInstance(PER_CLASS)
+class ResponseCacheTest {
+
+    ResponseCache responseCache = new ResponseCache();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    CacheManager cacheManager = CacheManagers.create(this.registry);
+    DefaultCamelContext context = new DefaultCamelContext();
+    AtomicLong time = new AtomicLong();
+    ApiEntity api = api(null);
+    SubscriptionEntity subscription = new SubscriptionEntity();
+    Gauge offHeap;
+
+    @BeforeAll
+    public void init() {
+        this.responseCache.varyHeaders = List.of("Accept");
+        this.responseCache.keepStale = 300;
+        this.responseCache.compressionMinSize = 1024;
+        this.responseCache.cacheManager = this.cacheManager;
+        this.responseCache.bodyStore = CacheManagers.bodyStore(this.registry, 1, 1);
+        this.responseCache.cacheWarmer = new CacheWarmer();
+        this.offHeap = this.registry.get("apim_response_cache_off_heap").gauge();
+        this.responseCache.gatewayMetrics = new GatewayMetrics();
+        this.responseCache.registry = this.registry;
+        this.responseCache.clock = this.time::get;
+
+        this.subscription.subscriptionKey = "key";
+    }
+
+    @AfterEach
+    public void clean() {
+        this.cacheManager.clearAll();
+        this.registry.clear();
+        this.responseCache.perSubscription = false;
+        this.responseCache.compression = true;
+        this.api = api(null);
+        this.time.set(0);
+    }
+
+    @Test
+    @DisplayName("A cached response is served with its status and representation headers")
+    void hit() {
+        var miss = request("application/json", null);
+        assertThat(miss.isRouteStop()).isFalse();
+        assertThat(miss.getProperty(CACHING_KEY)).isEqualTo("GET /gateway/api/items?page=1|accept=application/json");
+        respond(miss, 201, "items", "\"v1\"", "max-age=120");
+
+        var hit = request("application/json", null);
+        assertThat(hit.isRouteStop()).isTrue();
+        assertThat(hit.getMessage().getHeader(HTTP_RESPONSE_CODE)).isEqualTo(201);
+        assertThat(hit.getMessage().getHeader(CONTENT_TYPE)).isEqualTo("application/json");
+        assertThat(hit.getMessage().getHeader(ETAG)).isEqualTo("\"v1\"");
+        assertThat(hit.getMessage().getHeader("X-APIM-CACHE-TTL")).isEqualTo(60L);
+        assertThat(hit.getMessage().getHeader("X-Request")).isNull();
+        assertThat(hit.getMessage().getBody(String.class)).isEqualTo("items");
+
+        assertThat(request("application/xml", null).isRouteStop()).isFalse();
+        assertThat(this.registry.counter("apim_response_cache", "result", "hit").count()).isOne();
+    }
+
+    @Test
+    @DisplayName("The client receives a 304 when its ETag matches, also when the ETag was generated by the gateway")
+    void notModified() {
+        var miss = request("application/json", null);
+        respond(miss, 200, "items", null, null);
+        var etag = miss.getMessage().getHeader(ETAG, String.class);
+        assertThat(etag).startsWith("\"").hasSize(34);
+
+        var hit = request("application/json", "W/" + etag);
+        assertThat(hit.isRouteStop()).isTrue();
+        assertThat(hit.getMessage().getHeader(HTTP_RESPONSE_CODE)).isEqualTo(304);
+        assertThat(hit.getMessage().getHeader(CONTENT_TYPE)).isNull();
+        assertThat(hit.getMessage().getBody()).isNull();
+
+        // the response of the Api is answered with a 304 as well
+        this.cacheManager.clearAll();
+        var conditional = request("application/json", etag);
+        assertThat(conditional.getIn().getHeader(IF_NONE_MATCH)).isNull();
+        respond(conditional, 200, "items", null, null);
+        assertThat(conditional.getMessage().getHeader(HTTP_RESPONSE_CODE)).isEqualTo(304);
+    }
+
+    @Test
+    @DisplayName("A stale response is revalidated with the ETag of the Api and served again when the Api answers with a 304")
+    void revalidate() {
+        respond(request("application/json", null), 200, "items", "\"v1\"", null);
+        this.time.set(61_000);
+
+        var stale = request("application/json", null);
+        assertThat(stale.isRouteStop()).isFalse();
+        assertThat(stale.getProperty(CACHED_RESPONSE)).isNotNull();
+        assertThat(stale.getIn().getHeader(IF_NONE_MATCH)).isEqualTo("\"v1\"");
+
+        stale.getMessage().setHeader(HTTP_RESPONSE_CODE, 304);
+        stale.getMessage().setBody(null);
+        this.responseCache.store(stale);
+        assertThat(stale.getMessage().getHeader(HTTP_RESPONSE_CODE)).isEqualTo(200);
+        assertThat(stale.getMessage().getBody(String.class)).isEqualTo("items");
+        assertThat(this.registry.counter("apim_response_cache", "result", "revalidated").count()).isOne();
+
+        var hit = request("application/json", null);
+        assertThat(hit.isRouteStop()).isTrue();
+        assertThat(hit.getMessage().getHeader("Age")).isEqualTo(0L);
+    }
+
+    @Test
+    @DisplayName("Responses that are private, set cookies or vary on another representation are handled as a shared cache would")
+    void notStored() {
+        respond(request("application/json", null), 200, "items", null, "private, max-age=60");
+        respond(request("application/json", null), 200, "items", null, "no-store");
+
+        var withCookie = request("application/json", null);
+        withCookie.getMessage().setHeader(SET_COOKIE, "session=1");
+        respond(withCookie, 200, "items", null, null);
+        assertThat(this.cacheManager.get(RESPONSES, "GET /gateway/api/items?page=1|accept=application/json")).isEmpty();
+
+        var varying = request("application/json", null);
+        varying.getMessage().setHeader("Accept-Language", "nl");
+        varying.getMessage().setHeader(VARY, "Accept-Language");
+        respond(varying, 200, "items", null, null);
+        assertThat(request("application/json", null).isRouteStop()).isFalse();
+    }
+
+    @Test
+    @DisplayName("A response is not stored when its Api was changed while it was requested")
+    void apiChangedWhileRequested() {
+        var miss = request("application/json", null);
+        this.cacheManager.invalidateApi(this.api.id);
+        respond(miss, 200, "items", "\"v1\"", "max-age=120");
+
+        assertThat(request("application/json", null).isRouteStop()).isFalse();
+    }
+
+    @Test
+    @DisplayName("A large body is kept off-heap and is written to the client without copying it")
+    void offHeap() throws InterruptedException {
+        this.responseCache.compression = false;
+        var body = "x".repeat(2048);
+        respond(request("application/json", null), 200, body, "\"v1\"", null);
+        assertThat(this.offHeap.value()).isEqualTo(2048);
+
+        var hit = request("application/json", null);
+        assertThat(hit.getMessage().getBody()).isInstanceOfSatisfying(BufferImpl.class, buffer -> assertThat(buffer.byteBuf().isDirect()).isTrue());
+        assertThat(hit.getMessage().getBody(String.class)).isEqualTo(body);
+
+        // the removal listener of the cache runs asynchronously
+        this.cacheManager.clearAll();
+        for (int i = 0; i < 50 && this.offHeap.value() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(this.offHeap.value()).isZero();
+    }
+
+    @Test
+    @DisplayName("A large textual body is stored compressed and is only decompressed for the clients that don't accept gzip")
+    void compression() throws IOException {
+        var body = "{\"name\": \"item\"}".repeat(200);
+        respond(request("application/json", null), 200, body, "\"v1\"", null);
+
+        var gzip = request("application/json", null, "br;q=1.0, gzip;q=0.8");
+        assertThat(gzip.getMessage().getHeader(CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(gzip.getMessage().getHeader(VARY)).isEqualTo(ACCEPT_ENCODING);
+        assertThat(gzip.getMessage().getHeader(ETAG)).isEqualTo("W/\"v1\"");
+        var compressed = gzip.getMessage().getBody(byte[].class);
+        assertThat(compressed).hasSizeLessThan(body.length() / 5);
+        try (var stream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertThat(stream.readAllBytes()).isEqualTo(body.getBytes());
+        }
+
+        var identity = request("application/json", null, "gzip;q=0, identity");
+        assertThat(identity.getMessage().getHeader(CONTENT_ENCODING)).isNull();
+        assertThat(identity.getMessage().getHeader(ETAG)).isEqualTo("\"v1\"");
+        assertThat(identity.getMessage().getBody(String.class)).isEqualTo(body);
+    }
+
+    @Test
+    @DisplayName("A body in an encoding that the gateway can't negotiate is only served to the clients with the same Accept-Encoding")
+    void notNegotiated() {
+        var miss = request("application/json", null, "br, gzip");
+        miss.getMessage().setHeader(CONTENT_ENCODING, "br");
+        miss.getMessage().setHeader(VARY, ACCEPT_ENCODING);
+        respond(miss, 200, "brotli", "\"v1\"", "max-age=120");
+
+        var hit = request("application/json", null, "br, gzip");
+        assertThat(hit.isRouteStop()).isTrue();
+        assertThat(hit.getMessage().getHeader(CONTENT_ENCODING)).isEqualTo("br");
+        assertThat(request("application/json", null, "gzip").isRouteStop()).isFalse();
+        assertThat(request("application/json", null).isRouteStop()).isFalse();
+    }
+
+    @ParameterizedTest
+    @CsvSource(nullValues = "null", value = {
+            "null, false",
+            "gzip, true",
+            "'deflate, GZIP', true",
+            "gzip;q=0, false",
+            "'gzip; q=0.0, *', false",
+            "*, true",
+            "'*;q=0', false",
+            "'br, deflate', false",
+            "x-gzip;q=0.5, true"
+    })
+    void acceptsGzip(String acceptEncoding, boolean expected) {
+        assertThat(ResponseCache.acceptsGzip(acceptEncoding)).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("A cached path has its own TTL and can answer HEAD requests from the cached GET response")
+    void cachedPaths() {
+        this.api = api("/orders/**, GET|HEAD /items 10");
+        assertThat(request("HEAD", "application/json", null, null).getProperty(CACHING_KEY)).isNull();
+
+        var miss = request("application/json", null);
+        respond(miss, 200, "items", null, null);
+        assertThat(this.cacheManager.get(RESPONSES, miss.getProperty(CACHING_KEY, String.class))).get()
+                .extracting(response -> ((CachedResponse) response).expiresAt()).isEqualTo(10_000L);
+
+        var head = request("HEAD", "application/json", null, null);
+        assertThat(head.isRouteStop()).isTrue();
+        assertThat(head.getMessage().getHeader(HTTP_RESPONSE_CODE)).isEqualTo(200);
+
+        this.api = api("/orders/**");
+        assertThat(request("application/json", null).getProperty(CACHING_KEY)).isNull();
+    }
+
+    @Test
+    void perSubscription() {
+        this.responseCache.perSubscription = true;
+        assertThat(request("application/json", null).getProperty(CACHING_KEY, String.class)).endsWith("|subscription=key");
+    }
+
+    private static ApiEntity api(String cachedPaths) {
+        var api = new ApiEntity();
+        api.id = 1L;
+        api.proxyPath = "/api";
+        api.cachingEnabled = true;
+        api.cachingTTL = 60;
+        api.cachedPaths = cachedPaths;
+        return api.compileCachedPaths();
+    }
+
+    private Exchange request(String accept, String ifNoneMatch) {
+        return request(accept, ifNoneMatch, null);
+    }
+
+    private Exchange request(String accept, String ifNoneMatch, String acceptEncoding) {
+        return request("GET", accept, ifNoneMatch, acceptEncoding);
+    }
+
+    private Exchange request(String method, String accept, String ifNoneMatch, String acceptEncoding) {
+        var exchange = new DefaultExchange(this.context);
+        exchange.setProperty(API, this.api);
+        var in = exchange.getIn();
+        in.setHeader(HTTP_METHOD, method);
+        in.setHeader(HTTP_URI, "/gateway/api/items?page=1");
+        in.setHeader("Accept", accept);
+        in.setHeader("X-Request", "value");
+        in.setHeader(IF_NONE_MATCH, ifNoneMatch);
+        in.setHeader(ACCEPT_ENCODING, acceptEncoding);
+
+        this.responseCache.lookup(exchange, this.subscription, this.api, in.getHeader(HTTP_URI, String.class));
+        return exchange;
+    }
+
+    private void respond(Exchange exchange, int status, String body, String etag, String cacheControl) {
+        var message = exchange.getMessage();
+        message.setHeader(HTTP_RESPONSE_CODE, status);
+        message.setHeader(CONTENT_TYPE, "application/json");
+        message.setHeader(ETAG, etag);
+        message.setHeader(CACHE_CONTROL, cacheControl);
+        message.setBody(body.getBytes());
+        this.responseCache.store(exchange);
+    }
+}
@@ -0,0 +1,66 @@
+package nl.probot.apim.core.camel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.VertxInternal;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VirtualThreadEngineTest {
+
+    VirtualThreadEngine engine = new VirtualThreadEngine();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    VertxInternal vertx = (VertxInternal) Vertx.vertx();
+
+    VirtualThreadEngineTest() {
+        this.engine.registry = this.registry;
+        this.engine.enabled = true;
+        this.engine.pinnedDetection = true;
+        this.engine.pinnedThreshold = 1;
+    }
+
+    @AfterEach
+    void close() {
+        this.engine.onStop(null);
+        this.vertx.close();
+    }
+
+    @Test
+    void executeBlocking() throws Exception {
+        var result = this.engine.executeBlocking(this.vertx, () -> Thread.currentThread().isVirtual());
+        assertThat(result.toCompletionStage().toCompletableFuture().get(5, SECONDS)).isTrue();
+
+        var failure = this.engine.<Void>executeBlocking(this.vertx, () -> {
+            throw new IllegalStateException("failed");
+        });
+        assertThatThrownBy(() -> failure.toCompletionStage().toCompletableFuture().get(5, SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasRootCauseMessage("failed");
+    }
+
+    @Test
+    void pinnedThreadDetection() throws Exception {
+        this.engine.onStart(null);
+        var monitor = new Object();
+
+        var pinned = this.engine.executeBlocking(this.vertx, () -> {
+            synchronized (monitor) {
+                Thread.sleep(50);
+            }
+            return null;
+        });
+        pinned.toCompletionStage().toCompletableFuture().get(5, SECONDS);
+
+        var counter = this.registry.counter("apim_virtual_threads_pinned");
+        for (int i = 0; i < 100 && counter.count() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(counter.count()).isPositive();
+    }
+}
@@ -0,0 +1,67 @@
+package nl.probot.apim.core.entities;
+
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SubscriptionEntityTest {
+
+    @Test
+    void compiledSubscription() {
+        var orders = api(1L, "/orders");
+        var customers = api(2L, "/customers");
+        var subscription = new SubscriptionEntity();
+        subscription.apis = Set.of(orders, customers);
+        subscription.apiCredentials = new ArrayList<>(List.of(credential(subscription, orders)));
+        subscription.compile();
+
+        // changes of the associations after compiling don't affect the cached subscription
+        subscription.apiCredentials.add(credential(subscription, customers));
+        subscription.apis = Set.of();
+
+        assertThat(subscription.findApi("/gateway/orders/123")).isSameAs(orders);
+        assertThat(subscription.findApiCredential(1L)).get().extracting(credential -> credential.id.api).isSameAs(orders);
+        assertThat(subscription.findApiCredential(2L)).isEmpty();
+        assertThatThrownBy(() -> subscription.findApi("/gateway/invoices")).isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    void cachedPaths() {
+        var orders = api(1L, "/orders");
+        orders.cachingEnabled = true;
+        orders.cachingTTL = 60;
+        orders.cachedPaths = "/items/**";
+        var customers = api(2L, "/customers");
+        customers.cachingEnabled = true;
+        customers.cachingTTL = 60;
+        customers.cachedPaths = "POST /items";
+        var subscription = new SubscriptionEntity();
+        subscription.apis = Set.of(orders, customers);
+        subscription.compile();
+
+        assertThat(orders.findCachedPath("GET", "/gateway/orders/items/1")).isPresent();
+        // invalid cached paths are ignored
+        assertThat(customers.findCachedPath("GET", "/gateway/customers/items")).isEmpty();
+    }
+
+    static ApiEntity api(Long id, String proxyPath) {
+        var api = new ApiEntity();
+        api.id = id;
+        api.proxyPath = proxyPath;
+        return api;
+    }
+
+    static ApiCredentialEntity credential(SubscriptionEntity subscription, ApiEntity api) {
+        var credential = new ApiCredentialEntity();
+        credential.id = new CompositeApiId();
+        credential.id.api = api;
+        credential.id.subscription = subscription;
+        return credential;
+    }
+}
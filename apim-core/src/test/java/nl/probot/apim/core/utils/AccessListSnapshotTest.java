@@ -0,0 +1,121 @@
+package nl.probot.apim.core.utils;
+
+import nl.probot.apim.core.entities.AccessListEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AccessListSnapshotTest {
+
+    @ParameterizedTest
+    @CsvSource(textBlock = """
+            127.0.0.1, 0, 0xffff7f000001
+            ::ffff:127.0.0.1, 0, 0xffff7f000001
+            ::1, 0, 1
+            ::, 0, 0
+            1::, 0x1000000000000, 0
+            fdb8:7e2c:53d6:906d::, 0xfdb87e2c53d6906d, 0
+            e097:6df1:f3fc:1982:d2ae:5a46:1731:97fb, 0xe0976df1f3fc1982, 0xd2ae5a46173197fb
+            0:0:0:0:0:0:0:1, 0, 1
+            fe80::1%eth0, 0xfe80000000000000, 1
+            """)
+    void parseIpAddress(String ip, String high, String low) {
+        assertThat(IpUtility.highBits(ip)).isEqualTo(Long.parseUnsignedLong(high.replace("0x", ""), 16));
+        assertThat(IpUtility.lowBits(ip)).isEqualTo(Long.parseUnsignedLong(low.replace("0x", ""), 16));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "1.1.1", "1.1.1.256", "1..1.1", "hello", ":1", "1:", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::"})
+    void invalidIpAddress(String ip) {
+        assertThatThrownBy(() -> IpUtility.lowBits(ip)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void emptyAccessList() {
+        assertThat(AccessListSnapshot.EMPTY.hasAccess("127.0.0.1")).isTrue();
+        assertThat(AccessListSnapshot.EMPTY.hasAccess("::1")).isTrue();
+    }
+
+    @ParameterizedTest
+    @CsvSource(textBlock = """
+            127.0.0.1, false
+            127.0.0.2, true
+            10.1.2.3, false
+            10.2.0.1, true
+            fdb8:7e2c:53d6:906d::1, false
+            fdb8:7e2c:53d6:906e::1, true
+            ::ffff:10.1.0.1, false
+            """)
+    void blacklist(String ip, boolean hasAccess) {
+        var snapshot = AccessListSnapshot.of(List.of(
+                entry("127.0.0.1", true),
+                entry("10.1.0.0/16", true),
+                entry("fdb8:7e2c:53d6:906d::/64", true)));
+
+        assertThat(snapshot.hasAccess(ip)).isEqualTo(hasAccess);
+    }
+
+    @ParameterizedTest
+    @CsvSource(textBlock = """
+            192.168.1.20, true
+            192.168.2.20, false
+            8.8.8.8, true
+            8.8.4.4, false
+            10.1.0.1, false
+            """)
+    void whitelist(String ip, boolean hasAccess) {
+        var snapshot = AccessListSnapshot.of(List.of(
+                entry("192.168.1.0/24", false),
+                entry("8.8.8.8", false),
+                entry("10.0.0.0/8", true)));
+
+        assertThat(snapshot.hasAccess(ip)).isEqualTo(hasAccess);
+    }
+
+    @Test
+    void exactMatchWinsOverCidr() {
+        var snapshot = AccessListSnapshot.of(List.of(entry("10.0.0.0/8", true), entry("10.1.1.1", false)));
+
+        assertThat(snapshot.hasAccess("10.1.1.1")).isTrue();
+        assertThat(snapshot.hasAccess("10.1.1.2")).isFalse();
+    }
+
+    @Test
+    void manyRanges() {
+        var entries = new ArrayList<AccessListEntity>();
+        for (int i = 0; i < 20_000; i++) {
+            entries.add(entry("%d.%d.%d.0/24".formatted(20 + i / 65536, (i / 256) % 256, i % 256), true));
+        }
+        var snapshot = AccessListSnapshot.of(entries);
+
+        assertThat(snapshot.size()).isEqualTo(20_000);
+        assertThat(snapshot.hasAccess("20.0.0.1")).isFalse();
+        assertThat(snapshot.hasAccess("20.78.31.200")).isFalse();
+        assertThat(snapshot.hasAccess("20.78.32.1")).isTrue();
+        assertThat(snapshot.hasAccess("19.255.255.255")).isTrue();
+    }
+
+    @Test
+    void invalidEntriesAreSkipped() {
+        var snapshot = AccessListSnapshot.of(List.of(entry("e097:6df1:f3fc:1982:d2ae:5a46:1731:/64", true), entry("1.1.1.1", true)));
+
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.hasAccess("1.1.1.1")).isFalse();
+    }
+
+    private static AccessListEntity entry(String ip, boolean blacklisted) {
+        var entity = new AccessListEntity();
+        entity.ip = ip;
+        entity.blacklisted = blacklisted;
+        entity.whitelisted = !blacklisted;
+        entity.isCidr = ip.contains("/");
+        return entity;
+    }
+}
@@ -0,0 +1,73 @@
+package nl.probot.apim.core.utils;
+
+import nl.probot.apim.core.entities.ApiEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ApiRouterTest {
+
+    ApiRouter router = ApiRouter.of(List.of(
+            api("/orders"),
+            api("/orders-v2"),
+            api("/orders/v2"),
+            api("/customers/accounts"),
+            disabled("/invoices")
+    ));
+
+    @ParameterizedTest
+    @CsvSource({
+            "/orders,                /orders",
+            "/orders/,               /orders",
+            "/orders/123,            /orders",
+            "/orders?page=1,         /orders",
+            "/orders/v2,             /orders/v2",
+            "/orders/v2/123?page=1,  /orders/v2",
+            "/orders/v3/123,         /orders",
+            "/orders-v2,             /orders-v2",
+            "/orders-v2/123,         /orders-v2",
+            "/customers/accounts/1,  /customers/accounts"
+    })
+    public void longestMatch(String path, String expected) {
+        assertThat(this.router.match(path)).get().extracting(api -> api.proxyPath).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"/", "/order", "/orders-v3", "/customers", "/customers/accounts-old", "/invoices/1", "/?orders"})
+    public void noMatch(String path) {
+        assertThat(this.router.match(path)).isEmpty();
+    }
+
+    @Test
+    public void manyApis() {
+        var apis = new ArrayList<ApiEntity>();
+        IntStream.range(0, 500).forEach(i -> {
+            apis.add(api("/api%d".formatted(i)));
+            apis.add(api("/api%d/v2".formatted(i)));
+        });
+        var router = ApiRouter.of(apis);
+
+        assertThat(router.match("/api499/v2/items")).get().extracting(api -> api.proxyPath).isEqualTo("/api499/v2");
+        assertThat(router.match("/api42/items")).get().extracting(api -> api.proxyPath).isEqualTo("/api42");
+        assertThat(router.match("/api500")).isEmpty();
+    }
+
+    static ApiEntity api(String proxyPath) {
+        var api = new ApiEntity();
+        api.proxyPath = proxyPath;
+        api.proxyUrl = "http://localhost" + proxyPath;
+        return api;
+    }
+
+    static ApiEntity disabled(String proxyPath) {
+        var api = api(proxyPath);
+        api.enabled = false;
+        return api;
+    }
+}
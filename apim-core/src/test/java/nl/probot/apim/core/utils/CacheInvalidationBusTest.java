@@ -0,0 +1,126 @@
+package nl.probot.apim.core.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.NotificationOptions;
+import jakarta.enterprise.util.TypeLiteral;
+import nl.probot.apim.commons.cache.UserChanged;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import static nl.probot.apim.core.utils.CacheRegion.RESPONSES;
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheInvalidationBusTest {
+
+    CacheInvalidationBus bus = new CacheInvalidationBus();
+    int accessListReloads;
+    int warmUps;
+    List<UserChanged> userChanges = new ArrayList<>();
+
+    @BeforeEach
+    void init() {
+        var cacheManager = CacheManagers.create(new SimpleMeterRegistry());
+        cacheManager.set(SUBSCRIPTIONS, "sub1", "subscription 1");
+        cacheManager.set(SUBSCRIPTIONS, "sub2", "subscription 2");
+        cacheManager.dependsOn(SUBSCRIPTIONS, "sub2", "subscription 2", List.of(1L));
+        cacheManager.set(RESPONSES, "/api1/items", "items");
+        cacheManager.dependsOn(RESPONSES, "/api1/items", "items", List.of(1L));
+
+        this.bus.cacheManager = cacheManager;
+        this.bus.accessListManager = new AccessListManager() {
+            @Override
+            public void reload() {
+                CacheInvalidationBusTest.this.accessListReloads++;
+            }
+        };
+        this.bus.cacheWarmer = new CacheWarmer() {
+            @Override
+            public void invalidated(String reason) {
+                CacheInvalidationBusTest.this.warmUps++;
+            }
+        };
+        this.bus.userChanged = new FiredEvents<>(this.userChanges);
+        this.bus.checkVersion(10);
+    }
+
+    @Test
+    void receive() {
+        this.bus.receive("11:SUBSCRIPTION:sub1");
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub1")).isEmpty();
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub2")).isPresent();
+
+        this.bus.receive("12:API:1");
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub2")).isEmpty();
+        assertThat(this.bus.cacheManager.get(RESPONSES, "/api1/items")).isEmpty();
+        assertThat(this.warmUps).isOne();
+
+        this.bus.receive("13:ACCESS_LIST:2001:db8::1");
+        assertThat(this.accessListReloads).isOne();
+
+        this.bus.receive("14:USER:6d2a");
+        assertThat(this.userChanges).containsExactly(new UserChanged("6d2a", true));
+        assertThat(this.bus.version).isEqualTo(14);
+    }
+
+    @Test
+    void missedVersion() {
+        this.bus.receive("12:SUBSCRIPTION:unknown");
+
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub1")).isEmpty();
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub2")).isEmpty();
+        assertThat(this.accessListReloads).isOne();
+        assertThat(this.userChanges).containsExactly(new UserChanged(null, true));
+        assertThat(this.warmUps).isOne();
+        assertThat(this.bus.version).isEqualTo(12);
+    }
+
+    @Test
+    void missedVersionWhileNotListening() {
+        this.bus.checkVersion(10);
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub1")).isPresent();
+
+        this.bus.checkVersion(11);
+        assertThat(this.bus.cacheManager.get(SUBSCRIPTIONS, "sub1")).isEmpty();
+        assertThat(this.accessListReloads).isOne();
+    }
+
+    record FiredEvents<T>(List<T> fired) implements Event<T> {
+
+        @Override
+        public void fire(T event) {
+            this.fired.add(event);
+        }
+
+        @Override
+        public <U extends T> CompletionStage<U> fireAsync(U event) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends T> CompletionStage<U> fireAsync(U event, NotificationOptions options) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Event<T> select(Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends T> Event<U> select(Class<U> subtype, Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <U extends T> Event<U> select(TypeLiteral<U> subtype, Annotation... qualifiers) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
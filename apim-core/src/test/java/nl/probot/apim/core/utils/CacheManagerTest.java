@@ -1,6 +1,8 @@
 package nl.probot.apim.core.utils;
 
-import nl.probot.apim.core.utils.CacheManager.TimedValue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.utils.CacheManager.LoadKey;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
@@ -10,10 +12,19 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.NullSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
-import java.time.Instant;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import static io.quarkus.runtime.util.StringUtil.isNullOrEmpty;
-import static java.time.temporal.ChronoUnit.MINUTES;
+import static nl.probot.apim.core.utils.CacheRegion.RESPONSES;
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+import static nl.probot.apim.core.utils.CacheRegion.TOKENS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
@@ -22,16 +33,27 @@ import static org.junit.jupiter.api.TestInstance.Lifecycle.PER_CLASS;
 class CacheManagerTest {
 
     CacheManager cacheManager = new CacheManager();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    AtomicLong time = new AtomicLong();
 
     @BeforeAll
     public void init() {
         this.cacheManager.maxAmount = 100;
         this.cacheManager.keepTime = 300;
+        this.cacheManager.responsesMaxSize = 1;
+        this.cacheManager.responsesMaxBodySize = 1;
+        this.cacheManager.tokensMaxAmount = 10;
+        this.cacheManager.loadTimeout = 1000;
+        this.cacheManager.registry = this.registry;
+        this.cacheManager.ticker = this.time::get;
+        this.cacheManager.refresher = Runnable::run;
+        this.cacheManager.init();
     }
 
     @AfterEach
     public void clean() {
         this.cacheManager.clearAll();
+        this.cacheManager.staleWhileRevalidate = 0;
     }
 
     @NullSource
@@ -39,47 +61,247 @@ class CacheManagerTest {
     @ParameterizedTest
     public void addEntry(String value) {
         if (isNullOrEmpty(value)) {
-            assertThatThrownBy(() -> this.cacheManager.getAndSet("test", () -> value)).isInstanceOf(NullPointerException.class);
-            assertThat(this.cacheManager.cache).isEmpty();
+            assertThatThrownBy(() -> this.cacheManager.getAndSet(SUBSCRIPTIONS, "test", () -> value)).isInstanceOf(NullPointerException.class);
+            assertThat(this.cacheManager.size(SUBSCRIPTIONS)).isZero();
         } else {
-            var result = this.cacheManager.getAndSet("test", () -> "hello world");
+            var result = this.cacheManager.getAndSet(SUBSCRIPTIONS, "test", () -> "hello world");
 
             assertThat(result).isEqualTo("hello world");
-            assertThat(this.cacheManager.cache).hasSize(1);
+            assertThat(this.cacheManager.size(SUBSCRIPTIONS)).isOne();
+            assertThat(this.cacheManager.size(RESPONSES)).isZero();
         }
     }
 
     @Test
+    @DisplayName("When the cache is full and there is no stale data, then it should not grow beyond its max. size")
     void maxEntry() {
-        // 50 old entries
-        for (int i = 1; i <= 50; i++) {
-            this.cacheManager.cache.put("%d".formatted(i), new TimedValue(i, Instant.now().minus(6, MINUTES).toEpochMilli()));
+        for (int i = 1; i <= 150; i++) {
+            this.cacheManager.set(SUBSCRIPTIONS, "%d".formatted(i), i);
         }
 
-        // new entries
-        for (int i = 51; i <= 100; i++) {
-            this.cacheManager.cache.put("%d".formatted(i), new TimedValue(i));
+        assertThat(this.cacheManager.size(SUBSCRIPTIONS)).isEqualTo(100);
+    }
+
+    @Test
+    void expireAfterWrite() {
+        this.cacheManager.set(SUBSCRIPTIONS, "old", "old value");
+        this.time.addAndGet(Duration.ofSeconds(200).toNanos());
+        this.cacheManager.set(SUBSCRIPTIONS, "new", "new value");
+
+        // reading doesn't extend the life of an entry
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "old")).contains("old value");
+        this.time.addAndGet(Duration.ofSeconds(101).toNanos());
+
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "old")).isEmpty();
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "new")).contains("new value");
+        assertThat(this.cacheManager.getAndSet(SUBSCRIPTIONS, "old", () -> "reloaded")).isEqualTo("reloaded");
+    }
+
+    @Test
+    void expireWithTtl() {
+        this.cacheManager.set(TOKENS, "token", "12345", Duration.ofSeconds(10));
+        this.time.addAndGet(Duration.ofSeconds(9).toNanos());
+        assertThat(this.cacheManager.get(TOKENS, "token")).contains("12345");
+
+        this.time.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertThat(this.cacheManager.get(TOKENS, "token")).isEmpty();
+    }
+
+    @Test
+    void responsesBoundedBySize() {
+        var body = new byte[100 * 1024];
+        for (int i = 1; i <= 20; i++) {
+            this.cacheManager.set(RESPONSES, "/api/%d".formatted(i), body, Duration.ofSeconds(60));
+        }
+
+        // 1MB fits 10 bodies of 100KB
+        assertThat(this.cacheManager.size(RESPONSES)).isLessThanOrEqualTo(10);
+
+        // too large to be admitted at all
+        this.cacheManager.set(RESPONSES, "/api/large", new byte[1024 * 1024 + 1], Duration.ofSeconds(60));
+        assertThat(this.cacheManager.get(RESPONSES, "/api/large")).isEmpty();
+    }
+
+    @Test
+    void regionsAreSeparated() {
+        this.cacheManager.set(SUBSCRIPTIONS, "key", "subscription");
+        this.cacheManager.set(TOKENS, "key", "token");
+
+        this.cacheManager.invalidate(SUBSCRIPTIONS, "key");
+
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "key")).isEmpty();
+        assertThat(this.cacheManager.get(TOKENS, "key")).contains("token");
+    }
+
+    @Test
+    @DisplayName("Concurrent misses for the same key should load the value only once")
+    void singleFlight() throws Exception {
+        var loads = new AtomicInteger();
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        Supplier<String> supplier = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            await(release);
+            return "subscription";
+        };
+
+        try (var executor = Executors.newFixedThreadPool(10)) {
+            var first = executor.submit(() -> this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", supplier));
+            loading.await();
+
+            var waiters = IntStream.range(0, 9)
+                    .mapToObj(i -> executor.submit(() -> this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", supplier)))
+                    .toList();
+
+            // give the waiters time to join the running load
+            Thread.sleep(100);
+            release.countDown();
+
+            assertThat(first.get()).isEqualTo("subscription");
+            for (var waiter : waiters) {
+                assertThat(waiter.get()).isEqualTo("subscription");
+            }
         }
 
-        var value = this.cacheManager.getAndSet("101", () -> "I should be present");
-        assertThat(this.cacheManager.cache).hasSize(51).allSatisfy((k, v) -> assertThat(Integer.valueOf(k)).isGreaterThanOrEqualTo(51));
-        assertThat(value).isEqualTo("I should be present");
+        assertThat(loads).hasValue(1);
+        assertThat(this.cacheManager.loading).isEmpty();
     }
 
     @Test
-    @DisplayName("When the cache is full and there is no stale data, then it should expend the cache size")
-    void cacheFullWithoutStaleData() {
-        // fill the cache
-        for (int i = 1; i <= 100; i++) {
-            this.cacheManager.cache.put("%d".formatted(i), new TimedValue(i));
+    @DisplayName("A caller should not wait longer than the load timeout for a hanging load")
+    void singleFlightTimeout() throws Exception {
+        var loading = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        try (var executor = Executors.newFixedThreadPool(1)) {
+            var first = executor.submit(() -> this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", () -> {
+                loading.countDown();
+                await(release);
+                return "subscription";
+            }));
+            loading.await();
+
+            assertThatThrownBy(() -> this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", () -> "other"))
+                    .isInstanceOfSatisfying(WebApplicationException.class, e -> assertThat(e.getResponse().getStatus()).isEqualTo(503));
+
+            release.countDown();
+            assertThat(first.get()).isEqualTo("subscription");
         }
+    }
+
+    @Test
+    void singleFlightFailure() {
+        assertThatThrownBy(() -> this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", () -> {
+            throw new IllegalStateException("not found");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(this.cacheManager.loading).isEmpty();
+        assertThat(this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", () -> "found")).isEqualTo("found");
+    }
+
+    @Test
+    void staleWhileRevalidate() {
+        this.cacheManager.staleWhileRevalidate = 60;
+        var loads = new AtomicInteger();
+        Supplier<String> supplier = () -> "value %d".formatted(loads.incrementAndGet());
+
+        assertThat(this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", supplier)).isEqualTo("value 1");
+
+        // stale, but still served while it is refreshed
+        this.time.addAndGet(Duration.ofSeconds(310).toNanos());
+        assertThat(this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", supplier)).isEqualTo("value 1");
+        assertThat(this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", supplier)).isEqualTo("value 2");
+        assertThat(loads).hasValue(2);
+
+        // a failed refresh removes the stale value
+        this.time.addAndGet(Duration.ofSeconds(310).toNanos());
+        Supplier<String> revoked = () -> {
+            throw new IllegalStateException("revoked");
+        };
+        assertThat(this.cacheManager.getAndSet(SUBSCRIPTIONS, "key", revoked)).isEqualTo("value 2");
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "key")).isEmpty();
+    }
+
+    @Test
+    void invalidateApi() {
+        this.cacheManager.set(SUBSCRIPTIONS, "sub1", "subscription 1");
+        this.cacheManager.dependsOn(SUBSCRIPTIONS, "sub1", "subscription 1", List.of(1L, 2L));
+        this.cacheManager.set(SUBSCRIPTIONS, "sub2", "subscription 2");
+        this.cacheManager.dependsOn(SUBSCRIPTIONS, "sub2", "subscription 2", List.of(2L));
+        this.cacheManager.set(RESPONSES, "/api1/items", "items", Duration.ofSeconds(60));
+        this.cacheManager.dependsOn(RESPONSES, "/api1/items", "items", List.of(1L));
+
+        this.cacheManager.invalidateApi(1L);
+
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "sub1")).isEmpty();
+        assertThat(this.cacheManager.get(RESPONSES, "/api1/items")).isEmpty();
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "sub2")).contains("subscription 2");
+        assertThat(this.cacheManager.dependents).containsOnlyKeys(2L);
+        assertThat(this.cacheManager.dependents.get(2L)).containsExactly(new LoadKey(SUBSCRIPTIONS, "sub2"));
+    }
+
+    @Test
+    @DisplayName("A value that was loaded while one of its Apis was invalidated should not be cached")
+    void apiInvalidatedWhileLoading() {
+        var result = this.cacheManager.getAndSet(SUBSCRIPTIONS, "sub1", () -> {
+            this.cacheManager.invalidateApi(1L);
+            return "old";
+        }, value -> List.of(1L));
 
-        // add a new entry
-        this.cacheManager.cache.put("101", new TimedValue("101"));
+        assertThat(result).isEqualTo("old");
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "sub1")).isEmpty();
+        assertThat(this.cacheManager.dependents).isEmpty();
 
-        // then the cache should have 101 entries (nothing should be cleaned up)
-        var value = this.cacheManager.cache.get("101").value();
-        assertThat(value).isEqualTo("101");
-        assertThat(this.cacheManager.cache).hasSize(101);
+        // the next load is cached again
+        this.cacheManager.getAndSet(SUBSCRIPTIONS, "sub1", () -> "new", value -> List.of(1L));
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "sub1")).contains("new");
+        assertThat(this.cacheManager.dependents.get(1L)).containsExactly(new LoadKey(SUBSCRIPTIONS, "sub1"));
+    }
+
+    @Test
+    @DisplayName("The dependencies of an entry are removed when it is evicted, but not those of the entry that replaced it")
+    void dependenciesRemovedOnEviction() {
+        this.cacheManager.set(SUBSCRIPTIONS, "sub1", "old");
+        this.cacheManager.dependsOn(SUBSCRIPTIONS, "sub1", "old", List.of(1L));
+        this.cacheManager.set(SUBSCRIPTIONS, "sub2", "old");
+        this.cacheManager.dependsOn(SUBSCRIPTIONS, "sub2", "old", List.of(1L));
+        this.time.addAndGet(Duration.ofSeconds(301).toNanos());
+
+        // reloaded after it expired, the dependencies are registered before the old value is evicted
+        this.cacheManager.getAndSet(SUBSCRIPTIONS, "sub1", () -> "new", value -> List.of(1L));
+        this.cacheManager.size(SUBSCRIPTIONS);
+
+        assertThat(this.cacheManager.dependencies).containsOnlyKeys(new LoadKey(SUBSCRIPTIONS, "sub1"));
+        assertThat(this.cacheManager.dependents.get(1L)).containsExactly(new LoadKey(SUBSCRIPTIONS, "sub1"));
+
+        this.cacheManager.invalidateApi(1L);
+        assertThat(this.cacheManager.get(SUBSCRIPTIONS, "sub1")).isEmpty();
+    }
+
+    @Test
+    void metrics() {
+        var hits = gets("hit");
+        var misses = gets("miss");
+
+        this.cacheManager.set(TOKENS, "key", "token");
+        this.cacheManager.get(TOKENS, "key");
+        this.cacheManager.get(TOKENS, "unknown");
+
+        assertThat(gets("hit")).isEqualTo(hits + 1);
+        assertThat(gets("miss")).isEqualTo(misses + 1);
+        assertThat(this.registry.get("cache.evictions").tags("cache", TOKENS.cacheName()).functionCounter()).isNotNull();
+    }
+
+    double gets(String result) {
+        return this.registry.get("cache.gets").tags("cache", TOKENS.cacheName(), "result", result).functionCounter().count();
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package nl.probot.apim.core.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Optional;
+
+/**
+ * Creates a {@link CacheManager} and a {@link ResponseBodyStore} with a test configuration, the tests outside this package cannot set it themselves.
+ */
+public final class CacheManagers {
+
+    private CacheManagers() {
+    }
+
+    public static CacheManager create(MeterRegistry registry) {
+        var cacheManager = new CacheManager();
+        cacheManager.maxAmount = 100;
+        cacheManager.keepTime = 300;
+        cacheManager.responsesMaxSize = 1;
+        cacheManager.responsesMaxBodySize = 1;
+        cacheManager.tokensMaxAmount = 10;
+        cacheManager.loadTimeout = 1000;
+        cacheManager.registry = registry;
+        cacheManager.refresher = Runnable::run;
+        cacheManager.init();
+        return cacheManager;
+    }
+
+    /**
+     * @param maxSize   the off-heap budget in MB.
+     * @param threshold the size in KB from which a body is stored off-heap.
+     */
+    public static ResponseBodyStore bodyStore(MeterRegistry registry, int maxSize, int threshold) {
+        var bodyStore = new ResponseBodyStore();
+        bodyStore.maxSize = maxSize;
+        bodyStore.threshold = threshold;
+        bodyStore.directory = Optional.empty();
+        bodyStore.registry = registry;
+        bodyStore.init();
+        return bodyStore;
+    }
+}
@@ -0,0 +1,187 @@
+package nl.probot.apim.core.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import nl.probot.apim.core.entities.ApiEntity;
+import nl.probot.apim.core.entities.CacheHotKeyEntity;
+import nl.probot.apim.core.entities.SubscriptionEntity;
+import nl.probot.apim.core.utils.CacheWarmer.HotPath;
+import org.eclipse.microprofile.health.HealthCheckResponse.Status;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static nl.probot.apim.core.utils.CacheRegion.SUBSCRIPTIONS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheWarmerTest {
+
+    CacheWarmer cacheWarmer = new CacheWarmer();
+
+    @BeforeEach
+    void init() {
+        this.cacheWarmer.enabled = true;
+        this.cacheWarmer.subscriptions = 2;
+        this.cacheWarmer.paths = 1;
+        this.cacheWarmer.varyHeaders = List.of("Accept", "Accept-Language");
+        this.cacheWarmer.cacheManager = CacheManagers.create(new SimpleMeterRegistry());
+    }
+
+    @Test
+    void subscriptionsUsed() {
+        this.cacheWarmer.subscriptionUsed(1L);
+        this.cacheWarmer.subscriptionUsed(1L);
+        this.cacheWarmer.subscriptionUsed(2L);
+        this.cacheWarmer.subscriptionUsed(3L);
+
+        assertThat(this.cacheWarmer.usedSubscriptions).containsExactlyInAnyOrder(1L, 2L);
+    }
+
+    @Test
+    void pathsRequested() {
+        var headers = Map.of("Accept", "application/json", "Authorization", "secret");
+        this.cacheWarmer.pathRequested(1L, "/gateway/api/items?page=1", headers::get);
+        this.cacheWarmer.pathRequested(1L, "/gateway/api/items?page=1", headers::get);
+        this.cacheWarmer.pathRequested(2L, "/gateway/api/items?page=1", name -> null);
+
+        var hotPath = new HotPath(1L, "/gateway/api/items?page=1", "Accept: application/json");
+        assertThat(this.cacheWarmer.requestedPaths).containsOnlyKeys(hotPath, new HotPath(2L, "/gateway/api/items?page=1", ""));
+        assertThat(this.cacheWarmer.requestedPaths.get(hotPath).sum()).isEqualTo(2);
+    }
+
+    @Test
+    void pathsRequestedAreBounded() {
+        for (var i = 0; i < 20; i++) {
+            this.cacheWarmer.pathRequested(1L, "/gateway/api/items/" + i, name -> null);
+        }
+        this.cacheWarmer.pathRequested(1L, "/gateway/api/" + "x".repeat(CacheWarmer.MAX_PATH_LENGTH), name -> null);
+
+        assertThat(this.cacheWarmer.requestedPaths).hasSize(10);
+    }
+
+    @Test
+    void nothingIsRecordedWhenDisabled() {
+        this.cacheWarmer.enabled = false;
+        this.cacheWarmer.subscriptionUsed(1L);
+        this.cacheWarmer.pathRequested(1L, "/gateway/api/items", name -> null);
+
+        assertThat(this.cacheWarmer.usedSubscriptions).isEmpty();
+        assertThat(this.cacheWarmer.requestedPaths).isEmpty();
+    }
+
+    @Test
+    void headers() {
+        var headers = Map.of("Accept-Language", "nl", "Accept", "application/json");
+
+        assertThat(this.cacheWarmer.headers(headers::get)).isEqualTo("Accept: application/json\nAccept-Language: nl");
+        assertThat(this.cacheWarmer.headers(name -> null)).isEmpty();
+    }
+
+    @Test
+    void cache() {
+        var subscription = subscription("key", 1L);
+        this.cacheWarmer.cache(subscription, this.cacheWarmer.cacheManager.generation());
+        assertThat(this.cacheWarmer.cacheManager.get(SUBSCRIPTIONS, "key")).containsSame(subscription);
+
+        // a subscription that was cached by a request is kept
+        this.cacheWarmer.cache(subscription("key", 1L), this.cacheWarmer.cacheManager.generation());
+        assertThat(this.cacheWarmer.cacheManager.get(SUBSCRIPTIONS, "key")).containsSame(subscription);
+
+        // and it is invalidated together with its Apis
+        this.cacheWarmer.cacheManager.invalidateApi(1L);
+        assertThat(this.cacheWarmer.cacheManager.get(SUBSCRIPTIONS, "key")).isEmpty();
+    }
+
+    @Test
+    void notCachedWhenAnApiChangedWhileLoading() {
+        var generation = this.cacheWarmer.cacheManager.generation();
+        this.cacheWarmer.cacheManager.invalidateApi(1L);
+        this.cacheWarmer.cache(subscription("key", 1L), generation);
+
+        assertThat(this.cacheWarmer.cacheManager.get(SUBSCRIPTIONS, "key")).isEmpty();
+    }
+
+    @Test
+    void warmUpToken() {
+        assertThat(this.cacheWarmer.isWarmUp(this.cacheWarmer.token)).isTrue();
+        assertThat(this.cacheWarmer.isWarmUp(new CacheWarmer().token)).isFalse();
+        assertThat(this.cacheWarmer.isWarmUp("")).isFalse();
+        assertThat(this.cacheWarmer.isWarmUp(null)).isFalse();
+    }
+
+    @Test
+    @DisplayName("The gateway is ready once the subscriptions are loaded, the paths are prefetched until the deadline")
+    void prefetchDeadline() throws Exception {
+        var subscription = subscription("key", 1L);
+        subscription.id = 1L;
+        var cacheWarmer = new CacheWarmer() {
+            @Override
+            List<CacheHotKeyEntity> findHotKeys() {
+                return List.of(hotKey(""), hotKey("/gateway/api/items/1"), hotKey("/gateway/api/items/2"));
+            }
+
+            @Override
+            List<SubscriptionEntity> loadSubscriptions(List<Long> subscriptionIds) {
+                return List.of(subscription);
+            }
+        };
+        cacheWarmer.cacheManager = this.cacheWarmer.cacheManager;
+        cacheWarmer.deadline = 1;
+
+        // a gateway that accepts the connections, but never answers
+        try (var gateway = new ServerSocket(0)) {
+            cacheWarmer.gatewayUrl = "http://localhost:" + gateway.getLocalPort();
+            cacheWarmer.httpClient = HttpClient.newHttpClient();
+
+            var warmUp = Thread.ofVirtual().start(() -> cacheWarmer.warmUp("test"));
+            await(() -> cacheWarmer.ready, Duration.ofMillis(500));
+            assertThat(warmUp.isAlive()).isTrue();
+            assertThat(warmUp.join(Duration.ofSeconds(5))).isTrue();
+        }
+    }
+
+    @Test
+    void readiness() {
+        var response = this.cacheWarmer.call();
+        assertThat(response.getStatus()).isEqualTo(Status.DOWN);
+        assertThat(response.getData()).hasValueSatisfying(data -> assertThat(data).containsEntry("cache", "warming"));
+
+        this.cacheWarmer.ready = true;
+        response = this.cacheWarmer.call();
+        assertThat(response.getStatus()).isEqualTo(Status.UP);
+        assertThat(response.getData()).hasValueSatisfying(data -> assertThat(data).containsEntry("cache", "warm"));
+    }
+
+    private static CacheHotKeyEntity hotKey(String path) {
+        var hotKey = new CacheHotKeyEntity();
+        hotKey.subscriptionId = 1L;
+        hotKey.path = path;
+        hotKey.headers = "";
+        return hotKey;
+    }
+
+    private static void await(BooleanSupplier condition, Duration timeout) throws InterruptedException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+
+    private static SubscriptionEntity subscription(String key, Long apiId) {
+        var api = new ApiEntity();
+        api.id = apiId;
+
+        var subscription = new SubscriptionEntity();
+        subscription.subscriptionKey = key;
+        subscription.apis = Set.of(api);
+        return subscription;
+    }
+}
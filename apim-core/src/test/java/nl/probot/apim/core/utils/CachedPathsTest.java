@@ -0,0 +1,84 @@
+package nl.probot.apim.core.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachedPathsTest {
+
+    static final String PREFIX = "/gateway/jp";
+
+    CachedPaths cachedPaths = CachedPaths.compile("/items, /items/*/details 120, GET|HEAD /catalog/**, /files/*.json 30, /a/**/z");
+
+    @ParameterizedTest
+    @CsvSource({
+            "GET,  /items,                  /items",
+            "GET,  /items/,                 /items",
+            "GET,  /items?page=1,           /items",
+            "GET,  /items/42/details,       /items/*/details",
+            "GET,  /catalog,                /catalog/**",
+            "HEAD, /catalog/books/1?x=/y,   /catalog/**",
+            "GET,  /files/report.json,      /files/*.json",
+            "GET,  /a/z,                    /a/**/z",
+            "GET,  /a/b/c/z,                /a/**/z"
+    })
+    public void match(String method, String path, String expected) {
+        assertThat(this.cachedPaths.match(method, PREFIX + path, PREFIX.length())).get().extracting(CachedPaths.Rule::pattern).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "GET,  /data",
+            "GET,  /items/42",
+            "GET,  /items-old",
+            "GET,  /my/items",
+            "HEAD, /items",
+            "POST, /catalog/books",
+            "GET,  /files/report.xml",
+            "GET,  /a/b/y",
+            "GET,  /?items"
+    })
+    public void noMatch(String method, String path) {
+        assertThat(this.cachedPaths.match(method, PREFIX + path, PREFIX.length())).isEmpty();
+    }
+
+    @Test
+    public void firstPatternWins() {
+        var paths = CachedPaths.compile("/items/** 10, /items/* 20");
+
+        assertThat(paths.match("GET", "/items/1", 0)).get().extracting(CachedPaths.Rule::ttl).isEqualTo(10);
+        assertThat(this.cachedPaths.match("GET", PREFIX + "/items/1/details", PREFIX.length())).get().extracting(CachedPaths.Rule::ttl).isEqualTo(120);
+    }
+
+    @Test
+    public void everyGetRequestWithoutCachedPaths() {
+        var paths = CachedPaths.compile(" ");
+
+        assertThat(paths.match("GET", PREFIX + "/anything/1?x=2", PREFIX.length())).isPresent();
+        assertThat(paths.match("GET", PREFIX, PREFIX.length())).isPresent();
+        assertThat(paths.match("HEAD", PREFIX + "/anything", PREFIX.length())).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"POST /items", "/items 0", "/items 3601", "/items ten", "/items 10 20"})
+    public void invalid(String cachedPaths) {
+        assertThat(cachedPaths).doesNotMatch(CachedPaths.SYNTAX);
+        assertThatThrownBy(() -> CachedPaths.compile(cachedPaths)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "/items", "/items/**, GET|HEAD /catalog/*/details 300", " /a 1 ,/b 3600"})
+    public void valid(String cachedPaths) {
+        assertThat(cachedPaths).matches(CachedPaths.SYNTAX);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"*.json, a.json, true", "*.json, a.xml, false", "a?c, abc, true", "a*b*c, aXXbYYc, true", "a*b*c, aXXbYY, false", "*, '', true"})
+    public void glob(String glob, String text, boolean expected) {
+        assertThat(CachedPaths.globMatches(glob, text, 0, text.length())).isEqualTo(expected);
+    }
+}
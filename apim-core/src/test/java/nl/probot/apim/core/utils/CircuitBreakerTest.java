@@ -0,0 +1,94 @@
+package nl.probot.apim.core.utils;
+
+import nl.probot.apim.core.utils.CircuitBreaker.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.stream.IntStream;
+
+import static nl.probot.apim.core.utils.CircuitBreaker.REJECTED;
+import static nl.probot.apim.core.utils.CircuitBreaker.State.CLOSED;
+import static nl.probot.apim.core.utils.CircuitBreaker.State.HALF_OPEN;
+import static nl.probot.apim.core.utils.CircuitBreaker.State.OPEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    static final long DELAY = Duration.ofSeconds(10).toNanos();
+
+    CircuitBreaker breaker = new CircuitBreaker(new Settings(4, 50, Duration.ofSeconds(10), 2));
+
+    @Test
+    void opensAtFailureRatio() {
+        call(true, 0);
+        call(false, 0);
+        call(true, 0);
+        assertThat(this.breaker.state()).isEqualTo(CLOSED);
+
+        // 2 of the last 4 calls failed
+        call(false, 0);
+        assertThat(this.breaker.state()).isEqualTo(OPEN);
+        assertThat(this.breaker.tryAcquire(DELAY - 1)).isEqualTo(REJECTED);
+    }
+
+    @Test
+    void rollingWindow() {
+        call(false, 0);
+        IntStream.range(0, 10).forEach(i -> call(true, 0));
+
+        // the failure has left the window
+        call(false, 0);
+        call(true, 0);
+        call(true, 0);
+        call(true, 0);
+        assertThat(this.breaker.state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void halfOpen() {
+        open();
+
+        var first = this.breaker.tryAcquire(DELAY);
+        var second = this.breaker.tryAcquire(DELAY);
+        assertThat(this.breaker.state()).isEqualTo(HALF_OPEN);
+        assertThat(this.breaker.tryAcquire(DELAY)).isEqualTo(REJECTED);
+
+        this.breaker.onResult(first, true, DELAY);
+        assertThat(this.breaker.state()).isEqualTo(HALF_OPEN);
+        this.breaker.onResult(second, true, DELAY);
+        assertThat(this.breaker.state()).isEqualTo(CLOSED);
+    }
+
+    @Test
+    void failedProbe() {
+        open();
+
+        var probe = this.breaker.tryAcquire(DELAY);
+        this.breaker.onResult(probe, false, DELAY);
+        assertThat(this.breaker.state()).isEqualTo(OPEN);
+        assertThat(this.breaker.tryAcquire(2 * DELAY - 1)).isEqualTo(REJECTED);
+        assertThat(this.breaker.tryAcquire(2 * DELAY)).isNotEqualTo(REJECTED);
+    }
+
+    @Test
+    void resultsOfOlderStatesAreIgnored() {
+        var slow = this.breaker.tryAcquire(0);
+        open();
+
+        var probe = this.breaker.tryAcquire(DELAY);
+        this.breaker.onResult(slow, false, DELAY);
+        assertThat(this.breaker.state()).isEqualTo(HALF_OPEN);
+
+        this.breaker.onResult(probe, true, DELAY);
+        assertThat(this.breaker.tryAcquire(DELAY)).isNotEqualTo(REJECTED);
+    }
+
+    void open() {
+        IntStream.range(0, 4).forEach(i -> call(false, 0));
+        assertThat(this.breaker.state()).isEqualTo(OPEN);
+    }
+
+    void call(boolean success, long now) {
+        this.breaker.onResult(this.breaker.tryAcquire(now), success, now);
+    }
+}
@@ -0,0 +1,125 @@
+package nl.probot.apim.core.utils;
+
+import nl.probot.apim.core.utils.RateLimitStore.Key;
+import nl.probot.apim.core.utils.RateLimitStore.Policy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalRateLimitStoreTest {
+
+    static final Key KEY = new Key(1, 1);
+    static final Policy PER_MINUTE = new Policy(60, 60, Duration.ofMinutes(1));
+
+    LocalRateLimitStore store = new LocalRateLimitStore();
+    AtomicLong time = new AtomicLong();
+
+    @BeforeEach
+    void init() {
+        this.store.clock = this.time::get;
+        this.store.lastEviction.set(0);
+    }
+
+    @Test
+    void acquire() {
+        for (int i = 59; i >= 0; i--) {
+            var rateLimit = this.store.acquire(KEY, PER_MINUTE);
+            assertThat(rateLimit.allowed()).isTrue();
+            assertThat(rateLimit.remaining()).isEqualTo(i);
+        }
+
+        var rejected = this.store.acquire(KEY, PER_MINUTE);
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.remaining()).isZero();
+        assertThat(rejected.retryAfter()).isOne();
+        assertThat(rejected.reset()).isEqualTo(60);
+    }
+
+    @Test
+    @DisplayName("Each subscription has its own bucket per Api")
+    void keys() {
+        var policy = new Policy(1, 1, Duration.ofMinutes(1));
+        assertThat(this.store.acquire(new Key(1, 1), policy).allowed()).isTrue();
+        assertThat(this.store.acquire(new Key(1, 1), policy).allowed()).isFalse();
+
+        assertThat(this.store.acquire(new Key(1, 2), policy).allowed()).isTrue();
+        assertThat(this.store.acquire(new Key(2, 1), policy).allowed()).isTrue();
+    }
+
+    @Test
+    void refill() {
+        IntStream.range(0, 60).forEach(i -> this.store.acquire(KEY, PER_MINUTE));
+        assertThat(this.store.acquire(KEY, PER_MINUTE).allowed()).isFalse();
+
+        // one token per second
+        this.time.addAndGet(Duration.ofSeconds(1).toNanos());
+        var allowed = this.store.acquire(KEY, PER_MINUTE);
+        assertThat(allowed.allowed()).isTrue();
+        assertThat(allowed.remaining()).isZero();
+        assertThat(this.store.acquire(KEY, PER_MINUTE).allowed()).isFalse();
+
+        // never more than the burst
+        this.time.addAndGet(Duration.ofHours(1).toNanos());
+        var full = this.store.acquire(KEY, PER_MINUTE);
+        assertThat(full.remaining()).isEqualTo(59);
+        assertThat(full.reset()).isOne();
+    }
+
+    @Test
+    void burst() {
+        // 60 per minute, but at most 5 at once
+        var policy = new Policy(60, 5, Duration.ofMinutes(1));
+        var allowed = IntStream.range(0, 10).filter(i -> this.store.acquire(KEY, policy).allowed()).count();
+        assertThat(allowed).isEqualTo(5);
+
+        this.time.addAndGet(Duration.ofSeconds(2).toNanos());
+        allowed = IntStream.range(0, 10).filter(i -> this.store.acquire(KEY, policy).allowed()).count();
+        assertThat(allowed).isEqualTo(2);
+    }
+
+    @Test
+    void window() {
+        var policy = new Policy(10, 10, Duration.ofHours(1));
+        IntStream.range(0, 10).forEach(i -> this.store.acquire(KEY, policy));
+
+        var rejected = this.store.acquire(KEY, policy);
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.retryAfter()).isEqualTo(360);
+        assertThat(rejected.reset()).isEqualTo(3600);
+    }
+
+    @Test
+    void concurrent() throws Exception {
+        var allowed = new AtomicInteger();
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            IntStream.range(0, 1000).forEach(i -> executor.submit(() -> {
+                if (this.store.acquire(KEY, PER_MINUTE).allowed()) {
+                    allowed.incrementAndGet();
+                }
+            }));
+        }
+
+        assertThat(allowed).hasValue(60);
+    }
+
+    @Test
+    @DisplayName("Full buckets are evicted, because they are the same as new ones")
+    void evictIdle() {
+        this.store.acquire(new Key(1, 1), PER_MINUTE);
+        this.time.addAndGet(Duration.ofSeconds(30).toNanos());
+        IntStream.range(0, 60).forEach(i -> this.store.acquire(new Key(1, 2), PER_MINUTE));
+
+        this.time.addAndGet(Duration.ofSeconds(31).toNanos());
+        this.store.acquire(new Key(1, 3), PER_MINUTE);
+
+        assertThat(this.store.buckets).containsOnlyKeys(new Key(1, 2), new Key(1, 3));
+    }
+}
@@ -0,0 +1,83 @@
+package nl.probot.apim.core.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.utils.MultipartScanner.Part;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MultipartContentTypeFilterTest {
+
+    static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D};
+    static final byte[] EXE = {'M', 'Z', (byte) 0x90, 0, 3, 0};
+    static final byte[] ZIP = {'P', 'K', 3, 4, 20, 0};
+
+    MultipartContentTypeFilter filter = new MultipartContentTypeFilter();
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    MultipartContentTypeFilterTest() {
+        this.filter.registry = this.registry;
+        this.filter.allowedContentTypes = Optional.of(List.of("text/plain", "image/png", "application/vnd.oasis.opendocument.text"));
+    }
+
+    @Test
+    void valid() {
+        assertThatNoException().isThrownBy(() -> {
+            this.filter.validate(new Part("picture", "picture.png", "image/png"), PNG);
+            this.filter.validate(new Part("notes", "notes.txt", "text/plain"), "hello".getBytes());
+            this.filter.validate(new Part("letter", "letter.odt", "application/vnd.oasis.opendocument.text"), ZIP);
+            // a plain text field is not validated
+            this.filter.validate(new Part("field", null, "text/plain"), EXE);
+        });
+    }
+
+    @Test
+    void unsupportedContentType() {
+        assertThatThrownBy(() -> this.filter.validate(new Part("picture", "picture.jpg", "image/jpeg"), new byte[0]))
+                .isInstanceOf(WebApplicationException.class)
+                .hasMessageContaining("Unsupported media type image/jpeg")
+                .extracting(e -> ((WebApplicationException) e).getResponse().getStatus()).isEqualTo(415);
+
+        assertThat(rejected("content_type")).isOne();
+    }
+
+    @Test
+    void contentDoesNotMatchDeclaredType() {
+        assertThatThrownBy(() -> this.filter.validate(new Part("picture", "picture.png", "image/png"), "not a png".getBytes()))
+                .hasMessageContaining("is not of type image/png");
+        assertThatThrownBy(() -> this.filter.validate(new Part("notes", "notes.txt", "text/plain"), EXE))
+                .hasMessageContaining("unsupported type application/x-msdownload");
+
+        assertThat(rejected("signature")).isEqualTo(2);
+    }
+
+    @Test
+    void partWithoutFilename() {
+        assertThatThrownBy(() -> this.filter.validate(new Part("field", null, "application/octet-stream"), EXE))
+                .hasMessageContaining("The content of part field is of the unsupported type application/x-msdownload");
+        assertThatThrownBy(() -> this.filter.validate(new Part("field", null, "image/png"), "not a png".getBytes()))
+                .hasMessageContaining("is not of type image/png");
+
+        assertThat(rejected("signature")).isEqualTo(2);
+    }
+
+    @Test
+    void allTypesAllowedWithoutConfig() {
+        this.filter.allowedContentTypes = Optional.empty();
+
+        assertThatNoException().isThrownBy(() -> this.filter.validate("file", "setup.exe", "application/octet-stream", new ByteArrayInputStream(EXE)));
+        assertThatThrownBy(() -> this.filter.validate("file", "picture.png", "image/png", new ByteArrayInputStream(EXE)))
+                .isInstanceOf(WebApplicationException.class);
+    }
+
+    double rejected(String reason) {
+        return this.registry.counter("apim_multipart_rejected", "reason", reason).count();
+    }
+}
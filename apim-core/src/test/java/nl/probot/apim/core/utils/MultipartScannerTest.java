@@ -0,0 +1,123 @@
+package nl.probot.apim.core.utils;
+
+import jakarta.ws.rs.WebApplicationException;
+import nl.probot.apim.core.utils.MultipartScanner.Part;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MultipartScannerTest {
+
+    static final String BODY = """
+            preamble\r
+            --abc123\r
+            Content-Disposition: form-data; name="description"\r
+            \r
+            a file with --abc12 in it\r
+            --abc123\r
+            Content-Disposition: form-data; name="file"; filename="report.csv"\r
+            Content-Type: application/csv; charset=UTF-8\r
+            \r
+            name,size\r
+            report,10\r
+            --abc123\r
+            content-disposition: form-data; name=picture; filename="picture.jpg"\r
+            \r
+            ÿØÿ\r
+            --abc123--\r
+            --abc123\r
+            Content-Disposition: form-data; name="epilogue"\r
+            \r
+            """;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 7, 13, 64, 1024})
+    void scanInChunks(int chunkSize) {
+        var parts = new ArrayList<Part>();
+        var heads = new ArrayList<String>();
+        var scanner = new MultipartScanner("abc123", (part, head) -> {
+            parts.add(part);
+            heads.add(new String(head, UTF_8));
+        });
+        var body = BODY.getBytes(UTF_8);
+
+        for (int i = 0; i < body.length; i += chunkSize) {
+            scanner.scan(Arrays.copyOfRange(body, i, Math.min(body.length, i + chunkSize)));
+        }
+
+        assertThat(parts).containsExactly(
+                new Part("description", null, "text/plain"),
+                new Part("file", "report.csv", "application/csv"),
+                new Part("picture", "picture.jpg", "application/octet-stream"));
+        assertThat(heads).containsExactly("a file with --ab", "name,size\r\nrepor", "ÿØÿ");
+    }
+
+    @Test
+    void bodyStartsWithDelimiter() {
+        var parts = new ArrayList<Part>();
+        var scanner = new MultipartScanner("abc123", (part, head) -> parts.add(part));
+
+        scanner.scan("--abc123\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nvalue\r\n--abc123--".getBytes(UTF_8));
+
+        assertThat(parts).containsExactly(new Part("a", null, "text/plain"));
+    }
+
+    @Test
+    void extendedFilename() {
+        var parts = new ArrayList<Part>();
+        var scanner = new MultipartScanner("abc123", (part, head) -> parts.add(part));
+
+        scanner.scan("""
+                --abc123\r
+                Content-Disposition: form-data; name="f"; filename*=UTF-8''%e2%82%ac%20rates.exe\r
+                \r
+                MZ\r
+                --abc123\r
+                Content-Disposition: form-data; name="g"; filename="plain.txt"; filename*=unknown''x.exe\r
+                \r
+                MZ\r
+                --abc123--\r
+                """.getBytes(UTF_8));
+
+        assertThat(parts).containsExactly(
+                new Part("f", "€ rates.exe", "application/octet-stream"),
+                new Part("g", "unknown''x.exe", "application/octet-stream"));
+    }
+
+    @Test
+    void rejectedPart() {
+        var calls = new AtomicInteger();
+        var scanner = new MultipartScanner("abc123", (part, head) -> {
+            calls.incrementAndGet();
+            throw new WebApplicationException("Unsupported", 415);
+        });
+        var body = BODY.getBytes(UTF_8);
+
+        assertThatThrownBy(() -> scanner.scan(Arrays.copyOf(body, 100)))
+                .isInstanceOf(WebApplicationException.class)
+                .hasMessage("Unsupported");
+
+        // the rest of the body is discarded without being scanned
+        scanner.scan(Arrays.copyOfRange(body, 100, body.length));
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void headersTooLarge() {
+        var scanner = new MultipartScanner("abc123", (part, head) -> {
+        });
+        scanner.scan("--abc123\r\nX-Large: ".getBytes(UTF_8));
+
+        assertThatThrownBy(() -> scanner.scan(new byte[MultipartScanner.MAX_HEADERS_SIZE]))
+                .isInstanceOf(WebApplicationException.class)
+                .hasMessageContaining("exceed");
+    }
+}
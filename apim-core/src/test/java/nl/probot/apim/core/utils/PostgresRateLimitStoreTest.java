@@ -0,0 +1,98 @@
+package nl.probot.apim.core.utils;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.QuarkusTestProfile;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import nl.probot.apim.core.utils.RateLimitStore.Key;
+import nl.probot.apim.core.utils.RateLimitStore.Policy;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@QuarkusTest
+@TestProfile(PostgresRateLimitStoreTest.PostgresStore.class)
+class PostgresRateLimitStoreTest {
+
+    // the bucket is hardly refilled during a test
+    static final Policy PER_HOUR = new Policy(100, 100, Duration.ofHours(1));
+
+    @Inject
+    PostgresRateLimitStore store;
+
+    @Test
+    @DisplayName("Two nodes that share a bucket never allow more than its burst, at most the tokens they still lease are not used")
+    void sharedBucket() {
+        var key = new Key(1001, 1);
+        var otherNode = otherNode();
+        var allowed = new AtomicInteger();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            IntStream.range(0, 300).forEach(i -> executor.submit(() -> {
+                var store = i % 2 == 0 ? this.store : otherNode;
+                if (store.acquire(key, PER_HOUR).allowed()) {
+                    allowed.incrementAndGet();
+                }
+            }));
+        }
+
+        // each node leases 5% of the limit at once
+        assertThat(allowed.get()).isBetween(100 - 2 * 5, 100);
+        assertThat(this.store.acquire(key, PER_HOUR).allowed()).isFalse();
+        assertThat(otherNode.acquire(key, PER_HOUR).allowed()).isFalse();
+    }
+
+    @Test
+    @DisplayName("The unused tokens of a lease are returned to the bucket when the lease expires")
+    void unusedTokensReturned() throws InterruptedException {
+        var key = new Key(1002, 1);
+        var otherNode = otherNode();
+
+        // this node leases 5 tokens and uses one of them
+        assertThat(this.store.acquire(key, PER_HOUR).allowed()).isTrue();
+
+        var allowed = 0;
+        while (otherNode.acquire(key, PER_HOUR).allowed()) {
+            allowed++;
+        }
+        assertThat(allowed).isEqualTo(95);
+
+        // the 4 unused tokens are returned and leased again on the renewal of the expired lease
+        Thread.sleep(Duration.ofSeconds(this.store.leaseTime).plusMillis(100));
+        for (var i = 0; i < 4; i++) {
+            assertThat(this.store.acquire(key, PER_HOUR).allowed()).isTrue();
+        }
+        var rejected = this.store.acquire(key, PER_HOUR);
+        assertThat(rejected.allowed()).isFalse();
+        assertThat(rejected.retryAfter()).isPositive();
+
+        // the other node is blocked locally until the next token is expected
+        assertThat(otherNode.leases.get(key).blockedUntil).isGreaterThan(System.currentTimeMillis());
+        assertThat(otherNode.acquire(key, PER_HOUR).allowed()).isFalse();
+    }
+
+    private PostgresRateLimitStore otherNode() {
+        var otherNode = new PostgresRateLimitStore();
+        otherNode.leaseSize = this.store.leaseSize;
+        otherNode.leaseTime = this.store.leaseTime;
+        return otherNode;
+    }
+
+    public static class PostgresStore implements QuarkusTestProfile {
+
+        @Override
+        public Map<String, String> getConfigOverrides() {
+            return Map.of(
+                    "apim.rate-limit.store", "postgres",
+                    "apim.rate-limit.postgres.lease-size", "5",
+                    "apim.rate-limit.postgres.lease-time", "1");
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package nl.probot.apim.core.utils;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import jakarta.ws.rs.WebApplicationException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static nl.probot.apim.core.utils.RequestBodyStream.HIGH_WATER_MARK;
+import static nl.probot.apim.core.utils.RequestBodyStream.LOW_WATER_MARK;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RequestBodyStreamTest {
+
+    Source source = new Source();
+
+    @Test
+    void readWhileReceiving() throws Exception {
+        var stream = new RequestBodyStream(this.source, -1);
+
+        try (var executor = Executors.newSingleThreadExecutor()) {
+            var body = executor.submit(stream::readAllBytes);
+
+            stream.write(Buffer.buffer("hello "));
+            stream.write(Buffer.buffer("world"));
+            stream.end();
+
+            assertThat(new String(body.get(), UTF_8)).isEqualTo("hello world");
+        }
+    }
+
+    @Test
+    void backpressure() throws IOException {
+        var stream = new RequestBodyStream(this.source, -1);
+
+        stream.write(Buffer.buffer(new byte[HIGH_WATER_MARK]));
+        assertThat(this.source.paused).isTrue();
+
+        stream.readNBytes(HIGH_WATER_MARK - LOW_WATER_MARK - 1);
+        assertThat(this.source.paused).isTrue();
+
+        stream.readNBytes(1);
+        assertThat(this.source.paused).isFalse();
+        assertThat(stream.available()).isEqualTo(LOW_WATER_MARK);
+    }
+
+    @Test
+    void tooLarge() {
+        var stream = new RequestBodyStream(this.source, 10);
+
+        stream.write(Buffer.buffer("hello"));
+        stream.write(Buffer.buffer(" world"));
+
+        assertThatThrownBy(stream::readAllBytes)
+                .isInstanceOf(IOException.class)
+                .hasCauseInstanceOf(WebApplicationException.class)
+                .hasMessageContaining("max. size of 10 bytes");
+    }
+
+    @Test
+    void closeDiscardsTheRemainder() {
+        var stream = new RequestBodyStream(this.source, -1);
+        stream.write(Buffer.buffer(new byte[HIGH_WATER_MARK]));
+
+        stream.close();
+        stream.write(Buffer.buffer("ignored"));
+
+        assertThat(this.source.paused).isFalse();
+        assertThat(stream.available()).isZero();
+        assertThatThrownBy(stream::read).isInstanceOf(IOException.class);
+    }
+
+    static class Source implements ReadStream<Buffer> {
+
+        boolean paused;
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            this.paused = true;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            this.paused = false;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package nl.probot.apim.core.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseBodyStoreTest {
+
+    ResponseBodyStore bodyStore = CacheManagers.bodyStore(new SimpleMeterRegistry(), 1, 1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void smallBodiesStayOnHeap() {
+        var body = this.bodyStore.store(ByteBuffer.wrap("small".getBytes()));
+
+        assertThat(body.isOffHeap()).isFalse();
+        assertThat(body.bytes()).isEqualTo("small".getBytes());
+        assertThat(this.bodyStore.used).hasValue(0);
+    }
+
+    @Test
+    void largeBodiesAreCountedUntilTheyAreReleased() {
+        var bytes = bytes(4096);
+        var body = this.bodyStore.store(ByteBuffer.wrap(bytes));
+
+        assertThat(body.isOffHeap()).isTrue();
+        assertThat(body.buffer().isDirect()).isTrue();
+        assertThat(body.buffer().isReadOnly()).isTrue();
+        assertThat(body.bytes()).isEqualTo(bytes);
+        assertThat(this.bodyStore.used).hasValue(4096);
+
+        // a revalidated response shares the body
+        assertThat(body.retain()).isTrue();
+        body.release();
+        assertThat(this.bodyStore.used).hasValue(4096);
+        body.release();
+        assertThat(this.bodyStore.used).hasValue(0);
+        assertThat(body.retain()).isFalse();
+    }
+
+    @Test
+    void fullBudget() {
+        var large = this.bodyStore.store(ByteBuffer.wrap(bytes(1024 * 1024 - 1024)));
+        var overflow = this.bodyStore.store(ByteBuffer.wrap(bytes(2048)));
+
+        assertThat(large.isOffHeap()).isTrue();
+        assertThat(overflow.isOffHeap()).isFalse();
+        assertThat(this.bodyStore.used).hasValue(1024 * 1024 - 1024);
+    }
+
+    @Test
+    void mapped() throws Exception {
+        this.bodyStore.mapped = true;
+        this.bodyStore.directory = Optional.of(this.directory);
+        var bytes = bytes(4096);
+
+        var body = this.bodyStore.store(ByteBuffer.wrap(bytes));
+
+        assertThat(body.isOffHeap()).isTrue();
+        assertThat(body.buffer()).isInstanceOf(MappedByteBuffer.class);
+        assertThat(body.bytes()).isEqualTo(bytes);
+        try (var files = Files.list(this.directory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private static byte[] bytes(int length) {
+        var bytes = new byte[length];
+        Arrays.fill(bytes, (byte) 'x');
+        bytes[length - 1] = 'y';
+        return bytes;
+    }
+}
@@ -381,7 +381,7 @@ function sse() {
 
 		startStream() {
 		    const promQueries = [
-		        '?query=sum by (proxyPath, status, subscription, ts)  (last_over_time(apim_metrics_seconds_count[1d]))',
+		        '?query=max by (proxyPath, status, subscription)  (last_over_time(apim_metrics_last_request_seconds[1d]))',
 		        'query=sum by (proxyPath, subscription)  (last_over_time(apim_metrics_seconds_count[1d]))',
 		        'query=avg by (proxyPath) (last_over_time((apim_metrics_seconds_max != 0)[1d:]))',
 		        'query=sum by (proxyPath)  (last_over_time(apim_metrics_seconds_count[1d]))'
@@ -507,7 +507,7 @@ function getTotalPerStatus(data) {
 	                                    status: row.metric.status,
 	                                    value: row.value[1],
 	                                    sub: row.metric.subscription,
-	                                    ts: row.metric.ts
+	                                    ts: new Date(row.value[1] * 1000).toISOString()
                                     }
                                 },
                         (a, b) => b.ts.localeCompare(a.ts));